@@ -0,0 +1,579 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// BatchRunner.java - Run a list of headless machines in parallel.
+//
+// Each non-blank line of the definitions file describes one machine,
+// a name followed by any of these settings:
+//
+//   rl0=path .. rl3=path    RL01/RL02 images, plain or sparse
+//   rm0=path .. rm7=path    RM images, plain or sparse
+//   rl0.overlay=path ..     keep the drive's writes in this overlay file,
+//   rm0.overlay=path ..     created if need be, and only read its image,
+//                           so many machines can share one image
+//   cache=policy            keep the disks in the shared block cache,
+//                           through to write through, back to write
+//                           back every few seconds, reset to write back
+//                           when the machine does a Unibus reset
+//   timing=fixed|fast|realistic  how long disk commands take, fixed
+//                           at 100 instructions by default, as short as
+//                           drivers allow, or modelled on the real drives
+//   tm=path                 tape image
+//   boot=addr               octal start address, default 173000
+//   clock=real|virtual|warp line clock mode, default warp
+//   timeout=secs            stop after this long, default none
+//   console=path            copy console output to a file
+//   match=text              stop when the console prints this text,
+//                           with _ standing for a space
+//   thaw=path               start from this snapshot instead of booting,
+//                           the clock mode comes from the snapshot
+//   freeze=path             save a snapshot here when the machine stops
+//   checkpoint=path         append incremental checkpoints to this log
+//   every=secs              seconds between checkpoints, default 10
+//   resume=path             start from the newest checkpoint in this log
+//   parent=name             start as a fork of the named job once it has
+//                           stopped, sharing its disks copy-on-write
+//   input=text              type this at the console, _ standing for a
+//                           space and ^ for return
+//   record=path             log outside input, line clock ticks and the
+//                           like, for a later replay
+//   replay=path             replay a logged run, from the same start,
+//                           stopping where the recording stopped
+//
+// Lines starting with # are comments.  Each machine runs until it halts,
+// double traps, times out or matches, then one line per machine gives
+// instructions executed, wall time and why it stopped.  Forked jobs run
+// after their parent, and take their media from it.  The optional
+// cache size is in Mbytes, shared by all machines, and its counts are
+// shown at the end if any machine used it.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchRunner {
+
+  private static final int MAX_RL = 4;
+  private static final int MAX_RM = 8;
+
+  private static ScheduledExecutorService timer;
+
+  //
+  // Job - One machine definition and, once it has run, its results.
+  //
+
+  private static class Job implements Runnable {
+    String name;
+    String[] rl = new String[MAX_RL];
+    String[] rm = new String[MAX_RM];
+    String[] rlOverlay = new String[MAX_RL];
+    String[] rmOverlay = new String[MAX_RM];
+    int cache = BlockCache.NONE;
+    int timing = DiskTiming.FIXED;
+    String tm;
+    int boot = 0173000;
+    int clock = KWDevice.WARP;
+    long timeout = 0;
+    String console;
+    String match;
+    String thaw;
+    String freeze;
+    String checkpoint;
+    long every = 10;
+    String resume;
+
+    long instructions;
+    long elapsed;
+    String reason = "not run";
+    volatile boolean timedOut;
+    volatile boolean matched;
+    volatile boolean checkpointDue;
+    String parentName;
+    Job parent;
+    String input;
+    String record;
+    String replay;
+    Machine machine;
+    RLDiskDevice rlDevice;
+    RMDiskDevice rmDevice;
+    TMTapeDevice tmDevice;
+    boolean started;
+    boolean startedOk;        // set up without error, so forks can follow
+    boolean released;
+    Vector<String> timings = new Vector<String>();
+
+    public void run() {
+      if ((parent != null) && !parent.startedOk) {
+        reason = "parent " + parentName + " didn't start";
+        return;
+      }
+      machine = new Machine(name);
+      OutputStream log = null;
+      ScheduledFuture<?> stopper = null;
+      ScheduledFuture<?> checkpointer = null;
+      Checkpoint checkpoints = null;
+      InputLog inputLog = null;
+      boolean failed = false;
+      String opening = null;
+      rlDevice = new RLDiskDevice(machine);
+      rmDevice = new RMDiskDevice(machine);
+      KLConsoleDevice kl;
+      try {
+        BootDevice bd = new BootDevice(machine);
+        tmDevice = new TMTapeDevice(machine);
+        rlDevice.setTiming(timing);
+        rmDevice.setTiming(timing);
+        kl = new KLConsoleDevice(machine, 0777560, 4,
+          "headless");
+        for (int i = 0; i < MAX_RL; ++i) {
+          if (rl[i] != null)
+            rlDevice.assign(i, opening = rl[i], rlOverlay[i]);
+        }
+        for (int i = 0; i < MAX_RM; ++i) {
+          if (rm[i] != null)
+            rmDevice.assign(i, opening = rm[i], rmOverlay[i]);
+        }
+        if (cache != BlockCache.NONE) {
+          for (int i = 0; i < MAX_RL; ++i) {
+            if (rl[i] != null)
+              rlDevice.cache(i, cache);
+          }
+          for (int i = 0; i < MAX_RM; ++i) {
+            if (rm[i] != null)
+              rmDevice.cache(i, cache);
+          }
+        }
+        if (tm != null)
+          tmDevice.assign(opening = tm);
+        if (console != null)
+          log = new BufferedOutputStream(
+            new FileOutputStream(opening = console));
+        kl.setOutput(new ConsoleWatch(this, machine.cpu, log));
+        if (parent != null) {
+          opening = "parent " + parentName;
+          machine.forkFrom(parent.machine);
+        }
+      } catch (IOException e) {
+        reason = "can't open " + opening;
+        return;
+      }
+      if (thaw != null) {
+        try {
+          Snapshot.restore(machine, thaw);
+        } catch (IOException e) {
+          reason = "can't thaw " + thaw + ": " + e.getMessage();
+          return;
+        }
+      }
+      if (resume != null) {
+        try {
+          Checkpoint.restore(machine, resume, -1);
+        } catch (IOException e) {
+          reason = "can't resume " + resume + ": " + e.getMessage();
+          return;
+        }
+      }
+      if ((thaw == null) && (resume == null) && (parent == null)) {
+        machine.kw.setMode(clock);
+        machine.cpu.regs[7] = (short) boot;
+        machine.cpu.psw = 0340;
+      }
+      // typed after any restore, which drops the events pending before it
+      if (input != null)
+        kl.type(input);
+      try {
+        if (record != null)
+          inputLog = InputLog.record(machine, opening = record);
+        else if (replay != null)
+          inputLog = InputLog.replay(machine, opening = replay);
+      } catch (IOException e) {
+        reason = "can't open " + opening + ": " + e.getMessage();
+        return;
+      }
+      if (checkpoint != null) {
+        try {
+          checkpoints = new Checkpoint(machine, checkpoint);
+        } catch (IOException e) {
+          reason = "can't open " + checkpoint + ": " + e.getMessage();
+          return;
+        }
+        checkpointer = timer.scheduleAtFixedRate(new Runnable() {
+          public void run() {
+            checkpointDue = true;
+            machine.cpu.requestStop();
+          }
+        }, every, every, TimeUnit.SECONDS);
+      }
+      if (timeout > 0) {
+        // repeats in case it lands while a checkpoint is being written
+        stopper = timer.scheduleAtFixedRate(new Runnable() {
+          public void run() {
+            timedOut = true;
+            machine.cpu.requestStop();
+          }
+        }, timeout * 1000, 100, TimeUnit.MILLISECONDS);
+      }
+      startedOk = true;
+      while (true) {
+        instructions += machine.cpu.runInline();
+        elapsed += machine.cpu.lastElapsed;
+        if (!checkpointDue || timedOut || matched ||
+          (machine.cpu.lastStop != CPUDevice.STOP_REQUEST))
+          break;
+        checkpointDue = false;
+        try {
+          checkpoints.write();
+        } catch (IOException e) {
+          reason = "can't checkpoint " + checkpoint + ": " + e.getMessage();
+          failed = true;
+          break;
+        }
+      }
+      if (timing != DiskTiming.FIXED) {
+        for (int i = 0; i < MAX_RM; ++i) {
+          if (rlDevice.timing(i) != null)
+            timings.addElement(rlDevice.timing(i));
+          if (rmDevice.timing(i) != null)
+            timings.addElement(rmDevice.timing(i));
+        }
+      }
+      if (stopper != null)
+        stopper.cancel(false);
+      if (checkpointer != null)
+        checkpointer.cancel(false);
+      if (!failed) {
+        switch (machine.cpu.lastStop) {
+        case CPUDevice.STOP_HALT:
+          reason = "halt";
+          break;
+        case CPUDevice.STOP_DOUBLE_TRAP:
+          reason = "double trap";
+          break;
+        case CPUDevice.STOP_TRAP:
+          reason = "trap";
+          break;
+        default:
+          reason = matched ? "match" : (timedOut ? "timeout" : "stopped");
+          break;
+        }
+      }
+      if (inputLog != null) {
+        try {
+          inputLog.close();
+        } catch (IOException e) {
+          reason += ", " + e.getMessage();
+        }
+      }
+      if (freeze != null) {
+        try {
+          Snapshot.save(machine, freeze);
+        } catch (IOException e) {
+          reason += ", can't freeze " + freeze;
+        }
+      }
+      try {
+        if (checkpoints != null)
+          checkpoints.close();
+        if (log != null)
+          log.close();
+      } catch (IOException e) {
+        // ignore, the run is over anyway
+      }
+    }
+
+    //
+    // release() - Force and close the job's disk and tape images, held
+    // writes and all.  Only called once every fork sharing them is done.
+    //
+
+    void release() {
+      released = true;
+      try {
+        if (rlDevice != null)
+          rlDevice.detach();
+        if (rmDevice != null)
+          rmDevice.detach();
+        if (tmDevice != null)
+          tmDevice.detach();
+      } catch (IOException e) {
+        reason += ", can't close media: " + e.getMessage();
+      }
+    }
+  }
+
+  //
+  // ConsoleWatch - Console output sink, copies to the log and stops the
+  // machine when the match text goes by.
+  //
+
+  private static class ConsoleWatch extends OutputStream {
+    private Job job;
+    private CPUDevice cpu;
+    private OutputStream log;
+    private StringBuffer tail = new StringBuffer();
+
+    ConsoleWatch(Job job, CPUDevice cpu, OutputStream log) {
+      this.job = job;
+      this.cpu = cpu;
+      this.log = log;
+    }
+
+    public void write(int b) throws IOException {
+      if (log != null)
+        log.write(b);
+      if (job.match != null) {
+        tail.append((char) b);
+        if (tail.length() > job.match.length())
+          tail.deleteCharAt(0);
+        if (tail.toString().equals(job.match)) {
+          job.matched = true;
+          cpu.requestStop();
+        }
+      }
+    }
+  }
+
+  //
+  // parse() - Turn one definitions line into a job, null if it's bad.
+  //
+
+  private static Job parse(String line, int lineNumber) {
+    StringTokenizer t = new StringTokenizer(line);
+    Job job = new Job();
+    job.name = t.nextToken();
+    try {
+      while (t.hasMoreTokens()) {
+        String setting = t.nextToken();
+        int eq = setting.indexOf('=');
+        if (eq < 0)
+          throw new IllegalArgumentException(setting);
+        String key = setting.substring(0, eq);
+        String value = setting.substring(eq + 1);
+        if (key.startsWith("rl") && (key.length() == 3)) {
+          job.rl[Integer.parseInt(key.substring(2))] = value;
+        } else if (key.startsWith("rm") && (key.length() == 3)) {
+          job.rm[Integer.parseInt(key.substring(2))] = value;
+        } else if (key.startsWith("rl") && key.endsWith(".overlay") &&
+          (key.length() == 11)) {
+          job.rlOverlay[Integer.parseInt(key.substring(2, 3))] = value;
+        } else if (key.startsWith("rm") && key.endsWith(".overlay") &&
+          (key.length() == 11)) {
+          job.rmOverlay[Integer.parseInt(key.substring(2, 3))] = value;
+        } else if (key.equals("cache")) {
+          if (value.equals("through"))
+            job.cache = BlockCache.WRITE_THROUGH;
+          else if (value.equals("back"))
+            job.cache = BlockCache.WRITE_BACK;
+          else if (value.equals("reset"))
+            job.cache = BlockCache.SYNC_ON_RESET;
+          else
+            throw new IllegalArgumentException(setting);
+        } else if (key.equals("timing")) {
+          if (value.equals("fixed"))
+            job.timing = DiskTiming.FIXED;
+          else if (value.equals("fast"))
+            job.timing = DiskTiming.FAST;
+          else if (value.equals("realistic"))
+            job.timing = DiskTiming.REALISTIC;
+          else
+            throw new IllegalArgumentException(setting);
+        } else if (key.equals("tm")) {
+          job.tm = value;
+        } else if (key.equals("boot")) {
+          job.boot = Integer.parseInt(value, 8);
+        } else if (key.equals("clock")) {
+          if (value.equals("real"))
+            job.clock = KWDevice.REAL;
+          else if (value.equals("virtual"))
+            job.clock = KWDevice.VIRTUAL;
+          else if (value.equals("warp"))
+            job.clock = KWDevice.WARP;
+          else
+            throw new IllegalArgumentException(setting);
+        } else if (key.equals("timeout")) {
+          job.timeout = Long.parseLong(value);
+        } else if (key.equals("console")) {
+          job.console = value;
+        } else if (key.equals("match")) {
+          job.match = value.replace('_', ' ');
+        } else if (key.equals("thaw")) {
+          job.thaw = value;
+        } else if (key.equals("freeze")) {
+          job.freeze = value;
+        } else if (key.equals("checkpoint")) {
+          job.checkpoint = value;
+        } else if (key.equals("every")) {
+          job.every = Long.parseLong(value);
+        } else if (key.equals("resume")) {
+          job.resume = value;
+        } else if (key.equals("parent")) {
+          job.parentName = value;
+        } else if (key.equals("record")) {
+          job.record = value;
+        } else if (key.equals("replay")) {
+          job.replay = value;
+        } else if (key.equals("input")) {
+          job.input = value.replace('_', ' ').replace('^', '\r');
+        } else {
+          throw new IllegalArgumentException(setting);
+        }
+      }
+    } catch (RuntimeException e) {
+      System.out.println("line " + lineNumber + ": bad setting " +
+        e.getMessage());
+      return null;
+    }
+    for (int i = 0; i < MAX_RL; ++i) {
+      if ((job.rlOverlay[i] != null) && (job.rl[i] == null)) {
+        System.out.println("line " + lineNumber + ": overlay without rl" + i);
+        return null;
+      }
+    }
+    for (int i = 0; i < MAX_RM; ++i) {
+      if ((job.rmOverlay[i] != null) && (job.rm[i] == null)) {
+        System.out.println("line " + lineNumber + ": overlay without rm" + i);
+        return null;
+      }
+    }
+    if ((job.parentName != null) && ((job.tm != null) ||
+      (job.thaw != null) || (job.resume != null) ||
+      !Arrays.equals(job.rl, new String[MAX_RL]) ||
+      !Arrays.equals(job.rm, new String[MAX_RM]))) {
+      System.out.println("line " + lineNumber +
+        ": a forked job takes its media from its parent");
+      return null;
+    }
+    return job;
+  }
+
+  //
+  // release() - Close the media of every job that has run, once no fork
+  // still to run can share them.
+  //
+
+  private static void release(Vector<Job> jobs) {
+    for (int i = 0; i < jobs.size(); ++i) {
+      Job job = jobs.elementAt(i);
+      if (!job.started || job.released)
+        continue;
+      boolean forksDone = true;
+      for (int j = 0; j < jobs.size(); ++j) {
+        if ((jobs.elementAt(j).parent == job) && !jobs.elementAt(j).started)
+          forksDone = false;
+      }
+      if (forksDone)
+        job.release();
+    }
+  }
+
+  public static void main(String argv[]) {
+    if (argv.length < 1) {
+      System.out.println(
+        "usage: BatchRunner <definitions> [threads [cache-Mbytes]]");
+      System.exit(1);
+    }
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (argv.length > 1)
+      threads = Integer.parseInt(argv[1]);
+    if (argv.length > 2)
+      BlockCache.setSize(Integer.parseInt(argv[2]) * 1024 * 1024 /
+        BlockCache.BLOCK);
+    Vector<Job> jobs = new Vector<Job>();
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(argv[0]));
+      String line;
+      int lineNumber = 0;
+      while ((line = in.readLine()) != null) {
+        ++lineNumber;
+        line = line.trim();
+        if ((line.length() == 0) || line.startsWith("#"))
+          continue;
+        Job job = parse(line, lineNumber);
+        if (job == null)
+          System.exit(1);
+        jobs.addElement(job);
+      }
+      in.close();
+    } catch (IOException e) {
+      System.out.println("Can't read " + argv[0]);
+      System.exit(1);
+    }
+    for (int i = 0; i < jobs.size(); ++i) {
+      Job job = jobs.elementAt(i);
+      if (job.parentName == null)
+        continue;
+      for (int j = 0; j < jobs.size(); ++j) {
+        if (jobs.elementAt(j).name.equals(job.parentName))
+          job.parent = jobs.elementAt(j);
+      }
+      if (job.parent == null) {
+        System.out.println(job.name + ": no job " + job.parentName);
+        System.exit(1);
+      }
+    }
+
+    // Run in rounds, each round every job whose parent has finished,
+    // so a fork never holds a thread waiting for its parent.
+
+    timer = Executors.newSingleThreadScheduledExecutor();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      while (true) {
+        Vector<Job> round = new Vector<Job>();
+        for (int i = 0; i < jobs.size(); ++i) {
+          Job job = jobs.elementAt(i);
+          if (!job.started && ((job.parent == null) || job.parent.started))
+            round.addElement(job);
+        }
+        if (round.size() == 0)
+          break;
+        Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+        for (int i = 0; i < round.size(); ++i) {
+          Job job = round.elementAt(i);
+          job.started = true;
+          tasks.addElement(Executors.callable(job));
+        }
+        pool.invokeAll(tasks);
+        release(jobs);
+      }
+    } catch (InterruptedException e) {
+      // report what we have
+    }
+    pool.shutdown();
+    timer.shutdownNow();
+    System.out.println();
+    for (int i = 0; i < jobs.size(); ++i) {
+      Job job = jobs.elementAt(i);
+      System.out.println(job.name + " " + job.instructions +
+        " instructions " + job.elapsed + " msec " + job.reason);
+      for (int j = 0; j < job.timings.size(); ++j)
+        System.out.println("  " + job.timings.elementAt(j));
+    }
+    if (BlockCache.active())
+      System.out.println(BlockCache.shared().stats());
+    System.exit(0);
+  }
+}
@@ -0,0 +1,366 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// BlockCache.java - Bounded cache of disk blocks shared by every drive.
+//
+// Each cached drive is a CachedDiskImage, which keeps its blocks here,
+// so one budget covers every drive of every machine in the process.
+// Blocks are evicted by the clock algorithm, a block read or written
+// since the hand last passed gets another turn.  What happens to writes
+// is up to each drive's policy:
+//
+//   WRITE_THROUGH   every write goes on to the image straight away
+//   WRITE_BACK      written blocks are held, and written to the image
+//                   and synced every few seconds
+//   SYNC_ON_RESET   written blocks are held until the machine does a
+//                   Unibus reset, then written to the image and synced
+//
+// Held blocks also go to the image when they're evicted, when the drive
+// is synced or closed, and when the process exits.  A write back that
+// fails is reported by the drive's next operation.  Blocks read ahead
+// are counted, along with how many of them were read before they were
+// written or evicted, to show how well the guessing goes.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BlockCache {
+
+	public static final int BLOCK = 512;				// bytes per block
+
+	public static final int NONE = -1;					// drive policies
+	public static final int WRITE_THROUGH = 0;
+	public static final int WRITE_BACK = 1;
+	public static final int SYNC_ON_RESET = 2;
+
+	public static final int BLOCKS = 65536;				// default, 32 Mbytes
+	private static final int FLUSH_SECONDS = 5;
+
+	private static BlockCache shared;
+	private static int sharedBlocks = BLOCKS;
+
+	//
+	// Entry - One cached block.
+	//
+
+	private static class Entry {
+		CachedDiskImage owner;
+		long block;
+		Long key;
+		byte[] data = new byte[BLOCK];
+		int length;						// bytes of data, short at the end
+		boolean referenced;				// since the hand last passed
+		boolean dirty;					// not yet on the image
+		boolean ahead;					// read ahead, not yet read
+	}
+
+	private Entry[] slots;
+	private int hand;
+	private int count;					// slots in use
+	private Hashtable<Long, Entry> table;	// key to its entry
+	private int owners;					// ids handed out
+	private long hits;
+	private long misses;
+	private long writeBacks;
+	private long evictions;
+	private long aheadBlocks;
+	private long aheadUsed;
+
+	private BlockCache(int blocks) {
+		slots = new Entry[blocks];
+		table = new Hashtable<Long, Entry>();
+	}
+
+	//
+	// setSize() - Set the size of the shared cache, in blocks.  Only
+	// takes effect if the cache hasn't been used yet.
+	//
+
+	public static synchronized void setSize(int blocks) {
+		sharedBlocks = Math.max(blocks, 1);
+	}
+
+	//
+	// shared() - The cache, made on first use along with the thread that
+	// writes back WRITE_BACK drives and the hook that writes back
+	// everything at exit.
+	//
+
+	public static synchronized BlockCache shared() {
+		if (shared == null) {
+			final BlockCache cache = new BlockCache(sharedBlocks);
+			ScheduledExecutorService flusher =
+				Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "BlockCache");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					cache.flushAll(false);
+				}
+			}, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					cache.flushAll(true);
+				}
+			});
+			shared = cache;
+		}
+		return shared;
+	}
+
+	//
+	// active() - Tell whether any drive has used the cache.
+	//
+
+	public static synchronized boolean active() {
+		return shared != null;
+	}
+
+	synchronized int register() {
+		return ++owners;
+	}
+
+	private static Long key(CachedDiskImage owner, long block) {
+		return Long.valueOf(((long) owner.id << 40) | block);
+	}
+
+	//
+	// get() - Copy count bytes from within a cached block, false if the
+	// block isn't cached.
+	//
+
+	synchronized boolean get(CachedDiskImage owner, long block, int within,
+	byte[] data, int start, int count) {
+		Entry e = table.get(key(owner, block));
+		if (e == null) {
+			++misses;
+			return false;
+		}
+		++hits;
+		if (e.ahead) {
+			e.ahead = false;
+			++aheadUsed;
+		}
+		e.referenced = true;
+		System.arraycopy(e.data, within, data, start, count);
+		return true;
+	}
+
+	//
+	// put() - Write count bytes into a cached block, false if the block
+	// isn't cached.  dirty says whether the change is still to go to the
+	// image.
+	//
+
+	synchronized boolean put(CachedDiskImage owner, long block, int within,
+	byte[] data, int start, int count, boolean dirty) {
+		Entry e = table.get(key(owner, block));
+		if (e == null) {
+			return false;
+		}
+		e.referenced = true;
+		e.ahead = false;
+		e.dirty |= dirty;
+		System.arraycopy(data, start, e.data, within, count);
+		return true;
+	}
+
+	//
+	// add() - Cache a whole block of length bytes, evicting another if
+	// need be.
+	//
+
+	synchronized void add(CachedDiskImage owner, long block, byte[] data,
+	int start, int length, boolean dirty) {
+		Long key = key(owner, block);
+		Entry e = table.get(key);
+		if (e == null) {
+			e = slot();
+			e.owner = owner;
+			e.block = block;
+			e.key = key;
+			table.put(key, e);
+		}
+		System.arraycopy(data, start, e.data, 0, length);
+		e.length = length;
+		e.referenced = true;
+		e.ahead = false;
+		e.dirty |= dirty;
+	}
+
+	//
+	// fill() - Cache the blocks in data, read from the image starting at
+	// block first, except for any already cached.  Adding stops as soon
+	// as the cache has written any of the owner's blocks back since
+	// writeBacks was taken, evicting to make room included, as the image
+	// may have changed under the data.  ahead says the blocks were read
+	// ahead rather than asked for.
+	//
+
+	synchronized void fill(CachedDiskImage owner, long first, ByteBuffer data,
+	boolean ahead, int writeBacks) {
+		for (long n = first; data.hasRemaining() &&
+		(owner.writeBacks == writeBacks); ++n) {
+			int length = Math.min(BLOCK, data.remaining());
+			Long key = key(owner, n);
+			if (table.get(key) != null) {
+				data.position(data.position() + length);
+				continue;
+			}
+			Entry e = slot();
+			e.owner = owner;
+			e.block = n;
+			e.key = key;
+			data.get(e.data, 0, length);
+			e.length = length;
+			e.referenced = !ahead;
+			e.ahead = ahead;
+			e.dirty = false;
+			table.put(key, e);
+			if (ahead) {
+				++aheadBlocks;
+			}
+		}
+	}
+
+	//
+	// slot() - A free entry, taken from the clock if the cache is full.
+	//
+
+	private Entry slot() {
+		while (true) {
+			Entry e = slots[hand];
+			if (e == null) {
+				e = slots[hand] = new Entry();
+				hand = (hand + 1) % slots.length;
+				++count;
+				return e;
+			}
+			hand = (hand + 1) % slots.length;
+			if (e.owner == null) {
+				++count;
+				return e;
+			}
+			if (e.referenced) {
+				e.referenced = false;
+				continue;
+			}
+			writeBack(e);
+			table.remove(e.key);
+			e.owner = null;
+			++evictions;
+			return e;
+		}
+	}
+
+	private void writeBack(Entry e) {
+		if (e.dirty) {
+			e.dirty = false;
+			++writeBacks;
+			++e.owner.writeBacks;
+			try {
+				e.owner.base().write(e.block * BLOCK, e.data, 0, e.length);
+			} catch (IOException x) {
+				e.owner.failed(x);
+			}
+		}
+	}
+
+	//
+	// flush() - Write the owner's held blocks to its image.
+	//
+
+	synchronized void flush(CachedDiskImage owner) {
+		for (int i = 0; i < slots.length; ++i) {
+			Entry e = slots[i];
+			if ((e != null) && (e.owner == owner)) {
+				writeBack(e);
+			}
+		}
+	}
+
+	//
+	// drop() - Forget the owner's blocks, held ones included.
+	//
+
+	synchronized void drop(CachedDiskImage owner) {
+		for (int i = 0; i < slots.length; ++i) {
+			Entry e = slots[i];
+			if ((e != null) && (e.owner == owner)) {
+				table.remove(e.key);
+				e.owner = null;
+				e.dirty = false;
+				--count;
+			}
+		}
+	}
+
+	//
+	// flushAll() - Write back and sync the WRITE_BACK drives, or with
+	// everything true every drive.
+	//
+
+	private void flushAll(boolean everything) {
+		Vector<CachedDiskImage> written = new Vector<CachedDiskImage>();
+		synchronized (this) {
+			for (int i = 0; i < slots.length; ++i) {
+				Entry e = slots[i];
+				if ((e != null) && e.dirty && (everything ||
+				(e.owner.policy() == WRITE_BACK))) {
+					writeBack(e);
+					if (!written.contains(e.owner)) {
+						written.addElement(e.owner);
+					}
+				}
+			}
+		}
+		for (int i = 0; i < written.size(); ++i) {
+			CachedDiskImage owner = written.elementAt(i);
+			try {
+				owner.base().force();
+			} catch (IOException x) {
+				owner.failed(x);
+			}
+		}
+	}
+
+	//
+	// stats() - Counts for the status display.
+	//
+
+	public synchronized String stats() {
+		return "block cache " + count + "/" + slots.length + " blocks, " +
+			hits + " hits, " + misses + " misses, " + writeBacks +
+			" write backs, " + evictions + " evictions, " + aheadBlocks +
+			" read ahead, " + aheadUsed + " used";
+	}
+}
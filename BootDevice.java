@@ -84,13 +84,13 @@ public class BootDevice implements UnibusDevice {
 	private UnibusDeviceInfo info;
 	private String options;
 
-	public BootDevice() {
-		this(DEFAULT_BASE, DEFAULT_SIZE, "");
+	public BootDevice(Machine machine) {
+		this(machine, DEFAULT_BASE, DEFAULT_SIZE, "");
 	}
 
-	public BootDevice(int base, int size, String options) {
+	public BootDevice(Machine machine, int base, int size, String options) {
 		this.options = options;
-		Unibus u = Unibus.instance();
+		Unibus u = machine.unibus;
 		info = new UnibusDeviceInfo(this, base, size, "BOOTROMS", false);
 		u.registerDevice(info);
 	}
@@ -0,0 +1,118 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// CPUBench.java - Time the processor on a register only ALU loop, with
+// eager and lazy condition codes and with the block engine.
+//
+
+package PDPCafe;
+
+public class CPUBench {
+
+  private static final int START = 01000;
+
+  // MOV #n,R5 / MOV #0,R0 / 9 instruction inner loop counted by R0,
+  // outer loop counted by R5 / HALT
+
+  private static final int[] program = {
+    0012705, 0,         // 1000  mov  #n,r5
+    0012700, 0,         // 1004  mov  #0,r0
+    0010102,            // 1010  mov  r1,r2
+    0060203,            // 1012  add  r2,r3
+    0005204,            // 1014  inc  r4
+    0020304,            // 1016  cmp  r3,r4
+    0050301,            // 1020  bis  r3,r1
+    0005701,            // 1022  tst  r1
+    0160402,            // 1024  sub  r4,r2
+    0005300,            // 1026  dec  r0
+    0001367,            // 1030  bne  1010
+    0005305,            // 1032  dec  r5
+    0001363,            // 1034  bne  1004
+    0000000             // 1036  halt
+  };
+
+  private static void load(Unibus unibus, int loops) throws Trap {
+    for (int i = 0; i < program.length; ++i) {
+      unibus.write(START + (i * 2), (short) program[i]);
+    }
+    unibus.write(START + 2, (short) loops);
+  }
+
+  private static long run(CPUDevice cpu, String name) {
+    for (int i = 0; i < 8; ++i) {
+      cpu.regs[i] = 0;
+    }
+    cpu.regs[6] = (short) START;
+    cpu.regs[7] = (short) START;
+    cpu.psw = 0340;
+    cpu.startExecution(false);
+    while (cpu.isExecuting()) {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        // do nothing
+      }
+    }
+    long elapsed = Math.max(cpu.lastElapsed, 1);
+    System.out.println(name + ": " + cpu.lastExecuted + " instructions in " +
+      elapsed + " msec, " + (cpu.lastExecuted / (elapsed * 1000)) + " MIPS");
+    return elapsed;
+  }
+
+  public static void main(String argv[]) {
+    int loops = 40;
+    int passes = 3;
+    if (argv.length > 0)
+      loops = Integer.parseInt(argv[0]);
+    if (argv.length > 1)
+      passes = Integer.parseInt(argv[1]);
+    Machine machine = new Machine();
+    Unibus unibus = machine.unibus;
+    CPUDevice cpu = machine.cpu;
+    try {
+      load(unibus, loops);
+    } catch (Trap t) {
+      System.out.println("Can't load program");
+      System.exit(1);
+    }
+    // Single passes swing with the JIT and the host, so the best pass
+    // of each mode is what gets compared.
+
+    long eager = Long.MAX_VALUE;
+    long lazy = Long.MAX_VALUE;
+    long blocks = Long.MAX_VALUE;
+    for (int i = 0; i < passes; ++i) {
+      cpu.setLazyFlags(false);
+      eager = Math.min(eager, run(cpu, "eager flags"));
+      cpu.setLazyFlags(true);
+      lazy = Math.min(lazy, run(cpu, "lazy flags"));
+      cpu.setLazyFlags(false);
+      cpu.setBlockEngine(true);
+      blocks = Math.min(blocks, run(cpu, "block engine"));
+      cpu.setBlockEngine(false);
+    }
+    System.out.println("best of " + passes + ": eager " + eager +
+      " msec, lazy " + lazy + " msec, blocks " + blocks + " msec");
+    System.exit(0);
+  }
+}
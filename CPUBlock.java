@@ -0,0 +1,39 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// CPUBlock.java - A block of instructions translated into a JVM class.
+//
+// CPUTranslator writes a subclass for each block, run() executes the
+// block's instructions in order for the CPU passed to it.
+//
+
+package PDPCafe;
+
+abstract class CPUBlock {
+	int start;			// physical address of the first instruction
+	int pc;				// its virtual address
+	int entry;			// and its predecode entry
+	int count;			// number of instructions in the block
+
+	abstract void run(CPUDevice cpu) throws Trap;
+}
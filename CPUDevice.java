@@ -26,7 +26,12 @@
 
 package PDPCafe;
 
-public class CPUDevice extends Thread implements UnibusDevice {
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.locks.LockSupport;
+
+public class CPUDevice extends Thread
+implements UnibusDevice, SnapshotDevice {
 
 	private static final int CPU_PSW = 0777776;
 	private static final int CPU_PSW_SIZE = 1;
@@ -54,36 +59,242 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private static final int MNL = 0x80000000;
 
-	// LOOK_COUNT and WAIT_SLEEP should be configurable through options
-	//   LOOK_COUNT = 0 is required for cpu trap tests to pass
-	//   LOOK_COUNT = 50 is works well for most things
-	//   WAIT_SLEEP should be chnaged based on platform support
-
-	private static final int LOOK_COUNT = 50;	// instructions between each
-	//private static final int LOOK_COUNT = 0;	// instructions between each
-	private static final int WAIT_SLEEP = 10;	// # of msec to give up cpu
+	// Predecoded operations, zero marks an empty decode cache entry.
+
+	private static final int OP_RESERVED = 1;
+	private static final int OP_HALT = 2;
+	private static final int OP_WAIT = 3;
+	private static final int OP_RTI = 4;
+	private static final int OP_BPT = 5;
+	private static final int OP_IOT = 6;
+	private static final int OP_RESET = 7;
+	private static final int OP_JMP = 8;
+	private static final int OP_RTS = 9;
+	private static final int OP_CC = 10;
+	private static final int OP_SWAB = 11;
+	private static final int OP_BR = 12;
+	private static final int OP_BNEorBEQ = 13;
+	private static final int OP_BGEorBLT = 14;
+	private static final int OP_BGTorBLE = 15;
+	private static final int OP_JSR = 16;
+	private static final int OP_CLR = 17;
+	private static final int OP_COM = 18;
+	private static final int OP_INC = 19;
+	private static final int OP_DEC = 20;
+	private static final int OP_NEG = 21;
+	private static final int OP_ADC = 22;
+	private static final int OP_SBC = 23;
+	private static final int OP_TST = 24;
+	private static final int OP_ROR = 25;
+	private static final int OP_ROL = 26;
+	private static final int OP_ASR = 27;
+	private static final int OP_ASL = 28;
+	private static final int OP_MARK = 29;
+	private static final int OP_MFPI = 30;
+	private static final int OP_MTPI = 31;
+	private static final int OP_SXT = 32;
+	private static final int OP_MOV = 33;
+	private static final int OP_CMP = 34;
+	private static final int OP_BIT = 35;
+	private static final int OP_BIC = 36;
+	private static final int OP_BIS = 37;
+	private static final int OP_ADD = 38;
+	private static final int OP_MUL = 39;
+	private static final int OP_DIV = 40;
+	private static final int OP_ASH = 41;
+	private static final int OP_ASHC = 42;
+	private static final int OP_XOR = 43;
+	private static final int OP_SOB = 44;
+	private static final int OP_BPLorBMI = 45;
+	private static final int OP_BHIorBLOS = 46;
+	private static final int OP_BVCorBVS = 47;
+	private static final int OP_BCCorBCS = 48;
+	private static final int OP_EMT = 49;
+	private static final int OP_TRAP = 50;
+	private static final int OP_CLRB = 51;
+	private static final int OP_COMB = 52;
+	private static final int OP_INCB = 53;
+	private static final int OP_DECB = 54;
+	private static final int OP_NEGB = 55;
+	private static final int OP_ADCB = 56;
+	private static final int OP_SBCB = 57;
+	private static final int OP_TSTB = 58;
+	private static final int OP_RORB = 59;
+	private static final int OP_ROLB = 60;
+	private static final int OP_ASRB = 61;
+	private static final int OP_ASLB = 62;
+	private static final int OP_MTPS = 63;
+	private static final int OP_MFPS = 64;
+	private static final int OP_MOVB = 65;
+	private static final int OP_CMPB = 66;
+	private static final int OP_BITB = 67;
+	private static final int OP_BICB = 68;
+	private static final int OP_BISB = 69;
+	private static final int OP_SUB = 70;
+	private static final int OP_FIS = 71;
+
+	// The interpreter method for each op, for translated blocks to call.
+	// OP_RESERVED has none, blocks run it through execute().
+
+	private static final String[] executeMethods = new String[OP_FIS + 1];
+
+	static {
+		executeMethods[OP_HALT] = "executeHALT";
+		executeMethods[OP_WAIT] = "executeWAIT";
+		executeMethods[OP_RTI] = "executeRTIorRTT";
+		executeMethods[OP_BPT] = "executeBPT";
+		executeMethods[OP_IOT] = "executeIOT";
+		executeMethods[OP_RESET] = "executeRESET";
+		executeMethods[OP_JMP] = "executeJMP";
+		executeMethods[OP_RTS] = "executeRTS";
+		executeMethods[OP_CC] = "executeCC";
+		executeMethods[OP_SWAB] = "executeSWAB";
+		executeMethods[OP_BR] = "executeBR";
+		executeMethods[OP_BNEorBEQ] = "executeBNEorBEQ";
+		executeMethods[OP_BGEorBLT] = "executeBGEorBLT";
+		executeMethods[OP_BGTorBLE] = "executeBGTorBLE";
+		executeMethods[OP_JSR] = "executeJSR";
+		executeMethods[OP_CLR] = "executeCLR";
+		executeMethods[OP_COM] = "executeCOM";
+		executeMethods[OP_INC] = "executeINC";
+		executeMethods[OP_DEC] = "executeDEC";
+		executeMethods[OP_NEG] = "executeNEG";
+		executeMethods[OP_ADC] = "executeADC";
+		executeMethods[OP_SBC] = "executeSBC";
+		executeMethods[OP_TST] = "executeTST";
+		executeMethods[OP_ROR] = "executeROR";
+		executeMethods[OP_ROL] = "executeROL";
+		executeMethods[OP_ASR] = "executeASR";
+		executeMethods[OP_ASL] = "executeASL";
+		executeMethods[OP_MARK] = "executeMARK";
+		executeMethods[OP_MFPI] = "executeMFPI";
+		executeMethods[OP_MTPI] = "executeMTPI";
+		executeMethods[OP_SXT] = "executeSXT";
+		executeMethods[OP_MOV] = "executeMOV";
+		executeMethods[OP_CMP] = "executeCMP";
+		executeMethods[OP_BIT] = "executeBIT";
+		executeMethods[OP_BIC] = "executeBIC";
+		executeMethods[OP_BIS] = "executeBIS";
+		executeMethods[OP_ADD] = "executeADD";
+		executeMethods[OP_MUL] = "executeMUL";
+		executeMethods[OP_DIV] = "executeDIV";
+		executeMethods[OP_ASH] = "executeASH";
+		executeMethods[OP_ASHC] = "executeASHC";
+		executeMethods[OP_XOR] = "executeXOR";
+		executeMethods[OP_SOB] = "executeSOB";
+		executeMethods[OP_BPLorBMI] = "executeBPLorBMI";
+		executeMethods[OP_BHIorBLOS] = "executeBHIorBLOS";
+		executeMethods[OP_BVCorBVS] = "executeBVCorBVS";
+		executeMethods[OP_BCCorBCS] = "executeBCCorBCS";
+		executeMethods[OP_EMT] = "executeEMT";
+		executeMethods[OP_TRAP] = "executeTRAP";
+		executeMethods[OP_CLRB] = "executeCLRB";
+		executeMethods[OP_COMB] = "executeCOMB";
+		executeMethods[OP_INCB] = "executeINCB";
+		executeMethods[OP_DECB] = "executeDECB";
+		executeMethods[OP_NEGB] = "executeNEGB";
+		executeMethods[OP_ADCB] = "executeADCB";
+		executeMethods[OP_SBCB] = "executeSBCB";
+		executeMethods[OP_TSTB] = "executeTSTB";
+		executeMethods[OP_RORB] = "executeRORB";
+		executeMethods[OP_ROLB] = "executeROLB";
+		executeMethods[OP_ASRB] = "executeASRB";
+		executeMethods[OP_ASLB] = "executeASLB";
+		executeMethods[OP_MTPS] = "executeMTPS";
+		executeMethods[OP_MFPS] = "executeMFPS";
+		executeMethods[OP_MOVB] = "executeMOVB";
+		executeMethods[OP_CMPB] = "executeCMPB";
+		executeMethods[OP_BITB] = "executeBITB";
+		executeMethods[OP_BICB] = "executeBICB";
+		executeMethods[OP_BISB] = "executeBISB";
+		executeMethods[OP_SUB] = "executeSUB";
+		executeMethods[OP_FIS] = "executeFIS";
+	}
+
+	// Deferred condition codes.  The common data movement and arithmetic
+	// instructions set C straight away but only record their operands
+	// and result for N, Z and V, which are worked out when an instruction
+	// that reads or sets them directly calls evaluateFlags().
+
+	private static final int CC_NONE = 0;	// psw flags are current
+	private static final int CC_LOG = 1;	// MOV, BIT, BIC, BIS
+	private static final int CC_INC = 2;
+	private static final int CC_DEC = 3;
+	private static final int CC_TST = 4;	// TST and CLR
+	private static final int CC_ADD = 5;
+	private static final int CC_SUB = 6;	// SUB and CMP
+	private static final int CC_BYTE = 010;	// byte form of the above
+
+	// Events and interrupts are checked after every instruction, the
+	// line clock and run requests only every POLL_COUNT instructions.
+	// A WAIT with nothing to do parks for at most WAIT_PARK.
+
+	private static final int POLL_COUNT = 500;	// instructions between polls
+	private static final int LATENCY_BUCKETS = 24;	// powers of two
+	private static final long WAIT_PARK = 1000000000L;	// # of nsec to park
 	private static final int SYNC_SLEEP = 1000;	// # of msec to wait for sync
 	private static final int SYNC_LOOP = 3;		// # of loops to wait for sync
 
-	private static CPUDevice theInstance = null;
+	// Why run2() last returned.
+
+	public static final int STOP_NONE = 0;			// single step
+	public static final int STOP_HALT = 1;			// HALT instruction
+	public static final int STOP_DOUBLE_TRAP = 2;	// trap while trapping
+	public static final int STOP_TRAP = 3;			// unimplemented trap
+	public static final int STOP_REQUEST = 4;		// asked to stop
+
+	// Block engine sizing.  A block never leaves the 64 byte MMU block
+	// it starts in, so the mapping and length checks done for its first
+	// instruction hold for the rest and 32 instructions is the most it
+	// can hold.
+
+	private static final int BLOCK_SLOTS = 4096;	// block cache entries
+	private static final int BLOCK_HEAT = 16;		// entries before building
+	private static final int BLOCK_MAX = 32;		// instructions per block
 
 	public short[] regs;
 	public short[] stacks;
 	public int psw;
 	public long lastExecuted = 0;
+	public long lastElapsed = 0;
+	public int lastStop = STOP_NONE;
 
 	private int ir;
+	private int srcMode;		// operand fields split out of ir
+	private int srcReg;
+	private int dstMode;
+	private int dstReg;
+	private int[] decodeCache;	// predecode entries by physical word
+	private boolean blockEngine;	// run hot code as translated blocks
+	private boolean blocksOn;		// and this run2() isn't single stepping
+	private CPUBlock[] blockCache;	// blocks hashed by physical address
+	private byte[] blockHeat;		// entry counts for untranslated blocks
+	private CPUBlock block;			// block found by fetch(), if any
+	private int blockMode;			// psw mode the running block entered in
+	private int blockGeneration;	// and the mmu generation
+	private long blockSteps;		// instructions finished by blockNext()
+	private CPUTranslator translator;
+	private long nextPoll;			// clock of the next line clock poll
+	private boolean lazyFlags;		// defer condition code updates
+	private int ccKind;				// pending condition code update
+	private int ccA;				// its operands and result
+	private int ccB;
+	private int ccR;
+	private long[] latency;			// interrupt latency histogram
 	private boolean stackCheck;
 	private short savedAddress;
+	private Machine machine;
 	private Unibus unibus;
 	private KTDevice mmu;
 	private KWDevice kw;
 
-	private boolean runRequest;
+	private volatile boolean runRequest;
 	private boolean runStatus;
 	private boolean runRequestSingle;
 
-	private CPUDevice() {
+	public CPUDevice(Machine machine) {
+		super(machine.name + " cpu");
+		this.machine = machine;
 		psw = 0340;
 		regs = new short[8];
 		for (int i = 0; i < 8; ++i) {
@@ -91,31 +302,32 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		}
 		stacks = new short[4];
 		UnibusDeviceInfo info;
-		unibus = Unibus.instance();
+		unibus = machine.unibus;
+		decodeCache = unibus.decodeCache();
+		blockEngine = false;
+		blockCache = new CPUBlock[BLOCK_SLOTS];
+		blockHeat = new byte[BLOCK_SLOTS];
+		latency = new long[LATENCY_BUCKETS];
+		lazyFlags = false;
+		ccKind = CC_NONE;
 		info = new UnibusDeviceInfo(this, CPU_PSW, CPU_PSW_SIZE, "PSW", true);
 		unibus.registerDevice(info);
-		kw = KWDevice.instance();
+		kw = machine.kw;
 		runRequest = false;
 		runStatus = false;
 	}
 
-	public static final synchronized CPUDevice instance() {
-		if (theInstance == null) {
-			theInstance = new CPUDevice();
-			theInstance.start();
-		}
-		return theInstance;
-	}
-
 	public void reset() {
 	}
 
 	public short read(int addr) throws Trap {
+		evaluateFlags();
 		return(short) psw;
 	}
 
 	public void write(int addr, short data) throws Trap {
 		int oldmode = (psw & 0140000) >>> 14;
+		ccKind = CC_NONE;
 		psw = (((int) data) & LNI) & ~T_BIT;
 		int newmode = (psw & 0140000) >>> 14;
 		stacks[oldmode] = regs[SP];
@@ -145,6 +357,10 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	public synchronized boolean startExecution(boolean singleStep) {
 		if (!runStatus) {
+			if (getState() == Thread.State.NEW) {
+				setDaemon(true);
+				start();
+			}
 			runRequestSingle = singleStep;
 			lastExecuted = 0;
 			runRequest = true;
@@ -184,6 +400,93 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		return runStatus;
 	}
 
+	//
+	// runInline() - Run on the calling thread until the processor stops,
+	// for callers like BatchRunner that manage their own threads.
+	//
+
+	public long runInline() {
+		synchronized (this) {
+			if (runStatus) {
+				return 0;
+			}
+			runRequestSingle = false;
+			lastExecuted = 0;
+			runRequest = true;
+			runStatus = true;
+		}
+		long start = System.currentTimeMillis();
+		lastExecuted = run2(false);
+		lastElapsed = System.currentTimeMillis() - start;
+		runStatus = false;
+		runRequest = false;
+		return lastExecuted;
+	}
+
+	//
+	// requestStop() - Ask the processor to stop without waiting for it.
+	// A WAIT parked with nothing pending is woken to see the request.
+	//
+
+	public void requestStop() {
+		runRequest = false;
+		unibus.wakeWaiter();
+	}
+
+	public synchronized void setBlockEngine(boolean on) {
+		if (!runStatus) {
+			blockEngine = on;
+			block = null;
+		}
+	}
+
+	public boolean getBlockEngine() {
+		return blockEngine;
+	}
+
+	public synchronized void setLazyFlags(boolean on) {
+		if (!runStatus) {
+			lazyFlags = on;
+		}
+	}
+
+	public boolean getLazyFlags() {
+		return lazyFlags;
+	}
+
+	//
+	// saveState() - The registers, both stack pointers and the PSW with
+	// any deferred condition codes folded in.
+	//
+
+	public void saveState(DataOutputStream out) throws IOException {
+		evaluateFlags();
+		for (int i = 0; i < 8; ++i) {
+			out.writeShort(regs[i]);
+		}
+		for (int i = 0; i < 4; ++i) {
+			out.writeShort(stacks[i]);
+		}
+		out.writeInt(psw);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		for (int i = 0; i < 8; ++i) {
+			regs[i] = in.readShort();
+		}
+		for (int i = 0; i < 4; ++i) {
+			stacks[i] = in.readShort();
+		}
+		psw = in.readInt();
+		ccKind = CC_NONE;
+		for (int i = 0; i < BLOCK_SLOTS; ++i) {
+			blockCache[i] = null;
+			blockHeat[i] = 0;
+		}
+		block = null;
+		lastStop = STOP_NONE;
+	}
+
 	public void run() {
 		long start, stop;
 		while (true) {
@@ -198,6 +501,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 			start = System.currentTimeMillis();
 			lastExecuted = run2(runRequestSingle);
 			stop = System.currentTimeMillis();
+			lastElapsed = stop - start;
 			if (!runRequestSingle) {
 				System.out.println("\nProcessor Halted: " +
 				lastExecuted + " instructions executed in " +
@@ -212,16 +516,27 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		boolean flag = !singleStep;
 		short tempPC;
 		long total = 0;	 // make class member ?
-		int look = 0;	 // make class member ?
+		nextPoll = unibus.clock + POLL_COUNT;
+		lastStop = STOP_NONE;
 		int rtt = 0;
-		mmu = KTDevice.instance();
+		mmu = machine.mmu;
+		blocksOn = blockEngine && !singleStep;
+		blockSteps = 0;
 		do {
 			stackCheck = false;
 			mmu.mmr2update(regs[PC]);
 			try {
-				ir = ((int) mmu.logicalRead(regs[PC])) & 0177777;
+				int entry = fetch();
 				regs[PC] += 2;
-				decodeAndExecute();
+				if (block != null) {
+					CPUBlock b = block;
+					block = null;
+					blockMode = psw & 0140000;
+					blockGeneration = mmu.generation;
+					b.run(this);
+				} else {
+					execute(entry);
+				}
 			} catch (Trap trap) {
 				try {
 					if (trap.vector >= 0) {
@@ -232,35 +547,64 @@ public class CPUDevice extends Thread implements UnibusDevice {
 							rtt = 1;
 							break;
 						case Trap.WaitInstruction:
+							// No instructions run while waiting, so the
+							// clock skips straight to the next event, except
+							// with a virtual line clock, where the clock runs
+							// at its nominal rate.  With no events pending,
+							// park until the next real line clock tick or
+							// until an interrupt is posted.  A replay never
+							// waits, its next input counts as an event.  The
+							// clock moves at least one before anything is
+							// taken, so input taken here has a clock of its
+							// own, not the one of the boundary before WAIT.
+							unibus.setWaiter(Thread.currentThread());
 							while (!unibus.waitingInterrupt((psw & 0340) >> 5)) {
 								kw.pollClock();
-								unibus.runEvents(LOOK_COUNT + 50);
-								//unibus.runEvents(LOOK_COUNT); GROK GROK
-								// give the cpu back for a bit if
-								// there are no interrupts waiting
-								if (!unibus.waitingInterrupt((psw & 0340) >> 5)) {
-									try {
-										sleep(WAIT_SLEEP);
-									} catch (InterruptedException e) {
-										// do nothing
+								long ahead = -1;
+								if (unibus.nextDeadline != Long.MAX_VALUE) {
+									ahead = Math.max(1, unibus.nextDeadline - unibus.clock + 1);
+								}
+								if ((ahead >= 0) && ((kw.getMode() != KWDevice.VIRTUAL) ||
+								unibus.replaying())) {
+									unibus.runEvents((int) Math.min(ahead, Integer.MAX_VALUE));
+								} else if (!unibus.waitingInterrupt((psw & 0340) >> 5)) {
+									long nanos = kw.nanosToNextTick();
+									if (ahead >= 0) {
+										nanos = ahead * KWDevice.NANOS_PER_INSTRUCTION;
+									}
+									long before = System.nanoTime();
+									LockSupport.parkNanos(this, Math.min(nanos, WAIT_PARK));
+									Thread.interrupted();
+									if (ahead >= 0) {
+										long passed = (System.nanoTime() - before) /
+											KWDevice.NANOS_PER_INSTRUCTION;
+										unibus.runEvents((int) Math.max(1, Math.min(ahead,
+											Math.min(passed, Integer.MAX_VALUE))));
 									}
 								}
 								if (!runRequest) {
+									lastStop = STOP_REQUEST;
 									flag = false;
 									break;
 								}
 							}
-							look = LOOK_COUNT;
+							unibus.setWaiter(null);
 							break;
 						default:
 							System.out.println("\nTrap=" + trap.vector +
 								" pc=" + regs[PC] + " ir=" + ir);
+							if (trap.vector == Trap.HaltInstruction) {
+								lastStop = STOP_HALT;
+							} else {
+								lastStop = STOP_TRAP;
+							}
 							flag = false;
 							break;
 						}
 					}
 				} catch (Trap doubleTrap) {
 					System.out.println("\nDouble Trap");
+					lastStop = STOP_DOUBLE_TRAP;
 					flag = false;
 				}
 			}
@@ -270,6 +614,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 					stackCheck = false;
 				} catch (Trap doubleTrap) {
 					System.out.println("\nDouble Trap");
+					lastStop = STOP_DOUBLE_TRAP;
 					flag = false;
 				}
 			}
@@ -282,18 +627,33 @@ public class CPUDevice extends Thread implements UnibusDevice {
 					}
 				} catch (Trap doubleTrap) {
 					System.out.println("\nDouble Trap");
+					lastStop = STOP_DOUBLE_TRAP;
 					flag = false;
 				}
 			}
 			rtt = 0;
 			++total;
-			++look;
-			if (look > LOOK_COUNT) {
+
+			// Take anything that has come due.  The clock, the first event
+			// deadline and the interrupt mask are checked every instruction,
+			// the wall clock only once per poll.
+
+			if ((++unibus.clock > unibus.nextDeadline) ||
+			unibus.waitingInterrupt((psw & 0340) >> 5) ||
+			(unibus.clock >= nextPoll)) {
 				UnibusInterrupt ie;
-				kw.pollClock();
-				unibus.runEvents(look);
+				if (unibus.clock >= nextPoll) {
+					kw.pollClock();
+					nextPoll = unibus.clock + POLL_COUNT;
+				}
+				unibus.runEvents(0);
+				if (flag && !runRequest) {	// after events, a replay may stop
+					lastStop = STOP_REQUEST;
+					flag = false;
+				}
 				try {
 					while ((ie = unibus.runInterrupts((psw & 0340) >> 5)) != null) {
+						countLatency(unibus.clock - ie.posted);
 						service(ie.vector);
 						ie.device.interruptService();
 						if (stackCheck) {
@@ -303,15 +663,44 @@ public class CPUDevice extends Thread implements UnibusDevice {
 					}
 				} catch (Trap doubleTrap) {
 					System.out.println("\nDouble Trap");
+					lastStop = STOP_DOUBLE_TRAP;
 					flag = false;
 				}
-				if (!runRequest) {
-					flag = false;
-				}
-				look = 0;
 			}
 		} while (flag);
-		return total;
+		evaluateFlags();
+		return total + blockSteps;
+	}
+
+	//
+	// countLatency() - Add an interrupt's delay, in instructions from
+	// posting to the vector fetch, to the histogram.
+	//
+
+	private final void countLatency(long delay) {
+		int bucket = 0;
+		while ((delay > 0) && (bucket < (LATENCY_BUCKETS - 1))) {
+			delay >>= 1;
+			++bucket;
+		}
+		++latency[bucket];
+	}
+
+	public void dumpLatency() {
+		System.out.println("Interrupt latency (instructions):");
+		for (int i = 0; i < LATENCY_BUCKETS; ++i) {
+			if (latency[i] != 0) {
+				long low = (i == 0) ? 0 : (1L << (i - 1));
+				long high = (i == 0) ? 0 : ((1L << i) - 1);
+				String range = low + "-" + high;
+				if (i == (LATENCY_BUCKETS - 1)) {
+					range = low + "+";
+				} else if (low == high) {
+					range = "" + low;
+				}
+				System.out.println("  " + range + ": " + latency[i]);
+			}
+		}
 	}
 
 	private final boolean isKernel() {
@@ -330,6 +719,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void service(int vector) throws Trap {
+		evaluateFlags();
 		int oldmode = (psw & 0140000) >>> 14;
 		int oldpsw = psw;
 		short oldpc = regs[PC];
@@ -345,95 +735,91 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final short loadSource() throws Trap {
-		int sourceMode = (ir & 07000) >> 9;
-		int sourceReg = (ir & 0700) >> 6;
 		short temp1;
-		switch (sourceMode) {
+		switch (srcMode) {
 		case 0:
-			return regs[sourceReg];
+			return regs[srcReg];
 		case 1:
-			return mmu.logicalRead(regs[sourceReg]);
+			return mmu.logicalRead(regs[srcReg]);
 		case 2:
-			temp1 = mmu.logicalRead(regs[sourceReg]);
-			regs[sourceReg] += 2;
+			temp1 = mmu.logicalRead(regs[srcReg]);
+			regs[srcReg] += 2;
 			return temp1;
 		case 3:
-			temp1 = mmu.logicalRead(regs[sourceReg]);
-			regs[sourceReg] += 2;
+			temp1 = mmu.logicalRead(regs[srcReg]);
+			regs[srcReg] += 2;
 			return mmu.logicalRead(temp1);
 		case 4:
-			regs[sourceReg] -= 2;
-			if ((sourceReg == SP) && isKernel() && stackLimit()) {
+			regs[srcReg] -= 2;
+			if ((srcReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			return mmu.logicalRead(regs[sourceReg]);
+			return mmu.logicalRead(regs[srcReg]);
 		case 5:
-			regs[sourceReg] -= 2;
-			if ((sourceReg == SP) && isKernel() && stackLimit()) {
+			regs[srcReg] -= 2;
+			if ((srcReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[sourceReg]);
+			temp1 = mmu.logicalRead(regs[srcReg]);
 			return mmu.logicalRead(temp1);
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[sourceReg] + temp1);
+			temp1 = (short)(regs[srcReg] + temp1);
 			return mmu.logicalRead(temp1);
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[sourceReg] + temp1);
+			temp1 = (short)(regs[srcReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			return mmu.logicalRead(temp1);
 		}
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
 	}
 
 	private final void storeDest(short data) throws Trap {
-		int destMode = (ir & 070) >> 3;
-		int destReg = ir & 07;
 		short temp1;
-		switch (destMode) {
+		switch (dstMode) {
 		case 0:
-			regs[destReg] = data;
+			regs[dstReg] = data;
 			break;
 		case 1:
-			mmu.logicalWrite(regs[destReg], data);
+			mmu.logicalWrite(regs[dstReg], data);
 			break;
 		case 2:
-			mmu.logicalWrite(regs[destReg], data);
-			regs[destReg] += 2;
+			mmu.logicalWrite(regs[dstReg], data);
+			regs[dstReg] += 2;
 			break;
 		case 3:
-			temp1 = mmu.logicalRead(regs[destReg]);
-			regs[destReg] += 2;
+			temp1 = mmu.logicalRead(regs[dstReg]);
+			regs[dstReg] += 2;
 			mmu.logicalWrite(temp1, data);
 			break;
 		case 4:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			mmu.logicalWrite(regs[destReg], data);
+			mmu.logicalWrite(regs[dstReg], data);
 			break;
 		case 5:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			mmu.logicalWrite(temp1, data);
 			break;
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			mmu.logicalWrite(temp1, data);
 			break;
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			mmu.logicalWrite(temp1, data);
 			break;
@@ -441,120 +827,112 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final short loadDest() throws Trap {
-		int destMode = (ir & 070) >> 3;
-		int destReg = ir & 07;
 		short temp1;
-		switch (destMode) {
+		switch (dstMode) {
 		case 0:
-			return regs[destReg];
+			return regs[dstReg];
 		case 1:
-			savedAddress = regs[destReg];
-			return mmu.logicalRead(regs[destReg]);
+			savedAddress = regs[dstReg];
+			return mmu.logicalRead(regs[dstReg]);
 		case 2:
-			savedAddress = regs[destReg];
-			temp1 = mmu.logicalRead(regs[destReg]);
-			regs[destReg] += 2;
+			savedAddress = regs[dstReg];
+			temp1 = mmu.logicalRead(regs[dstReg]);
+			regs[dstReg] += 2;
 			return temp1;
 		case 3:
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			savedAddress = temp1;
-			regs[destReg] += 2;				// wrong place?
+			regs[dstReg] += 2;				// wrong place?
 			return mmu.logicalRead(temp1);
 		case 4:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			savedAddress = regs[destReg];
-			return mmu.logicalRead(regs[destReg]);
+			savedAddress = regs[dstReg];
+			return mmu.logicalRead(regs[dstReg]);
 		case 5:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			savedAddress = temp1;
 			return mmu.logicalRead(temp1);
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			savedAddress = temp1;
 			return mmu.logicalRead(temp1);
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			savedAddress = temp1;
 			return mmu.logicalRead(temp1);
 		}
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
 	}
 
 	private final void storeDest2(short data) throws Trap {
-		int destMode = (ir & 070) >> 3;
-		if (destMode == 0) {
-			int destReg = ir & 07;
-			regs[destReg] = data;
+		if (dstMode == 0) {
+			regs[dstReg] = data;
 		} else {
 			mmu.logicalWrite(savedAddress, data);
 		}
 	}
 
 	private final short loadEffectiveAddress() throws Trap {
-		int destMode = (ir & 070) >> 3;
-		int destReg = ir & 07;
 		short temp1;
-		switch (destMode) {
+		switch (dstMode) {
 		case 0:
-			throw new Trap(Trap.IllegalInstruction);
+			throw Trap.instance(Trap.IllegalInstruction);
 		case 1:
-			return regs[destReg];
+			return regs[dstReg];
 		case 2:
-			temp1 = regs[destReg];
-			regs[destReg] += 2;
+			temp1 = regs[dstReg];
+			regs[dstReg] += 2;
 			return temp1;
 		case 3:
 			// behavior on trap
-			temp1 = regs[destReg];
-			regs[destReg] += 2;
+			temp1 = regs[dstReg];
+			regs[dstReg] += 2;
 			return mmu.logicalRead(temp1);
 		case 4:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			return regs[destReg];
+			return regs[dstReg];
 		case 5:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			return temp1;
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			return temp1;
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			return temp1;
 		}
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
 	}
 
 	private final short loadDestPrevious() throws Trap {
-		int destMode = (ir & 070) >> 3;
-		int destReg = ir & 07;
 		short temp1;
-		switch (destMode) {
+		switch (dstMode) {
 		case 0:
-			if (destReg == SP) {
+			if (dstReg == SP) {
 				int current = (psw & 0140000) >>> 14;
 				int previous = (psw & 030000) >>> 12;
 				if (current != previous) {
@@ -563,54 +941,52 @@ public class CPUDevice extends Thread implements UnibusDevice {
 					return regs[SP];
 				}
 			} else {
-				return regs[destReg];
+				return regs[dstReg];
 			}
 		case 1:
-			return mmu.logicalReadPrevious(regs[destReg]);
+			return mmu.logicalReadPrevious(regs[dstReg]);
 		case 2:
-			temp1 = mmu.logicalReadPrevious(regs[destReg]);
-			regs[destReg] += 2;
+			temp1 = mmu.logicalReadPrevious(regs[dstReg]);
+			regs[dstReg] += 2;
 			return temp1;
 		case 3:
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			temp1 = mmu.logicalReadPrevious(temp1);
-			regs[destReg] += 2;
+			regs[dstReg] += 2;
 			return temp1;
 		case 4:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			return mmu.logicalReadPrevious(regs[destReg]);
+			return mmu.logicalReadPrevious(regs[dstReg]);
 		case 5:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			return mmu.logicalReadPrevious(temp1);
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			return mmu.logicalReadPrevious(temp1);
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			return mmu.logicalReadPrevious(temp1);
 		}
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
 	}
 
 	private final void storeDestPrevious(short data) throws Trap {
-		int destMode = (ir & 070) >> 3;
-		int destReg = ir & 07;
 		short temp1;
-		switch (destMode) {
+		switch (dstMode) {
 		case 0:
-			if (destReg == SP) {
+			if (dstReg == SP) {
 				int current = (psw & 0140000) >>> 14;
 				int previous = ((psw & 030000) >>> 12);
 				if (current != previous) {
@@ -619,46 +995,46 @@ public class CPUDevice extends Thread implements UnibusDevice {
 					regs[SP] = data;
 				}
 			} else {
-				regs[destReg] = data;
+				regs[dstReg] = data;
 			}
 			break;
 		case 1:
-			mmu.logicalWritePrevious(regs[destReg], data);
+			mmu.logicalWritePrevious(regs[dstReg], data);
 			break;
 		case 2:
-			mmu.logicalWritePrevious(regs[destReg], data);
-			regs[destReg] += 2;
+			mmu.logicalWritePrevious(regs[dstReg], data);
+			regs[dstReg] += 2;
 			break;
 		case 3:
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			mmu.logicalWritePrevious(temp1, data);
-			regs[destReg] += 2;
+			regs[dstReg] += 2;
 			break;
 		case 4:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			mmu.logicalWritePrevious(regs[destReg], data);
+			mmu.logicalWritePrevious(regs[dstReg], data);
 			break;
 		case 5:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			mmu.logicalWritePrevious(temp1, data);
 			break;
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			mmu.logicalWritePrevious(temp1, data);
 			break;
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			mmu.logicalWritePrevious(temp1, data);
 			break;
@@ -680,125 +1056,119 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final byte loadSourceByte() throws Trap {
-		int sourceMode = (ir & 07000) >> 9;
-		int sourceReg = (ir & 0700) >> 6;
 		short temp1;
 		byte temp2;
-		switch (sourceMode) {
+		switch (srcMode) {
 		case 0:
-			return(byte)(regs[sourceReg] & LNB);
+			return(byte)(regs[srcReg] & LNB);
 		case 1:
-			return mmu.logicalReadByte(regs[sourceReg]);
+			return mmu.logicalReadByte(regs[srcReg]);
 		case 2:
-			temp2 = mmu.logicalReadByte(regs[sourceReg]);
-			if (sourceReg >= 6) {
-				regs[sourceReg] += 2;
+			temp2 = mmu.logicalReadByte(regs[srcReg]);
+			if (srcReg >= 6) {
+				regs[srcReg] += 2;
 			} else {
-				regs[sourceReg] += 1;
+				regs[srcReg] += 1;
 			}
 			return temp2;
 		case 3:
-			temp1 = mmu.logicalRead(regs[sourceReg]);
-			regs[sourceReg] += 2;
+			temp1 = mmu.logicalRead(regs[srcReg]);
+			regs[srcReg] += 2;
 			return mmu.logicalReadByte(temp1);
 		case 4:
-			if (sourceReg >= 6) {
-				regs[sourceReg] -= 2;
-				if ((sourceReg == SP) && isKernel() && stackLimit()) {
+			if (srcReg >= 6) {
+				regs[srcReg] -= 2;
+				if ((srcReg == SP) && isKernel() && stackLimit()) {
 					stackCheck = true;
 				}
 			} else {
-				regs[sourceReg] -= 1;
+				regs[srcReg] -= 1;
 			}
-			return mmu.logicalReadByte(regs[sourceReg]);
+			return mmu.logicalReadByte(regs[srcReg]);
 		case 5:
-			regs[sourceReg] -= 2;
-			if ((sourceReg == SP) && isKernel() && stackLimit()) {
+			regs[srcReg] -= 2;
+			if ((srcReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[sourceReg]);
+			temp1 = mmu.logicalRead(regs[srcReg]);
 			return mmu.logicalReadByte(temp1);
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[sourceReg] + temp1);
+			temp1 = (short)(regs[srcReg] + temp1);
 			return mmu.logicalReadByte(temp1);
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[sourceReg] + temp1);
+			temp1 = (short)(regs[srcReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			return mmu.logicalReadByte(temp1);
 		}
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
 	}
 
 	private final void storeDestByteExt(byte data) throws Trap {
-		int destMode = (ir & 070) >> 3;
-		if (destMode == 0) {
-			int destReg = ir & 07;
-			regs[destReg] = (short) data;
+		if (dstMode == 0) {
+			regs[dstReg] = (short) data;
 		} else {
 			storeDestByte(data);
 		}
 	}
 
 	private final void storeDestByte(byte data) throws Trap {
-		int destMode = (ir & 070) >> 3;
-		int destReg = ir & 07;
 		short temp1;
 		int temp2;
-		switch (destMode) {
+		switch (dstMode) {
 		case 0:
-			temp2 = ((int) regs[destReg]) & 0177400;
+			temp2 = ((int) regs[dstReg]) & 0177400;
 			temp2 += ((int) data) & LNB;
-			regs[destReg] = (short) temp2;
+			regs[dstReg] = (short) temp2;
 			break;
 		case 1:
-			mmu.logicalWriteByte(regs[destReg], data);
+			mmu.logicalWriteByte(regs[dstReg], data);
 			break;
 		case 2:
-			mmu.logicalWriteByte(regs[destReg], data);
-			if (destReg >= 6) {
-				regs[destReg] += 2;
+			mmu.logicalWriteByte(regs[dstReg], data);
+			if (dstReg >= 6) {
+				regs[dstReg] += 2;
 			} else {
-				regs[destReg] += 1;
+				regs[dstReg] += 1;
 			}
 			break;
 		case 3:
-			temp1 = mmu.logicalRead(regs[destReg]);
-			regs[destReg] += 2;
+			temp1 = mmu.logicalRead(regs[dstReg]);
+			regs[dstReg] += 2;
 			mmu.logicalWriteByte(temp1, data);
 			break;
 		case 4:
-			if (destReg >= 6) {
-				regs[destReg] -= 2;
-				if ((destReg == SP) && isKernel() && stackLimit()) {
+			if (dstReg >= 6) {
+				regs[dstReg] -= 2;
+				if ((dstReg == SP) && isKernel() && stackLimit()) {
 					stackCheck = true;
 				}
 			} else {
-				regs[destReg] -= 1;
+				regs[dstReg] -= 1;
 			}
-			mmu.logicalWriteByte(regs[destReg], data);
+			mmu.logicalWriteByte(regs[dstReg], data);
 			break;
 		case 5:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			mmu.logicalWriteByte(temp1, data);
 			break;
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			mmu.logicalWriteByte(temp1, data);
 			break;
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			mmu.logicalWriteByte(temp1, data);
 			break;
@@ -806,74 +1176,70 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final byte loadDestByte() throws Trap {
-		int destMode = (ir & 070) >> 3;
-		int destReg = ir & 07;
 		short temp1;
 		byte temp2;
-		switch (destMode) {
+		switch (dstMode) {
 		case 0:
-			return(byte)(regs[destReg] & LNB);
+			return(byte)(regs[dstReg] & LNB);
 		case 1:
-			savedAddress = regs[destReg];
-			return mmu.logicalReadByte(regs[destReg]);
+			savedAddress = regs[dstReg];
+			return mmu.logicalReadByte(regs[dstReg]);
 		case 2:
-			savedAddress = regs[destReg];
-			temp2 = mmu.logicalReadByte(regs[destReg]);
-			if (destReg >= 6) {
-				regs[destReg] += 2;
+			savedAddress = regs[dstReg];
+			temp2 = mmu.logicalReadByte(regs[dstReg]);
+			if (dstReg >= 6) {
+				regs[dstReg] += 2;
 			} else {
-				regs[destReg] += 1;
+				regs[dstReg] += 1;
 			}
 			return temp2;
 		case 3:
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			savedAddress = temp1;
-			regs[destReg] += 2;
+			regs[dstReg] += 2;
 			return mmu.logicalReadByte(temp1);
 		case 4:
-			if (destReg >= 6) {
-				regs[destReg] -= 2;
-				if ((destReg == SP) && isKernel() && stackLimit()) {
+			if (dstReg >= 6) {
+				regs[dstReg] -= 2;
+				if ((dstReg == SP) && isKernel() && stackLimit()) {
 					stackCheck = true;
 				}
 			} else {
-				regs[destReg] -= 1;
+				regs[dstReg] -= 1;
 			}
-			savedAddress = regs[destReg];
-			return mmu.logicalReadByte(regs[destReg]);
+			savedAddress = regs[dstReg];
+			return mmu.logicalReadByte(regs[dstReg]);
 		case 5:
-			regs[destReg] -= 2;
-			if ((destReg == SP) && isKernel() && stackLimit()) {
+			regs[dstReg] -= 2;
+			if ((dstReg == SP) && isKernel() && stackLimit()) {
 				stackCheck = true;
 			}
-			temp1 = mmu.logicalRead(regs[destReg]);
+			temp1 = mmu.logicalRead(regs[dstReg]);
 			savedAddress = temp1;
 			return mmu.logicalReadByte(temp1);
 		case 6:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			savedAddress = temp1;
 			return mmu.logicalReadByte(temp1);
 		case 7:
 			temp1 = mmu.logicalRead(regs[PC]);
 			regs[PC] += 2;
-			temp1 = (short)(regs[destReg] + temp1);
+			temp1 = (short)(regs[dstReg] + temp1);
 			temp1 = mmu.logicalRead(temp1);
 			savedAddress = temp1;
 			return mmu.logicalReadByte(temp1);
 		}
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
 	}
 
 	private final void storeDestByte2(byte data) throws Trap {
-		int destMode = (ir & 070) >> 3;
-		if (destMode == 0) {
-			int destReg = ir & 07;
+		if (dstMode == 0) {
 			int temp;
-			temp = ((int) regs[destReg]) & 0177400;
+			temp = ((int) regs[dstReg]) & 0177400;
 			temp += ((int) data) & LNB;
-			regs[destReg] = (short) temp;
+			regs[dstReg] = (short) temp;
 		} else {
 			mmu.logicalWriteByte(savedAddress, data);
 		}
@@ -885,25 +1251,25 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private final void executeHALT() throws Trap {
 		if (isKernel()) {
-			throw new Trap(Trap.HaltInstruction);
+			throw Trap.instance(Trap.HaltInstruction);
 		} else {
 			// 11/34 throws reserved -- 11/44 throws illegal
-			throw new Trap(Trap.ReservedInstruction);
+			throw Trap.instance(Trap.ReservedInstruction);
 		}
 	}
 
 	private final void executeWAIT() throws Trap {
 		if (isKernel()) {
-			throw new Trap(Trap.WaitInstruction);
+			throw Trap.instance(Trap.WaitInstruction);
 		}
 	}
 
 	private final void executeBPT() throws Trap {
-		throw new Trap(Trap.BreakpointTrap);
+		throw Trap.instance(Trap.BreakpointTrap);
 	}
 
 	private final void executeIOT() throws Trap {
-		throw new Trap(Trap.IOTrap);
+		throw Trap.instance(Trap.IOTrap);
 	}
 
 	private final void executeRESET() throws Trap {
@@ -913,6 +1279,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeRTIorRTT() throws Trap {
+		evaluateFlags();
 		int oldmode = (psw & 0140000) >>> 14;
 		short newpc = pop();
 		int newpsw = ((int) pop()) & LNI;
@@ -928,7 +1295,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		stacks[oldmode] = regs[SP];
 		regs[SP] = stacks[newmode];
 		if (ir == 0000006) {
-			throw new Trap(Trap.RTTInstruction);
+			throw Trap.instance(Trap.RTTInstruction);
 		}
 	}
 
@@ -937,12 +1304,12 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeRTS() throws Trap {
-		int destReg = ir & 07;
-		regs[PC] = regs[destReg];
-		regs[destReg] = pop();
+		regs[PC] = regs[dstReg];
+		regs[dstReg] = pop();
 	}
 
 	private final void executeCC() throws Trap {
+		evaluateFlags();
 		if ((ir & 020) == 0) {
 			psw &= ~(ir & 017);
 		} else {
@@ -951,6 +1318,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeSWAB() throws Trap {
+		evaluateFlags();
 		int data1 = ((int) loadDest()) & LNI;
 		int data2 = (data1 << 8 ) & 0xff00;
 		int data3 = (data1 >> 8 ) & 0x00ff;
@@ -980,12 +1348,14 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeBNEorBEQ() throws Trap {
+		evaluateFlags();
 		if (((psw >> 2) & 1) == ((ir >> 8) & 1)) {
 			executeBR();
 		}
 	}
 
 	private final void executeBGEorBLT() throws Trap {
+		evaluateFlags();
 		int temp = ((psw >> 3) & 1) ^ ((psw >> 1) & 1);
 		if (temp == ((ir >> 8) & 1)) {
 			executeBR();
@@ -993,6 +1363,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeBGTorBLE() throws Trap {
+		evaluateFlags();
 		int nbit = (psw >> 3) & 1;
 		int vbit = (psw >> 1) & 1;
 		int zbit = (psw >> 2) & 1;
@@ -1002,22 +1373,27 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeJSR() throws Trap {
-		int sourceReg = (ir & 0700) >> 6;
 		short data = loadEffectiveAddress();
-		push(regs[sourceReg]);
-		regs[sourceReg] = regs[PC];
+		push(regs[srcReg]);
+		regs[srcReg] = regs[PC];
 		regs[PC] = data;
 	}
 
 	private final void executeCLR() throws Trap {
-		psw &= ~C_BIT;
-		psw &= ~V_BIT;
-		psw |= Z_BIT;
-		psw &= ~N_BIT;
+		if (lazyFlags) {
+			psw &= ~C_BIT;
+			deferFlags(CC_TST, 0, 0, 0);
+		} else {
+			psw &= ~C_BIT;
+			psw &= ~V_BIT;
+			psw |= Z_BIT;
+			psw &= ~N_BIT;
+		}
 		storeDest((short) 0);
 	}
 
 	private final void executeCOM() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		data = ~data & LNI;
 		if ((data & LNI) == 0) {
@@ -1037,47 +1413,58 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private final void executeINC() throws Trap {
 		int data = ((int) loadDest()) & LNI;
-		if (data == MPI) {
-			psw |= V_BIT;
-		} else {
-			psw &= ~V_BIT;
-		}
-		++data;
-		if ((data & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNI) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			++data;
+			deferFlags(CC_INC, 0, 0, data);
 		} else {
-			psw |= N_BIT;
+			if (data == MPI) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			++data;
+			if ((data & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
 		}
 		storeDest2((short) data);
 	}
 
 	private final void executeDEC() throws Trap {
 		int data = ((int) loadDest()) & LNI;
-		if (data == MNI) {
-			psw |= V_BIT;
-		} else {
-			psw &= ~V_BIT;
-		}
-		--data;
-		if ((data & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNI) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			--data;
+			deferFlags(CC_DEC, 0, 0, data);
 		} else {
-			psw |= N_BIT;
+			if (data == MNI) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			--data;
+			if ((data & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
 		}
 		storeDest2((short) data);
 	}
 
 	private final void executeNEG() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		data = (LNI - data) + 1;
 		if ((data & LNI) == 0) {
@@ -1104,6 +1491,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeADC() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		if ((psw & C_BIT) != 0) {
 			if (data == MPI) {
@@ -1135,6 +1523,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeSBC() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		if (data == MNI) {
 			psw |= V_BIT;
@@ -1166,21 +1555,27 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private final void executeTST() throws Trap {
 		int data = ((int) loadDest()) & LNI;
-		if ((data & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNI) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			psw &= ~C_BIT;
+			deferFlags(CC_TST, 0, 0, data);
 		} else {
-			psw |= N_BIT;
+			if ((data & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
+			psw &= ~C_BIT;
 		}
-		psw &= ~V_BIT;
-		psw &= ~C_BIT;
 	}
 
 	private final void executeROR() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		int temp = data & 1;
 		data >>>= 1;
@@ -1211,6 +1606,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeROL() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		int temp = data & MNI;
 		data <<= 1;
@@ -1241,6 +1637,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeASR() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		if ((data & 1) != 0) {
 			psw |= C_BIT;
@@ -1267,6 +1664,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeASL() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDest()) & LNI;
 		if ((data & MNI) != 0) {
 			psw |= C_BIT;
@@ -1311,6 +1709,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeSXT() throws Trap {
+		evaluateFlags();
 		int data;
 		if ((psw & N_BIT) != 0) {
 			data = LNI;
@@ -1325,17 +1724,21 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private final void executeMOV() throws Trap {
 		int data = ((int) loadSource()) & LNI;
-		if ((data & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNI) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG, 0, 0, data);
 		} else {
-			psw |= N_BIT;
+			if ((data & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
 		}
-		psw &= ~V_BIT;
 		storeDest((short) data);
 	}
 
@@ -1344,25 +1747,30 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		int data2 = ((int) loadDest()) & LNI;
 		int data3 = ~data2 & LNI;
 		data3 = data1 + data3 + 1;
-		if ((data3 & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data3 & MNI) == 0) {
-			psw &= ~N_BIT;
-		} else {
-			psw |= N_BIT;
-		}
-		if (((data1 & MNI) != (data2 & MNI)) && ((data2 & MNI) == (data3 & MNI))) {
-			psw |= V_BIT;
-		} else {
-			psw &= ~V_BIT;
-		}
-		if ((data3 & CARRY) == 0) {
-			psw |= C_BIT;
+		if (lazyFlags) {
+			psw = (psw & ~C_BIT) | (~(data3 >> 16) & C_BIT);
+			deferFlags(CC_SUB, data2, data1, data3);
 		} else {
-			psw &= ~C_BIT;
+			if ((data3 & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data3 & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			if (((data1 & MNI) != (data2 & MNI)) && ((data2 & MNI) == (data3 & MNI))) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			if ((data3 & CARRY) == 0) {
+				psw |= C_BIT;
+			} else {
+				psw &= ~C_BIT;
+			}
 		}
 	}
 
@@ -1370,34 +1778,42 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		int data1 = ((int) loadSource()) & LNI;
 		int data2 = ((int) loadDest()) & LNI;
 		data2 = data1 & data2;
-		if ((data2 & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data2 & MNI) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG, 0, 0, data2);
 		} else {
-			psw |= N_BIT;
+			if ((data2 & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data2 & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
 		}
-		psw &= ~V_BIT;
 	}
 
 	private final void executeBIC() throws Trap {
 		int data1 = ((int) loadSource()) & LNI;
 		int data2 = ((int) loadDest()) & LNI;
 		data2 = (~data1 & LNI) & data2;
-		if ((data2 & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data2 & MNI) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG, 0, 0, data2);
 		} else {
-			psw |= N_BIT;
+			if ((data2 & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data2 & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
 		}
-		psw &= ~V_BIT;
 		storeDest2((short) data2);
 	}
 
@@ -1405,54 +1821,63 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		int data1 = ((int) loadSource()) & LNI;
 		int data2 = ((int) loadDest()) & LNI;
 		data2 = data1 | data2;
-		if ((data2 & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data2 & MNI) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG, 0, 0, data2);
 		} else {
-			psw |= N_BIT;
-		}
-		psw &= ~V_BIT;
-		storeDest2((short) data2);
+			if ((data2 & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data2 & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
+		}
+		storeDest2((short) data2);
 	}
 
 	private final void executeADD() throws Trap {
 		int data1 = ((int) loadSource()) & LNI;
 		int data2 = ((int) loadDest()) & LNI;
 		int data3 = data1 + data2;
-		if ((data3 & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data3 & MNI) == 0) {
-			psw &= ~N_BIT;
-		} else {
-			psw |= N_BIT;
-		}
-		if (((data1 & MNI) == (data2 & MNI)) && ((data1 & MNI) != (data3 & MNI))) {
-			psw |= V_BIT;
-		} else {
-			psw &= ~V_BIT;
-		}
-		if ((data3 & CARRY) == 0) {
-			psw &= ~C_BIT;
+		if (lazyFlags) {
+			psw = (psw & ~C_BIT) | ((data3 >> 16) & C_BIT);
+			deferFlags(CC_ADD, data1, data2, data3);
 		} else {
-			psw |= C_BIT;
+			if ((data3 & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data3 & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			if (((data1 & MNI) == (data2 & MNI)) && ((data1 & MNI) != (data3 & MNI))) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			if ((data3 & CARRY) == 0) {
+				psw &= ~C_BIT;
+			} else {
+				psw |= C_BIT;
+			}
 		}
 		storeDest2((short) data3);
 	}
 
 	private final void executeMUL() throws Trap {
-		int sourceReg = (ir & 0700) >> 6;
-		int data1 = regs[sourceReg];
+		evaluateFlags();
+		int data1 = regs[srcReg];
 		int data2 = loadDest();
 		int data3 = data1 * data2;
-		regs[sourceReg] = (short) ((data3 >> 16) & LNI);
-		regs[sourceReg|1] = (short) (data3 & LNI);
+		regs[srcReg] = (short) ((data3 >> 16) & LNI);
+		regs[srcReg|1] = (short) (data3 & LNI);
 		if (data3 == 0) {
 			psw |= Z_BIT;
 		} else {
@@ -1472,10 +1897,10 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeDIV() throws Trap {
-		int sourceReg = (ir & 0700) >> 6;
-		int temp = ((int)regs[sourceReg]) & LNI;
+		evaluateFlags();
+		int temp = ((int)regs[srcReg]) & LNI;
 		temp <<= 16;
-		temp += ((int)regs[sourceReg|1]) & LNI;
+		temp += ((int)regs[srcReg|1]) & LNI;
 		int data2 = loadDest();
 		if ( data2 == 0 ) {
 			psw |= V_BIT;
@@ -1485,7 +1910,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 			psw &= ~C_BIT;
 		}
 		int eql = temp / data2;
-		regs[sourceReg] = (short)(eql & LNI);
+		regs[srcReg] = (short)(eql & LNI);
 		if ((eql > 077777) || (eql < -0100000)) {
 			psw |= V_BIT;
 		} else {
@@ -1503,13 +1928,13 @@ public class CPUDevice extends Thread implements UnibusDevice {
 			psw &= ~Z_BIT;
 		}
 		eql = temp % data2;
-		regs[sourceReg|1] = (short)(eql & LNI);
+		regs[srcReg|1] = (short)(eql & LNI);
 	}
 
 	private final void executeASH() throws Trap {
+		evaluateFlags();
 		int old, temp;
-		int sourceReg = (ir & 0700) >> 6;
-		temp = old = ((int) regs[sourceReg]) & LNI;
+		temp = old = ((int) regs[srcReg]) & LNI;
 		int count = loadDest();
 		if ((count & 077) == 0) {
 			if ((temp & LNI) == 0) {
@@ -1554,7 +1979,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 			}
 			psw &= ~V_BIT;
 		}
-		regs[sourceReg] = (short) temp;
+		regs[srcReg] = (short) temp;
 		if ((temp & LNI) == 0) {
 			psw |= Z_BIT;
 		} else {
@@ -1568,11 +1993,11 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeASHC() throws Trap {
+		evaluateFlags();
 		int count;
-		int sourceReg = (ir & 0700) >> 6;
-		int temp = ((int)regs[sourceReg]) & LNI;
+		int temp = ((int)regs[srcReg]) & LNI;
 		temp <<= 16;
-		temp += ((int)regs[sourceReg|1]) & LNI;
+		temp += ((int)regs[srcReg|1]) & LNI;
 		int old = temp;
 		int shift = ((int)loadDest()) & LNI;
 		if ((shift & 077) == 0) {			 // no shift
@@ -1628,12 +2053,13 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		} else {
 			psw &= ~Z_BIT;
 		}
-		regs[sourceReg] = (short)(temp >> 16);
-		regs[sourceReg|1] = (short)(temp & LNI);
+		regs[srcReg] = (short)(temp >> 16);
+		regs[srcReg|1] = (short)(temp & LNI);
 	}
 
 	private final void executeXOR() throws Trap {
-		int data2 = regs[(ir & 0700) >> 6];
+		evaluateFlags();
+		int data2 = regs[srcReg];
 		int data1 = loadDest();
 		data2 = data2 ^ data1;
 		if ((data2 & LNI) == 0) {
@@ -1651,20 +2077,21 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeSOB() throws Trap {
-		int sourceReg = (ir & 0700) >> 6;
-		regs[sourceReg] -= 1;
-		if (regs[sourceReg] != 0) {
+		regs[srcReg] -= 1;
+		if (regs[srcReg] != 0) {
 			regs[PC] -= (ir & 077) * 2;
 		}
 	}
 
 	private final void executeBPLorBMI() throws Trap {
+		evaluateFlags();
 		if (((psw >> 3) & 1) == ((ir >> 8) & 1)) {
 			executeBR();
 		}
 	}
 
 	private final void executeBHIorBLOS() throws Trap {
+		evaluateFlags();
 		int temp;
 		temp = ((psw >> 2) & 1) | (psw & 1);
 		if (temp == ((ir >> 8) & 1)) {
@@ -1673,34 +2100,42 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeBVCorBVS() throws Trap {
+		evaluateFlags();
 		if (((psw >> 1) & 1) == ((ir >> 8) & 1)) {
 			executeBR();
 		}
 	}
 
 	private final void executeBCCorBCS() throws Trap {
+		evaluateFlags();
 		if ((psw & 1) == ((ir >> 8) & 1)) {
 			executeBR();
 		}
 	}
 
 	private final void executeEMT() throws Trap {
-		throw new Trap(Trap.EmulatorTrap);
+		throw Trap.instance(Trap.EmulatorTrap);
 	}
 
 	private final void executeTRAP() throws Trap {
-		throw new Trap(Trap.TrapInstruction);
+		throw Trap.instance(Trap.TrapInstruction);
 	}
 
 	private final void executeCLRB() throws Trap {
-		psw &= ~C_BIT;
-		psw &= ~V_BIT;
-		psw |= Z_BIT;
-		psw &= ~N_BIT;
+		if (lazyFlags) {
+			psw &= ~C_BIT;
+			deferFlags(CC_TST | CC_BYTE, 0, 0, 0);
+		} else {
+			psw &= ~C_BIT;
+			psw &= ~V_BIT;
+			psw |= Z_BIT;
+			psw &= ~N_BIT;
+		}
 		storeDestByte((byte) 0);
 	}
 
 	private final void executeCOMB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		data = ~data & LNB;
 		if ((data & LNB) == 0) {
@@ -1720,47 +2155,58 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private final void executeINCB() throws Trap {
 		int data = ((int) loadDestByte()) & LNB;
-		if (data == MPB) {
-			psw |= V_BIT;
-		} else {
-			psw &= ~V_BIT;
-		}
-		++data;
-		if ((data & LNB) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNB) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			++data;
+			deferFlags(CC_INC | CC_BYTE, 0, 0, data);
 		} else {
-			psw |= N_BIT;
+			if (data == MPB) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			++data;
+			if ((data & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
 		}
 		storeDestByte2((byte) data);
 	}
 
 	private final void executeDECB() throws Trap {
 		int data = ((int) loadDestByte()) & LNB;
-		if (data == MNB) {
-			psw |= V_BIT;
-		} else {
-			psw &= ~V_BIT;
-		}
-		--data;
-		if ((data & LNB) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNB) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			--data;
+			deferFlags(CC_DEC | CC_BYTE, 0, 0, data);
 		} else {
-			psw |= N_BIT;
+			if (data == MNB) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			--data;
+			if ((data & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
 		}
 		storeDestByte2((byte) data);
 	}
 
 	private final void executeNEGB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		data = (LNB - data) + 1;
 		if ((data & LNB) == 0) {
@@ -1787,6 +2233,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeADCB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		if ((psw & C_BIT) != 0) {
 			if (data == MPB) {
@@ -1818,6 +2265,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeSBCB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		if (data == MNB) {
 			psw |= V_BIT;
@@ -1849,21 +2297,27 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private final void executeTSTB() throws Trap {
 		int data = ((int) loadDestByte()) & LNB;
-		if ((data & LNB) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNB) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			psw &= ~C_BIT;
+			deferFlags(CC_TST | CC_BYTE, 0, 0, data);
 		} else {
-			psw |= N_BIT;
+			if ((data & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
+			psw &= ~C_BIT;
 		}
-		psw &= ~V_BIT;
-		psw &= ~C_BIT;
 	}
 
 	private final void executeRORB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		int temp = data & 1;
 		data >>>= 1;
@@ -1894,6 +2348,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeROLB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		int temp = data & MNB;
 		data <<= 1;
@@ -1924,6 +2379,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeASRB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		if ((data & 1) != 0) {
 			psw |= C_BIT;
@@ -1950,6 +2406,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeASLB() throws Trap {
+		evaluateFlags();
 		int data = ((int) loadDestByte()) & LNB;
 		if ((data & MNB) != 0) {
 			psw |= C_BIT;
@@ -1976,6 +2433,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeMTPS() throws Trap {
+		evaluateFlags();
 		// 11/44 does not have this instruction
 		// 11/34 should mmu trap if PS not mapped in user mode
 		int data = loadDestByte() & LNB;
@@ -1989,6 +2447,7 @@ public class CPUDevice extends Thread implements UnibusDevice {
 	}
 
 	private final void executeMFPS() throws Trap {
+		evaluateFlags();
 		// 11/44 does not have this instruction
 		// 11/34 should mmu trap if PS not mapped in user mode
 		int data = psw & LNB;
@@ -2008,17 +2467,21 @@ public class CPUDevice extends Thread implements UnibusDevice {
 
 	private final void executeMOVB() throws Trap {
 		int data = ((int) loadSourceByte()) & LNB;
-		if ((data & LNB) == 0) {
-			psw |= Z_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG | CC_BYTE, 0, 0, data);
 		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data & MNB) == 0) {
-			psw &= ~N_BIT;
-		} else {
-			psw |= N_BIT;
+			if ((data & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
 		}
-		psw &= ~V_BIT;
 		storeDestByteExt((byte) data);
 	}
 
@@ -2027,25 +2490,30 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		int data2 = ((int) loadDestByte()) & LNB;
 		int data3 = ~data2 & LNB;
 		data3 = data1 + data3 + 1;
-		if ((data3 & LNB) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data3 & MNB) == 0) {
-			psw &= ~N_BIT;
+		if (lazyFlags) {
+			psw = (psw & ~C_BIT) | (~(data3 >> 8) & C_BIT);
+			deferFlags(CC_SUB | CC_BYTE, data2, data1, data3);
 		} else {
-			psw |= N_BIT;
-		}
-		if (((data1 & MNB) != (data2 & MNB)) && ((data2 & MNB) == (data3 & MNB))) {
-			psw |= V_BIT;
-		} else {
-			psw &= ~V_BIT;
-		}
-		if ((data3 & CARRYB) == 0) {
-			psw |= C_BIT;
-		} else {
-			psw &= ~C_BIT;
+			if ((data3 & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data3 & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			if (((data1 & MNB) != (data2 & MNB)) && ((data2 & MNB) == (data3 & MNB))) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			if ((data3 & CARRYB) == 0) {
+				psw |= C_BIT;
+			} else {
+				psw &= ~C_BIT;
+			}
 		}
 	}
 
@@ -2053,34 +2521,42 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		int data1 = ((int) loadSourceByte()) & LNB;
 		int data2 = ((int) loadDestByte()) & LNB;
 		data2 = data1 & data2;
-		if ((data2 & LNB) == 0) {
-			psw |= Z_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG | CC_BYTE, 0, 0, data2);
 		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data2 & MNB) == 0) {
-			psw &= ~N_BIT;
-		} else {
-			psw |= N_BIT;
+			if ((data2 & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data2 & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
 		}
-		psw &= ~V_BIT;
 	}
 
 	private final void executeBICB() throws Trap {
 		int data1 = ((int) loadSourceByte()) & LNB;
 		int data2 = ((int) loadDestByte()) & LNB;
 		data2 = (~data1 & LNB) & data2;
-		if ((data2 & LNB) == 0) {
-			psw |= Z_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG | CC_BYTE, 0, 0, data2);
 		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data2 & MNB) == 0) {
-			psw &= ~N_BIT;
-		} else {
-			psw |= N_BIT;
+			if ((data2 & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data2 & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
 		}
-		psw &= ~V_BIT;
 		storeDestByte2((byte) data2);
 	}
 
@@ -2088,17 +2564,21 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		int data1 = ((int) loadSourceByte()) & LNB;
 		int data2 = ((int) loadDestByte()) & LNB;
 		data2 = data1 | data2;
-		if ((data2 & LNB) == 0) {
-			psw |= Z_BIT;
+		if (lazyFlags) {
+			deferFlags(CC_LOG | CC_BYTE, 0, 0, data2);
 		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data2 & MNB) == 0) {
-			psw &= ~N_BIT;
-		} else {
-			psw |= N_BIT;
+			if ((data2 & LNB) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data2 & MNB) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			psw &= ~V_BIT;
 		}
-		psw &= ~V_BIT;
 		storeDestByte2((byte) data2);
 	}
 
@@ -2107,38 +2587,50 @@ public class CPUDevice extends Thread implements UnibusDevice {
 		int data2 = ((int) loadDest()) & LNI;
 		int data3 = ~data1 & LNI;
 		data3 = data2 + data3 + 1;
-		if ((data3 & LNI) == 0) {
-			psw |= Z_BIT;
-		} else {
-			psw &= ~Z_BIT;
-		}
-		if ((data3 & MNI) == 0) {
-			psw &= ~N_BIT;
-		} else {
-			psw |= N_BIT;
-		}
-		if (((data1 & MNI) != (data2 & MNI)) && ((data1 & MNI) == (data3 & MNI))) {
-			psw |= V_BIT;
+		if (lazyFlags) {
+			psw = (psw & ~C_BIT) | (~(data3 >> 16) & C_BIT);
+			deferFlags(CC_SUB, data1, data2, data3);
 		} else {
-			psw &= ~V_BIT;
-		}
-		if ((data3 & CARRY) == 0) {
-			psw |= C_BIT;
-		} else {
-			psw &= ~C_BIT;
+			if ((data3 & LNI) == 0) {
+				psw |= Z_BIT;
+			} else {
+				psw &= ~Z_BIT;
+			}
+			if ((data3 & MNI) == 0) {
+				psw &= ~N_BIT;
+			} else {
+				psw |= N_BIT;
+			}
+			if (((data1 & MNI) != (data2 & MNI)) && ((data1 & MNI) == (data3 & MNI))) {
+				psw |= V_BIT;
+			} else {
+				psw &= ~V_BIT;
+			}
+			if ((data3 & CARRY) == 0) {
+				psw |= C_BIT;
+			} else {
+				psw &= ~C_BIT;
+			}
 		}
 		storeDest2((short) data3);
 	}
 
 	private final void executeFIS() throws Trap {
-		throw new Trap(Trap.ReservedInstruction);		// No FP11
+		throw Trap.instance(Trap.ReservedInstruction);		// No FP11
 	}
 
 	//
 	// Instruction Decoding
 	//
+	// decode() runs the opcode through the switch ladder once and returns
+	// a predecode entry, the op number in the upper half and the raw
+	// instruction in the lower.  Entries are cached by physical word
+	// address in decodeCache, Unibus clears an entry when its word is
+	// written.
+	//
 
-	private final void decodeAndExecute() throws Trap {
+	private final int decode(int ir) {
+		int op = OP_RESERVED;
 		switch (ir >> 12) {
 		case 0:
 			switch ((ir >> 9) & 07) {
@@ -2146,130 +2638,455 @@ public class CPUDevice extends Thread implements UnibusDevice {
 				switch ((ir >> 6) & 07) {
 				case 0:
 					switch (ir) {
-					case 0: executeHALT(); return;			// 000000
-					case 1: executeWAIT(); return;			// 000001
-					case 2: executeRTIorRTT(); return;		// 000002
-					case 3: executeBPT(); return;			// 000003
-					case 4: executeIOT(); return;			// 000004
-					case 5: executeRESET(); return;			// 000005
-					case 6: executeRTIorRTT(); return;		// 000006
+					case 0: op = OP_HALT; break;			// 000000
+					case 1: op = OP_WAIT; break;			// 000001
+					case 2: op = OP_RTI; break;				// 000002
+					case 3: op = OP_BPT; break;				// 000003
+					case 4: op = OP_IOT; break;				// 000004
+					case 5: op = OP_RESET; break;			// 000005
+					case 6: op = OP_RTI; break;				// 000006
 					}
-															// 000007 - 000077
-					throw new Trap(Trap.ReservedInstruction);
-				case 1: executeJMP(); return;				// 000100 - 000177
+					break;									// 000007 - 000077
+				case 1: op = OP_JMP; break;					// 000100 - 000177
 				case 2:
 					switch ((ir >> 3) & 07) {
-					case 0: executeRTS(); return;			// 000200 - 000207
+					case 0: op = OP_RTS; break;				// 000200 - 000207
 					case 1: // fall through
 					case 2: // fall through
-					case 3: 								// 000210 - 000237
-						throw new Trap(Trap.ReservedInstruction);
+					case 3: break;							// 000210 - 000237
 					case 4: // fall through
 					case 5: // fall through
 					case 6: // fall through
-					case 7: executeCC(); return;			// 000240 - 000277
+					case 7: op = OP_CC; break;				// 000240 - 000277
 					}
-				case 3: executeSWAB(); return;				// 000300 - 000377
+					break;
+				case 3: op = OP_SWAB; break;				// 000300 - 000377
 				case 4: // fall through
 				case 5: // fall through
 				case 6: // fall through
-				case 7: executeBR(); return;				// 000400 - 000777
+				case 7: op = OP_BR; break;					// 000400 - 000777
 				}
-			case 1: executeBNEorBEQ(); return;				// 001000 - 001777
-			case 2: executeBGEorBLT(); return;				// 002000 - 002777
-			case 3: executeBGTorBLE(); return;				// 003000 - 003777
-			case 4: executeJSR(); return;					// 004000 - 004777
+				break;
+			case 1: op = OP_BNEorBEQ; break;				// 001000 - 001777
+			case 2: op = OP_BGEorBLT; break;				// 002000 - 002777
+			case 3: op = OP_BGTorBLE; break;				// 003000 - 003777
+			case 4: op = OP_JSR; break;						// 004000 - 004777
 			case 5:
 				switch ((ir >> 6) & 07) {
-				case 0: executeCLR(); return;				// 005000 - 005077
-				case 1: executeCOM(); return;				// 005100 - 005177
-				case 2: executeINC(); return;				// 005200 - 005277
-				case 3: executeDEC(); return;				// 005300 - 005377
-				case 4: executeNEG(); return;				// 005400 - 005477
-				case 5: executeADC(); return;				// 005500 - 005577
-				case 6: executeSBC(); return;				// 005600 - 005677
-				case 7: executeTST(); return;				// 005700 - 005777
+				case 0: op = OP_CLR; break;					// 005000 - 005077
+				case 1: op = OP_COM; break;					// 005100 - 005177
+				case 2: op = OP_INC; break;					// 005200 - 005277
+				case 3: op = OP_DEC; break;					// 005300 - 005377
+				case 4: op = OP_NEG; break;					// 005400 - 005477
+				case 5: op = OP_ADC; break;					// 005500 - 005577
+				case 6: op = OP_SBC; break;					// 005600 - 005677
+				case 7: op = OP_TST; break;					// 005700 - 005777
 				}
+				break;
 			case 6:
 				switch ((ir >> 6) & 07) {
-				case 0: executeROR(); return;				// 006000 - 006077
-				case 1: executeROL(); return;				// 006100 - 006177
-				case 2: executeASR(); return;				// 006200 - 006277
-				case 3: executeASL(); return;				// 006300 - 006377
-				case 4: executeMARK(); return;				// 006400 - 006477
-				case 5: executeMFPI(); return;				// 006500 - 006577
-				case 6: executeMTPI(); return;				// 006600 - 006677
-				case 7: executeSXT(); return;				// 006700 - 006777
+				case 0: op = OP_ROR; break;					// 006000 - 006077
+				case 1: op = OP_ROL; break;					// 006100 - 006177
+				case 2: op = OP_ASR; break;					// 006200 - 006277
+				case 3: op = OP_ASL; break;					// 006300 - 006377
+				case 4: op = OP_MARK; break;				// 006400 - 006477
+				case 5: op = OP_MFPI; break;				// 006500 - 006577
+				case 6: op = OP_MTPI; break;				// 006600 - 006677
+				case 7: op = OP_SXT; break;					// 006700 - 006777
 				}
-			case 7:
-				throw new Trap(Trap.ReservedInstruction);	// 007000 - 007777
-			}
-		case 1: executeMOV(); return;						// 010000 - 017777
-		case 2: executeCMP(); return;						// 020000 - 027777
-		case 3: executeBIT(); return;						// 030000 - 037777
-		case 4: executeBIC(); return;						// 040000 - 047777
-		case 5: executeBIS(); return;						// 050000 - 057777
-		case 6: executeADD(); return;						// 060000 - 067777
+				break;
+			case 7: break;									// 007000 - 007777
+			}
+			break;
+		case 1: op = OP_MOV; break;							// 010000 - 017777
+		case 2: op = OP_CMP; break;							// 020000 - 027777
+		case 3: op = OP_BIT; break;							// 030000 - 037777
+		case 4: op = OP_BIC; break;							// 040000 - 047777
+		case 5: op = OP_BIS; break;							// 050000 - 057777
+		case 6: op = OP_ADD; break;							// 060000 - 067777
 		case 7:
 			switch ((ir >> 9) & 07) {
-			case 0: executeMUL(); return;					// 070000 - 070777
-			case 1: executeDIV(); return;					// 071000 - 071777
-			case 2: executeASH(); return;					// 072000 - 072777
-			case 3: executeASHC(); return;					// 073000 - 073777
-			case 4: executeXOR(); return;					// 074000 - 074777
-			case 5:
-				throw new Trap(Trap.ReservedInstruction);	// 075000 - 075777
-			case 6:
-				throw new Trap(Trap.ReservedInstruction);	// 076000 - 076777
-			case 7: executeSOB(); return;					// 077000 - 077777
+			case 0: op = OP_MUL; break;						// 070000 - 070777
+			case 1: op = OP_DIV; break;						// 071000 - 071777
+			case 2: op = OP_ASH; break;						// 072000 - 072777
+			case 3: op = OP_ASHC; break;					// 073000 - 073777
+			case 4: op = OP_XOR; break;						// 074000 - 074777
+			case 5: break;									// 075000 - 075777
+			case 6: break;									// 076000 - 076777
+			case 7: op = OP_SOB; break;						// 077000 - 077777
 			}
+			break;
 		case 010:
 			switch ((ir >> 9) & 07) {
-			case 0: executeBPLorBMI(); return;				// 100000 - 100777
-			case 1: executeBHIorBLOS(); return;				// 101000 - 101777
-			case 2: executeBVCorBVS(); return;				// 102000 - 102777
-			case 3: executeBCCorBCS(); return;				// 103000 - 103777
+			case 0: op = OP_BPLorBMI; break;				// 100000 - 100777
+			case 1: op = OP_BHIorBLOS; break;				// 101000 - 101777
+			case 2: op = OP_BVCorBVS; break;				// 102000 - 102777
+			case 3: op = OP_BCCorBCS; break;				// 103000 - 103777
 			case 4:
 				if (ir <= 0104377) {
-					executeEMT(); return;					// 104000 - 104377
+					op = OP_EMT;							// 104000 - 104377
 				} else {
-					executeTRAP(); return;					// 104400 - 104777
+					op = OP_TRAP;							// 104400 - 104777
 				}
+				break;
 			case 5:
 				switch ((ir >> 6) & 07) {
-				case 0: executeCLRB(); return;				// 105000 - 105077
-				case 1: executeCOMB(); return;				// 105100 - 105177
-				case 2: executeINCB(); return;				// 105200 - 105277
-				case 3: executeDECB(); return;				// 105300 - 105377
-				case 4: executeNEGB(); return;				// 105400 - 105477
-				case 5: executeADCB(); return;				// 105500 - 105577
-				case 6: executeSBCB(); return;				// 105600 - 105677
-				case 7: executeTSTB(); return;				// 105700 - 105777
+				case 0: op = OP_CLRB; break;				// 105000 - 105077
+				case 1: op = OP_COMB; break;				// 105100 - 105177
+				case 2: op = OP_INCB; break;				// 105200 - 105277
+				case 3: op = OP_DECB; break;				// 105300 - 105377
+				case 4: op = OP_NEGB; break;				// 105400 - 105477
+				case 5: op = OP_ADCB; break;				// 105500 - 105577
+				case 6: op = OP_SBCB; break;				// 105600 - 105677
+				case 7: op = OP_TSTB; break;				// 105700 - 105777
 				}
+				break;
 			case 6:
 				switch ((ir >> 6) & 07) {
-				case 0: executeRORB(); return;				// 106000 - 106077
-				case 1: executeROLB(); return;				// 106100 - 106177
-				case 2: executeASRB(); return;				// 106200 - 106277
-				case 3: executeASLB(); return;				// 106300 - 106377
-				case 4: executeMTPS(); return;				// 106400 - 106477
-				case 5: executeMFPI(); return;				// 106500 - 106577
-				case 6: executeMTPI(); return;				// 106600 - 106677
-				case 7: executeMFPS(); return;				// 106700 - 106777
+				case 0: op = OP_RORB; break;				// 106000 - 106077
+				case 1: op = OP_ROLB; break;				// 106100 - 106177
+				case 2: op = OP_ASRB; break;				// 106200 - 106277
+				case 3: op = OP_ASLB; break;				// 106300 - 106377
+				case 4: op = OP_MTPS; break;				// 106400 - 106477
+				case 5: op = OP_MFPI; break;				// 106500 - 106577
+				case 6: op = OP_MTPI; break;				// 106600 - 106677
+				case 7: op = OP_MFPS; break;				// 106700 - 106777
+				}
+				break;
+			case 7: break;									// 107000 - 107777
+			}
+			break;
+		case 011: op = OP_MOVB; break;						// 110000 - 117777
+		case 012: op = OP_CMPB; break;						// 120000 - 127777
+		case 013: op = OP_BITB; break;						// 130000 - 137777
+		case 014: op = OP_BICB; break;						// 140000 - 147777
+		case 015: op = OP_BISB; break;						// 150000 - 157777
+		case 016: op = OP_SUB; break;						// 160000 - 167777
+		case 017: op = OP_FIS; break;						// 170000 - 177777
+		}
+		return (op << 16) | ir;
+	}
+
+	//
+	// fetch() - Get the predecode entry for the instruction at PC, going
+	// through the MMU exactly as logicalRead() would.  Only main memory
+	// is cached, the boot roms in the I/O page are decoded every time.
+	// With the block engine on, a translated block starting here is left
+	// in block for run2() to run in place of the instruction.
+	//
+
+	private final int fetch() throws Trap {
+		short pc = regs[PC];
+		if ((pc & 1) != 0) throw Trap.instance(Trap.OddAddress);
+		int addr = mmu.map(pc, false, false, false);
+		int word = addr >> 1;
+		int entry;
+		if (word < decodeCache.length) {
+			entry = decodeCache[word];
+			if (entry == 0) {
+				entry = decode(((int) unibus.read(addr)) & LNI);
+				decodeCache[word] = entry;
+			}
+			if (blocksOn) {
+				findBlock(pc & LNI, addr, entry);
+			}
+		} else {
+			entry = decode(((int) unibus.read(addr)) & LNI);
+		}
+		return entry;
+	}
+
+	//
+	// Block Engine
+	//
+	// A block is a straight run of instructions, cut at anything that
+	// transfers control, that has been entered often enough to be worth
+	// translating into a JVM class.  The translated code calls the same
+	// execute methods as execute() does, so operand fetches, MMU faults,
+	// traps and condition codes behave exactly as in the interpreter, but
+	// without the fetch and the dispatch.  Between instructions it calls
+	// blockNext(), which does run2()'s bookkeeping and leaves the block
+	// when there is anything else to do.  Blocks are found by physical
+	// address and checked against the virtual PC and the opcode, the
+	// mapping for the rest of the block is the one fetch() just checked.
+	//
+
+	private final void findBlock(int pc, int addr, int entry) {
+		int slot = (addr >> 1) & (BLOCK_SLOTS - 1);
+		CPUBlock b = blockCache[slot];
+		if ((b == null) || (b.start != addr) || (b.pc != pc) ||
+		  (b.entry != entry)) {
+			if (++blockHeat[slot] < BLOCK_HEAT) {
+				return;
+			}
+			blockHeat[slot] = 0;
+			b = translate(pc, addr, entry);
+			blockCache[slot] = b;
+			if (b == null) {
+				return;
+			}
+		}
+		block = b;
+	}
+
+	//
+	// translate() - Build the block starting at pc.  If the JVM won't
+	// define its class the block engine is turned off.
+	//
+
+	private final CPUBlock translate(int pc, int addr, int entry) {
+		if (translator == null) {
+			translator = new CPUTranslator(MethodHandles.lookup());
+		}
+		int vpc = pc;
+		int e = entry;
+		int count = 0;
+		CPUBlock b = null;
+		try {
+			translator.begin();
+			while (true) {
+				int op = e >>> 16;
+				translator.execute(e, executeMethods[op]);
+				++count;
+				if (endsBlock(op) || (count == BLOCK_MAX)) {
+					break;
+				}
+				vpc += instructionLength(op, e & LNI) * 2;
+				if ((vpc >> 6) != (pc >> 6)) {
+					break;				// left the MMU block
 				}
-			case 7:
-				throw new Trap(Trap.ReservedInstruction);	// 107000 - 107777
-			}
-		case 011: executeMOVB(); return;					// 110000 - 117777
-		case 012: executeCMPB(); return;					// 120000 - 127777
-		case 013: executeBITB(); return;					// 130000 - 137777
-		case 014: executeBICB(); return;					// 140000 - 147777
-		case 015: executeBISB(); return;					// 150000 - 157777
-		case 016: executeSUB(); return;						// 160000 - 167777
-		case 017: executeFIS(); return;						// 170000 - 177777
-		}
-		System.out.println("decode fell through");
-		throw new Trap(Trap.ReservedInstruction);			// fell through
+				int word = (addr + (vpc - pc)) >> 1;
+				e = decodeCache[word];
+				if (e == 0) {
+					e = decode(((int) unibus.read(word << 1)) & LNI);
+					decodeCache[word] = e;
+				}
+				translator.next(vpc, word, e);
+			}
+			b = translator.finish();
+		} catch (IOException ex) {
+			// leave b null
+		} catch (Trap t) {
+			// leave b null
+		}
+		if (b == null) {
+			System.out.println("\nBlock engine off, can't translate " +
+				Integer.toOctalString(pc));
+			blockEngine = false;
+			blocksOn = false;
+			return null;
+		}
+		b.start = addr;
+		b.pc = pc;
+		b.entry = entry;
+		b.count = count;
+		return b;
+	}
+
+	//
+	// blockNext() - Called by a translated block between instructions.
+	// Finishes the instruction just run the way run2() would when it has
+	// nothing else to do, and starts the one at pc.  Returns true to
+	// leave the block instead, with the instruction just run left for
+	// run2() to finish: when run2() has traps, events or interrupts to
+	// take, or when PC, the mode, the mapping or the opcode at pc is no
+	// longer what the block was translated for.
+	//
+
+	private final boolean blockNext(int pc, int word, int entry) {
+		if ((regs[PC] != (short) pc) || stackCheck ||
+		  ((psw & (T_BIT | 0140000)) != blockMode) ||
+		  (decodeCache[word] != entry) || (mmu.generation != blockGeneration)) {
+			return true;
+		}
+		long clock = unibus.clock + 1;
+		if ((clock > unibus.nextDeadline) || (clock >= nextPoll) ||
+		  unibus.waitingInterrupt((psw & 0340) >> 5)) {
+			return true;
+		}
+		unibus.clock = clock;
+		++blockSteps;
+		mmu.mmr2update((short) pc);
+		regs[PC] = (short) (pc + 2);
+		return false;
+	}
+
+	private static final boolean endsBlock(int op) {
+		switch (op) {
+		case OP_RESERVED: case OP_HALT: case OP_WAIT: case OP_RTI:
+		case OP_BPT: case OP_IOT: case OP_RESET: case OP_JMP: case OP_RTS:
+		case OP_BR: case OP_BNEorBEQ: case OP_BGEorBLT: case OP_BGTorBLE:
+		case OP_JSR: case OP_MARK: case OP_SOB: case OP_BPLorBMI:
+		case OP_BHIorBLOS: case OP_BVCorBVS: case OP_BCCorBCS: case OP_EMT:
+		case OP_TRAP: case OP_MTPS: case OP_FIS:
+			return true;
+		}
+		return false;
+	}
+
+	// instructionLength() - Words taken by an instruction that doesn't
+	// end a block, counting index and PC relative operand words.
+
+	private static final int instructionLength(int op, int ir) {
+		int length = 1;
+		switch (op) {
+		case OP_CC:
+			return length;
+		case OP_MOV: case OP_CMP: case OP_BIT: case OP_BIC: case OP_BIS:
+		case OP_ADD: case OP_SUB: case OP_MOVB: case OP_CMPB: case OP_BITB:
+		case OP_BICB: case OP_BISB:
+			length += operandWords((ir >> 9) & 07, (ir >> 6) & 07);
+			break;
+		}
+		return length + operandWords((ir >> 3) & 07, ir & 07);
+	}
+
+	private static final int operandWords(int mode, int reg) {
+		if ((mode >= 6) || ((reg == PC) && ((mode == 2) || (mode == 3)))) {
+			return 1;
+		}
+		return 0;
+	}
+
+	//
+	// deferFlags() - Record an N, Z and V update for later.  The caller
+	// has already set C, so a new update simply replaces the last one.
+	//
+
+	private final void deferFlags(int kind, int a, int b, int r) {
+		ccKind = kind;
+		ccA = a;
+		ccB = b;
+		ccR = r;
+	}
+
+	//
+	// evaluateFlags() - Bring the N, Z and V bits of psw up to date.
+	//
+
+	private final void evaluateFlags() {
+		if (ccKind == CC_NONE)
+			return;
+		int sign = MNI;
+		int mask = LNI;
+		int max = MPI;
+		if ((ccKind & CC_BYTE) != 0) {
+			sign = MNB;
+			mask = LNB;
+			max = MPB;
+		}
+		int r = ccR;
+		int flags = psw & C_BIT;
+		switch (ccKind & ~CC_BYTE) {
+		case CC_INC:
+			if ((r & mask) == sign)
+				flags |= V_BIT;
+			break;
+		case CC_DEC:
+			if ((r & mask) == max)
+				flags |= V_BIT;
+			break;
+		case CC_ADD:
+			if (((ccA & sign) == (ccB & sign)) && ((ccA & sign) != (r & sign)))
+				flags |= V_BIT;
+			break;
+		case CC_SUB:
+			if (((ccA & sign) != (ccB & sign)) && ((ccA & sign) == (r & sign)))
+				flags |= V_BIT;
+			break;
+		}
+		if ((r & mask) == 0)
+			flags |= Z_BIT;
+		if ((r & sign) != 0)
+			flags |= N_BIT;
+		psw = (psw & ~017) | flags;
+		ccKind = CC_NONE;
+	}
+
+	//
+	// execute() - Dispatch a predecoded instruction.  The operand fields
+	// are split out of ir here, once, for the addressing mode helpers.
+	//
+
+	private final void execute(int entry) throws Trap {
+		ir = entry & LNI;
+		srcMode = (ir >> 9) & 07;
+		srcReg = (ir >> 6) & 07;
+		dstMode = (ir >> 3) & 07;
+		dstReg = ir & 07;
+		switch (entry >>> 16) {
+		case OP_HALT: executeHALT(); return;
+		case OP_WAIT: executeWAIT(); return;
+		case OP_RTI: executeRTIorRTT(); return;
+		case OP_BPT: executeBPT(); return;
+		case OP_IOT: executeIOT(); return;
+		case OP_RESET: executeRESET(); return;
+		case OP_JMP: executeJMP(); return;
+		case OP_RTS: executeRTS(); return;
+		case OP_CC: executeCC(); return;
+		case OP_SWAB: executeSWAB(); return;
+		case OP_BR: executeBR(); return;
+		case OP_BNEorBEQ: executeBNEorBEQ(); return;
+		case OP_BGEorBLT: executeBGEorBLT(); return;
+		case OP_BGTorBLE: executeBGTorBLE(); return;
+		case OP_JSR: executeJSR(); return;
+		case OP_CLR: executeCLR(); return;
+		case OP_COM: executeCOM(); return;
+		case OP_INC: executeINC(); return;
+		case OP_DEC: executeDEC(); return;
+		case OP_NEG: executeNEG(); return;
+		case OP_ADC: executeADC(); return;
+		case OP_SBC: executeSBC(); return;
+		case OP_TST: executeTST(); return;
+		case OP_ROR: executeROR(); return;
+		case OP_ROL: executeROL(); return;
+		case OP_ASR: executeASR(); return;
+		case OP_ASL: executeASL(); return;
+		case OP_MARK: executeMARK(); return;
+		case OP_MFPI: executeMFPI(); return;
+		case OP_MTPI: executeMTPI(); return;
+		case OP_SXT: executeSXT(); return;
+		case OP_MOV: executeMOV(); return;
+		case OP_CMP: executeCMP(); return;
+		case OP_BIT: executeBIT(); return;
+		case OP_BIC: executeBIC(); return;
+		case OP_BIS: executeBIS(); return;
+		case OP_ADD: executeADD(); return;
+		case OP_MUL: executeMUL(); return;
+		case OP_DIV: executeDIV(); return;
+		case OP_ASH: executeASH(); return;
+		case OP_ASHC: executeASHC(); return;
+		case OP_XOR: executeXOR(); return;
+		case OP_SOB: executeSOB(); return;
+		case OP_BPLorBMI: executeBPLorBMI(); return;
+		case OP_BHIorBLOS: executeBHIorBLOS(); return;
+		case OP_BVCorBVS: executeBVCorBVS(); return;
+		case OP_BCCorBCS: executeBCCorBCS(); return;
+		case OP_EMT: executeEMT(); return;
+		case OP_TRAP: executeTRAP(); return;
+		case OP_CLRB: executeCLRB(); return;
+		case OP_COMB: executeCOMB(); return;
+		case OP_INCB: executeINCB(); return;
+		case OP_DECB: executeDECB(); return;
+		case OP_NEGB: executeNEGB(); return;
+		case OP_ADCB: executeADCB(); return;
+		case OP_SBCB: executeSBCB(); return;
+		case OP_TSTB: executeTSTB(); return;
+		case OP_RORB: executeRORB(); return;
+		case OP_ROLB: executeROLB(); return;
+		case OP_ASRB: executeASRB(); return;
+		case OP_ASLB: executeASLB(); return;
+		case OP_MTPS: executeMTPS(); return;
+		case OP_MFPS: executeMFPS(); return;
+		case OP_MOVB: executeMOVB(); return;
+		case OP_CMPB: executeCMPB(); return;
+		case OP_BITB: executeBITB(); return;
+		case OP_BICB: executeBICB(); return;
+		case OP_BISB: executeBISB(); return;
+		case OP_SUB: executeSUB(); return;
+		case OP_FIS: executeFIS(); return;
+		}
+		throw Trap.instance(Trap.ReservedInstruction);
 	}
 
 }
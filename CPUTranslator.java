@@ -0,0 +1,349 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// CPUTranslator.java - Writes the class file for a translated block.
+//
+// A block becomes a hidden class extending CPUBlock whose run() method
+// is straight line code: for each instruction it stores the decoded
+// operand fields into the CPU and calls the interpreter's execute method
+// for the op directly, and between instructions it calls blockNext() and
+// returns if that says to leave.  The JIT then compiles each block with
+// the fields as constants and no dispatch.  The class is defined as a
+// nestmate of CPUDevice so it can reach the private interpreter.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+class CPUTranslator {
+
+	private static final int CLASS_VERSION = 55;	// Java 11, nestmate calls
+	private static final int ACC_FINAL_SUPER = 0x0030;
+
+	private static final int CONSTANT_Utf8 = 1;
+	private static final int CONSTANT_Integer = 3;
+	private static final int CONSTANT_Class = 7;
+	private static final int CONSTANT_Fieldref = 9;
+	private static final int CONSTANT_Methodref = 10;
+	private static final int CONSTANT_NameAndType = 12;
+
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int IFEQ = 0x99;
+	private static final int RETURN = 0xb1;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	private static final int SAME_FRAME_EXTENDED = 251;
+
+	private static final String NAME = "PDPCafe/CPUBlockCode";
+	private static final String SUPER = "PDPCafe/CPUBlock";
+	private static final String CPU = "PDPCafe/CPUDevice";
+
+	private MethodHandles.Lookup lookup;	// full access to CPUDevice
+	private ByteArrayOutputStream pool;		// constant pool entries
+	private DataOutputStream poolOut;
+	private Hashtable<String, Integer> poolIndex;
+	private int poolCount;
+	private ByteArrayOutputStream code;		// body of run()
+	private DataOutputStream codeOut;
+	private Vector<Integer> frames;			// branch targets in run()
+
+	CPUTranslator(MethodHandles.Lookup lookup) {
+		this.lookup = lookup;
+		poolIndex = new Hashtable<String, Integer>();
+		frames = new Vector<Integer>();
+	}
+
+	//
+	// begin() - Start a new block.
+	//
+
+	void begin() {
+		pool = new ByteArrayOutputStream();
+		poolOut = new DataOutputStream(pool);
+		poolIndex.clear();
+		poolCount = 1;
+		code = new ByteArrayOutputStream();
+		codeOut = new DataOutputStream(code);
+		frames.removeAllElements();
+	}
+
+	//
+	// next() - Leave the block unless blockNext() agrees that the
+	// instruction at pc, decoded as entry, runs next.
+	//
+
+	void next(int pc, int word, int entry) throws IOException {
+		codeOut.writeByte(ALOAD_1);
+		pushInt(pc);
+		pushInt(word);
+		pushInt(entry);
+		codeOut.writeByte(INVOKEVIRTUAL);
+		codeOut.writeShort(methodRef(CPU, "blockNext", "(III)Z"));
+		codeOut.writeByte(IFEQ);
+		codeOut.writeShort(4);
+		codeOut.writeByte(RETURN);
+		frames.addElement(Integer.valueOf(code.size()));
+	}
+
+	//
+	// execute() - Run one instruction, ir, through the interpreter method
+	// for its op, or through execute() with the whole entry if the op has
+	// no method of its own.
+	//
+
+	void execute(int entry, String method) throws IOException {
+		int ir = entry & 0177777;
+		if (method == null) {
+			codeOut.writeByte(ALOAD_1);
+			pushInt(entry);
+			codeOut.writeByte(INVOKEVIRTUAL);
+			codeOut.writeShort(methodRef(CPU, "execute", "(I)V"));
+			return;
+		}
+		putField("ir", ir);
+		putField("srcMode", (ir >> 9) & 07);
+		putField("srcReg", (ir >> 6) & 07);
+		putField("dstMode", (ir >> 3) & 07);
+		putField("dstReg", ir & 07);
+		codeOut.writeByte(ALOAD_1);
+		codeOut.writeByte(INVOKEVIRTUAL);
+		codeOut.writeShort(methodRef(CPU, method, "()V"));
+	}
+
+	//
+	// finish() - Define the class for the block and return an instance,
+	// or null if the JVM won't take it.
+	//
+
+	CPUBlock finish() {
+		try {
+			byte[] bytes = classFile();
+			MethodHandles.Lookup block = lookup.defineHiddenClass(bytes, true,
+				MethodHandles.Lookup.ClassOption.NESTMATE);
+			MethodHandle init = block.findConstructor(block.lookupClass(),
+				MethodType.methodType(void.class));
+			return (CPUBlock) init.invoke();
+		} catch (Throwable t) {
+			System.out.println("CPUTranslator: " + t);
+			return null;
+		}
+	}
+
+	private void putField(String name, int value) throws IOException {
+		codeOut.writeByte(ALOAD_1);
+		pushInt(value);
+		codeOut.writeByte(PUTFIELD);
+		codeOut.writeShort(fieldRef(CPU, name, "I"));
+	}
+
+	private void pushInt(int value) throws IOException {
+		if ((value >= 0) && (value <= 5)) {
+			codeOut.writeByte(ICONST_0 + value);
+		} else if ((value >= -128) && (value <= 127)) {
+			codeOut.writeByte(BIPUSH);
+			codeOut.writeByte(value);
+		} else if ((value >= -32768) && (value <= 32767)) {
+			codeOut.writeByte(SIPUSH);
+			codeOut.writeShort(value);
+		} else {
+			codeOut.writeByte(LDC_W);
+			codeOut.writeShort(integer(value));
+		}
+	}
+
+	//
+	// classFile() - Put together the class: a constructor that calls
+	// CPUBlock's, and run() with the code built up so far.
+	//
+
+	private byte[] classFile() throws IOException {
+		codeOut.writeByte(RETURN);
+		int thisClass = classRef(NAME);
+		int superClass = classRef(SUPER);
+		int superInit = methodRef(SUPER, "<init>", "()V");
+		int initName = utf8("<init>");
+		int initType = utf8("()V");
+		int runName = utf8("run");
+		int runType = utf8("(L" + CPU + ";)V");
+		int codeName = utf8("Code");
+		int mapName = utf8("StackMapTable");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xcafebabe);
+		out.writeShort(0);
+		out.writeShort(CLASS_VERSION);
+		out.writeShort(poolCount);
+		pool.writeTo(out);
+		out.writeShort(ACC_FINAL_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0);				// interfaces
+		out.writeShort(0);				// fields
+		out.writeShort(2);				// methods
+
+		out.writeShort(0);
+		out.writeShort(initName);
+		out.writeShort(initType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + 5);
+		out.writeShort(1);				// max stack
+		out.writeShort(1);				// max locals
+		out.writeInt(5);
+		out.writeByte(ALOAD_0);
+		out.writeByte(INVOKESPECIAL);
+		out.writeShort(superInit);
+		out.writeByte(RETURN);
+		out.writeShort(0);				// exception table
+		out.writeShort(0);				// attributes
+
+		ByteArrayOutputStream map = new ByteArrayOutputStream();
+		DataOutputStream mapOut = new DataOutputStream(map);
+		mapOut.writeShort(frames.size());
+		int last = -1;
+		for (int i = 0; i < frames.size(); ++i) {
+			int offset = frames.elementAt(i).intValue();
+			int delta = offset - last - 1;
+			if (delta < 64) {
+				mapOut.writeByte(delta);	// same_frame
+			} else {
+				mapOut.writeByte(SAME_FRAME_EXTENDED);
+				mapOut.writeShort(delta);
+			}
+			last = offset;
+		}
+		int attributes = (frames.size() > 0) ? 1 : 0;
+
+		out.writeShort(0);
+		out.writeShort(runName);
+		out.writeShort(runType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + code.size() +
+			((attributes > 0) ? (6 + map.size()) : 0));
+		out.writeShort(4);				// max stack
+		out.writeShort(2);				// max locals
+		out.writeInt(code.size());
+		code.writeTo(out);
+		out.writeShort(0);				// exception table
+		out.writeShort(attributes);
+		if (attributes > 0) {
+			out.writeShort(mapName);
+			out.writeInt(map.size());
+			map.writeTo(out);
+		}
+
+		out.writeShort(0);				// class attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	//
+	// Constant Pool
+	//
+
+	private int utf8(String s) throws IOException {
+		Integer index = poolIndex.get("U" + s);
+		if (index == null) {
+			poolOut.writeByte(CONSTANT_Utf8);
+			poolOut.writeUTF(s);
+			index = Integer.valueOf(poolCount++);
+			poolIndex.put("U" + s, index);
+		}
+		return index.intValue();
+	}
+
+	private int integer(int value) throws IOException {
+		Integer index = poolIndex.get("I" + value);
+		if (index == null) {
+			poolOut.writeByte(CONSTANT_Integer);
+			poolOut.writeInt(value);
+			index = Integer.valueOf(poolCount++);
+			poolIndex.put("I" + value, index);
+		}
+		return index.intValue();
+	}
+
+	private int classRef(String name) throws IOException {
+		Integer index = poolIndex.get("C" + name);
+		if (index == null) {
+			int n = utf8(name);
+			poolOut.writeByte(CONSTANT_Class);
+			poolOut.writeShort(n);
+			index = Integer.valueOf(poolCount++);
+			poolIndex.put("C" + name, index);
+		}
+		return index.intValue();
+	}
+
+	private int nameAndType(String name, String type) throws IOException {
+		Integer index = poolIndex.get("N" + name + " " + type);
+		if (index == null) {
+			int n = utf8(name);
+			int t = utf8(type);
+			poolOut.writeByte(CONSTANT_NameAndType);
+			poolOut.writeShort(n);
+			poolOut.writeShort(t);
+			index = Integer.valueOf(poolCount++);
+			poolIndex.put("N" + name + " " + type, index);
+		}
+		return index.intValue();
+	}
+
+	private int methodRef(String owner, String name, String type)
+	throws IOException {
+		return memberRef(CONSTANT_Methodref, owner, name, type);
+	}
+
+	private int fieldRef(String owner, String name, String type)
+	throws IOException {
+		return memberRef(CONSTANT_Fieldref, owner, name, type);
+	}
+
+	private int memberRef(int tag, String owner, String name, String type)
+	throws IOException {
+		String key = "M" + tag + owner + " " + name + " " + type;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			int c = classRef(owner);
+			int nt = nameAndType(name, type);
+			poolOut.writeByte(tag);
+			poolOut.writeShort(c);
+			poolOut.writeShort(nt);
+			index = Integer.valueOf(poolCount++);
+			poolIndex.put(key, index);
+		}
+		return index.intValue();
+	}
+}
@@ -0,0 +1,293 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// CachedDiskImage.java - Disk image read and written through the shared
+// BlockCache.
+//
+// Reads are served from the cache where they can be, a miss reads whole
+// blocks from the image underneath, through to the end of the read, and
+// keeps them.  Writes update the cache and, depending on the policy, the
+// image.  A write of part of a block that isn't cached goes straight to
+// the image when writing through, and reads the rest of the block first
+// when holding writes.
+//
+// A read that starts where the last one ended is taken as sequential,
+// and the next track or so is read ahead on a host I/O thread.  What it
+// brings in is added to the cache by the next operation, which waits for
+// it if it needs those blocks, and thrown away if anything was written
+// over it meanwhile.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+
+public class CachedDiskImage implements DiskImage {
+
+	private static final int BLOCK = BlockCache.BLOCK;
+
+	private DiskImage base;
+	private int policy;
+	private BlockCache cache;
+	private long length;
+	private byte[] block = new byte[BLOCK];		// for a block being read in
+	private IOException error;				// from a write back
+	private int readAhead;					// bytes to read ahead, or 0
+	private long next = -1;					// where a sequential read starts
+	private DiskTransfer ahead;				// read ahead in progress
+	private long aheadStart;				// what it covers
+	private long aheadEnd;
+	private long readTo;					// end of all read ahead so far
+	private boolean aheadStale;				// written over since it started
+	private int aheadWrites;				// write backs when it started
+	int id;									// the cache's name for us
+	int writeBacks;							// blocks the cache wrote for us
+
+	public CachedDiskImage(DiskImage base, int policy) throws IOException {
+		this.base = base;
+		this.policy = policy;
+		cache = BlockCache.shared();
+		length = base.length();
+		id = cache.register();
+	}
+
+	public DiskImage base() {
+		return base;
+	}
+
+	public int policy() {
+		return policy;
+	}
+
+	//
+	// setReadAhead() - Read this many bytes ahead of sequential reads,
+	// typically a track, or none with 0.
+	//
+
+	public synchronized void setReadAhead(int bytes) {
+		readAhead = bytes;
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public synchronized void read(long offset, byte[] data, int start,
+	int count) throws IOException {
+		check();
+		if ((offset < 0) || ((offset + count) > length)) {
+			throw new EOFException();
+		}
+		collect(offset, count);
+		long end = offset + count;
+		if (offset != next) {
+			readTo = 0;							// not sequential, start over
+		} else if ((readAhead > 0) && (ahead == null) &&
+		((end + (readAhead / 2)) > readTo)) {
+			startAhead(Math.max(end, readTo), end + readAhead);
+		}
+		next = end;
+		while (count > 0) {
+			long n = offset / BLOCK;
+			int within = (int) (offset % BLOCK);
+			int part = Math.min(count, BLOCK - within);
+			if (!cache.get(this, n, within, data, start, part)) {
+				long last = (offset + count - 1) / BLOCK;
+				int size = (int) (Math.min((last + 1) * BLOCK, length) -
+					n * BLOCK);
+				byte[] span = (size <= BLOCK) ? block : new byte[size];
+				int writes = writeBacks;
+				base.read(n * BLOCK, span, 0, size);
+				cache.fill(this, n, ByteBuffer.wrap(span, 0, size), false,
+					writes);
+				System.arraycopy(span, within, data, start, part);
+			}
+			offset += part;
+			start += part;
+			count -= part;
+		}
+	}
+
+	//
+	// startAhead() - Start reading the whole blocks between from and to.
+	//
+
+	private void startAhead(long from, long to) {
+		from = ((from + BLOCK - 1) / BLOCK) * BLOCK;
+		to = Math.min((to / BLOCK) * BLOCK, length);
+		if (to > from) {
+			aheadWrites = writeBacks;
+			aheadStart = from;
+			aheadEnd = to;
+			aheadStale = false;
+			readTo = to;
+			ahead = DiskTransfer.read(base, from, (int) (to - from));
+		}
+	}
+
+	//
+	// collect() - Add a finished read ahead to the cache, waiting for it
+	// if it covers any of the count bytes at offset.
+	//
+
+	private void collect(long offset, int count) {
+		if ((ahead == null) || (!ahead.done() &&
+		(((offset + count) <= aheadStart) || (offset >= aheadEnd)))) {
+			return;
+		}
+		try {
+			ByteBuffer b = ahead.finish();
+			if (!aheadStale) {
+				b.limit((int) (aheadEnd - aheadStart));
+				cache.fill(this, aheadStart / BLOCK, b, true, aheadWrites);
+			}
+		} catch (IOException e) {
+			// only a guess, the read itself will find any real trouble
+		}
+		ahead = null;
+	}
+
+	//
+	// dropAhead() - Wait out a read ahead and throw it away.
+	//
+
+	private void dropAhead() {
+		aheadStale = true;
+		collect(aheadStart, 1);
+		readTo = 0;
+	}
+
+	public synchronized void write(long offset, byte[] data, int start,
+	int count) throws IOException {
+		check();
+		if ((offset < 0) || ((offset + count) > length)) {
+			throw new EOFException();
+		}
+		if ((ahead != null) && (offset < aheadEnd) &&
+		((offset + count) > aheadStart)) {
+			aheadStale = true;
+		}
+		boolean hold = (policy != BlockCache.WRITE_THROUGH);
+		if (!hold) {
+			base.write(offset, data, start, count);
+		}
+		while (count > 0) {
+			long n = offset / BLOCK;
+			int within = (int) (offset % BLOCK);
+			int part = Math.min(count, BLOCK - within);
+			int size = (int) Math.min(BLOCK, length - n * BLOCK);
+			if (!cache.put(this, n, within, data, start, part, hold)) {
+				if (part == size) {
+					cache.add(this, n, data, start, size, hold);
+				} else if (hold) {
+					base.read(n * BLOCK, block, 0, size);
+					System.arraycopy(data, start, block, within, part);
+					cache.add(this, n, block, 0, size, true);
+				}
+			}
+			offset += part;
+			start += part;
+			count -= part;
+		}
+	}
+
+	//
+	// flush() - Write held blocks to the image, without syncing it.
+	//
+
+	public synchronized void flush() throws IOException {
+		cache.flush(this);
+		check();
+	}
+
+	public synchronized void force() throws IOException {
+		flush();
+		base.force();
+	}
+
+	//
+	// reset() - The machine did a Unibus reset, write back and sync.  A
+	// failure is left for the next operation, the reset can't report it.
+	//
+
+	public void reset() {
+		try {
+			force();
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	//
+	// invalidate() - Forget the cached blocks, held writes and all, after
+	// the image underneath changed.
+	//
+
+	public synchronized void invalidate() {
+		dropAhead();
+		cache.drop(this);
+	}
+
+	//
+	// release() - Write back and leave the cache, handing back the image
+	// underneath, still open.
+	//
+
+	public synchronized DiskImage release() throws IOException {
+		dropAhead();
+		try {
+			flush();
+		} finally {
+			cache.drop(this);
+		}
+		return base;
+	}
+
+	public synchronized void close() throws IOException {
+		try {
+			release();
+		} finally {
+			base.close();
+		}
+	}
+
+	void failed(IOException e) {
+		synchronized (cache) {
+			if (error == null) {
+				error = e;
+			}
+		}
+	}
+
+	private void check() throws IOException {
+		IOException e;
+		synchronized (cache) {
+			e = error;
+			error = null;
+		}
+		if (e != null) {
+			throw e;
+		}
+	}
+}
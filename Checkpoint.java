@@ -0,0 +1,243 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// Checkpoint.java - Append-only log of incremental machine checkpoints.
+//
+// The log starts with a short header.  Each checkpoint appended to it
+// holds the memory blocks written since the one before, as kept by the
+// Unibus dirty bitmap, followed by the same device state a Snapshot
+// holds, and ends in a CRC so a checkpoint cut short by a crash is
+// spotted and dropped.  The first checkpoint written after opening a
+// log, or after a restore, has all of memory.  Restoring checkpoint n
+// lays down the blocks of checkpoints 0 through n, then n's state.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+public class Checkpoint {
+
+	private static final long MAGIC = 0x5044504361666543L;	// "PDPCafeC"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD = 0x434b5054;			// "CKPT"
+	private static final int RECORD_HEADER = 20;
+	private static final int RECORD_TRAILER = 8;
+	private static final int BLOCK_WORDS = Unibus.DIRTY_BLOCK / 2;
+
+	private Machine machine;
+	private FileChannel channel;
+	private int count;						// checkpoints in the log
+
+	//
+	// Checkpoint() - Open a log for appending, creating it if need be.
+	//
+
+	public Checkpoint(Machine machine, String path) throws IOException {
+		this.machine = machine;
+		int memoryBytes = machine.unibus.memory().length * 2;
+		channel = new RandomAccessFile(path, "rw").getChannel();
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putLong(MAGIC);
+				header.putInt(VERSION);
+				header.putInt(memoryBytes);
+				header.flip();
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+				count = 0;
+			} else {
+				ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+				Vector<Long> records = scan(map, memoryBytes);
+				count = records.size() - 1;
+				channel.truncate(records.lastElement().longValue());
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		machine.unibus.markAllDirty();
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	//
+	// write() - Append a checkpoint and return its number.  The processor
+	// must be stopped.  The log is forced to disk before returning.
+	//
+
+	public synchronized int write() throws IOException {
+		if (machine.cpu.isExecuting()) {
+			throw new IOException("processor is running");
+		}
+		short[] mem = machine.unibus.memory();
+		byte[] state = Snapshot.saveState(machine);
+		long[] dirty = machine.unibus.takeDirty();
+		int total = mem.length / BLOCK_WORDS;
+		int blocks = 0;
+		for (int i = 0; i < total; ++i) {
+			if ((dirty[i >> 6] & (1L << i)) != 0) {
+				++blocks;
+			}
+		}
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER +
+			(blocks * (4 + Unibus.DIRTY_BLOCK)) + state.length + RECORD_TRAILER);
+		record.putInt(RECORD);
+		record.putInt(blocks);
+		record.putInt(state.length);
+		record.putLong(machine.unibus.clock);
+		for (int i = 0; i < total; ++i) {
+			if ((dirty[i >> 6] & (1L << i)) != 0) {
+				record.putInt(i);
+				int base = i * BLOCK_WORDS;
+				for (int j = 0; j < BLOCK_WORDS; ++j) {
+					record.putShort(mem[base + j]);
+				}
+			}
+		}
+		record.put(state);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.position());
+		record.putLong(crc.getValue());
+		record.flip();
+		long end = channel.size();
+		while (record.hasRemaining()) {
+			end += channel.write(record, end);
+		}
+		channel.force(false);
+		return count++;
+	}
+
+	//
+	// restore() - Load checkpoint which from a log, or the newest if
+	// which is negative, and return its number.  The processor must be
+	// stopped, and is left stopped ready to continue from there.
+	//
+
+	public static int restore(Machine machine, String path, int which)
+	throws IOException {
+		if (machine.cpu.isExecuting()) {
+			throw new IOException("processor is running");
+		}
+		short[] mem = machine.unibus.memory();
+		FileChannel channel = new RandomAccessFile(path, "r").getChannel();
+		try {
+			ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+				0, channel.size());
+			Vector<Long> records = scan(map, mem.length * 2);
+			int n = records.size() - 1;
+			if (which < 0) {
+				which = n - 1;
+			}
+			if ((which < 0) || (which >= n)) {
+				throw new IOException("no checkpoint " + which);
+			}
+
+			map.position((int) records.elementAt(which).longValue() + 4);
+			int blocks = map.getInt();
+			byte[] state = new byte[map.getInt()];
+			map.position(map.position() + 8 +
+				(blocks * (4 + Unibus.DIRTY_BLOCK)));
+			map.get(state);
+			DataInputStream in = Snapshot.openState(machine, state);
+
+			for (int r = 0; r <= which; ++r) {
+				map.position((int) records.elementAt(r).longValue() + 4);
+				blocks = map.getInt();
+				map.position(map.position() + 12);
+				for (int i = 0; i < blocks; ++i) {
+					int base = map.getInt() * BLOCK_WORDS;
+					if ((base < 0) || ((base + BLOCK_WORDS) > mem.length)) {
+						throw new IOException("bad block in checkpoint " + r);
+					}
+					for (int j = 0; j < BLOCK_WORDS; ++j) {
+						mem[base + j] = map.getShort();
+					}
+				}
+			}
+			Snapshot.restoreState(machine, in);
+			return which;
+		} finally {
+			channel.close();
+		}
+	}
+
+	//
+	// scan() - Check the log header and find the good checkpoints.
+	// Returns the offset of each, then the offset just past the last.
+	//
+
+	private static Vector<Long> scan(ByteBuffer map, int memoryBytes)
+	throws IOException {
+		if ((map.capacity() < HEADER_SIZE) || (map.getLong() != MAGIC) ||
+		(map.getInt() != VERSION)) {
+			throw new IOException("not a checkpoint log");
+		}
+		if (map.getInt() != memoryBytes) {
+			throw new IOException("checkpoint log is for a different memory size");
+		}
+		Vector<Long> records = new Vector<Long>();
+		int offset = HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		while ((map.capacity() - offset) >= (RECORD_HEADER + RECORD_TRAILER)) {
+			map.position(offset);
+			if (map.getInt() != RECORD) {
+				break;
+			}
+			long blocks = map.getInt();
+			long stateBytes = map.getInt();
+			long length = RECORD_HEADER + (blocks * (4 + Unibus.DIRTY_BLOCK)) +
+				stateBytes;
+			if ((blocks < 0) || (stateBytes < 0) ||
+			((map.capacity() - offset) < (length + RECORD_TRAILER))) {
+				break;
+			}
+			byte[] body = new byte[(int) length];
+			map.position(offset);
+			map.get(body);
+			crc.reset();
+			crc.update(body, 0, body.length);
+			if (map.getLong() != crc.getValue()) {
+				break;
+			}
+			records.addElement(Long.valueOf(offset));
+			offset += length + RECORD_TRAILER;
+		}
+		records.addElement(Long.valueOf(offset));
+		return records;
+	}
+}
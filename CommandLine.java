@@ -27,12 +27,14 @@
 package PDPCafe;
 
 import java.io.*;
+import java.util.*;
 
 public class CommandLine extends Thread {
 
 	private static final int NUMBER_EMPTY = -1;
 	private static final int NUMBER_SYNTAX = -2;
 
+	private Machine machine;
 	private CPUDevice cpu;
 	private KTDevice mmu;
 	private Unibus unibus;
@@ -41,12 +43,14 @@ public class CommandLine extends Thread {
 	private String cmdLine;
 	private int cmdOffset;
 	private int savedAddress = 0;
+	private InputLog inputLog;
 
 	//
 	// CommandLine() - Constructor, just start the thread.
 	//
 
-	public CommandLine() {
+	public CommandLine(Machine machine) {
+		this.machine = machine;
 		this.start();
 	}
 
@@ -387,6 +391,243 @@ public class CommandLine extends Thread {
 
 	private void statusCmd() {
 		unibus.dumpDevices();
+		cpu.dumpLatency();
+		Vector<UnibusDevice> devices = unibus.deviceList();
+		for (int i = 0; i < devices.size(); ++i) {
+			UnibusDevice d = devices.elementAt(i);
+			for (int unit = 0; unit < 8; ++unit) {
+				String timing = null;
+				if (d instanceof RLDiskDevice) {
+					timing = ((RLDiskDevice) d).timing(unit);
+				} else if (d instanceof RMDiskDevice) {
+					timing = ((RMDiskDevice) d).timing(unit);
+				}
+				if (timing != null) {
+					output.println(timing);
+				}
+			}
+		}
+		if (BlockCache.active()) {
+			output.println(BlockCache.shared().stats());
+		}
+	}
+
+	//
+	// optionCmd() - Change an option, "o <device> <option> <value>".
+	// Options can only be changed while the processor is stopped.
+	//
+
+	private void optionCmd() {
+		String device = nextToken();
+		String option = nextToken();
+		String value = nextToken();
+		if ((device == null) || (option == null) || (value == null)) {
+			grok();
+			return;
+		}
+		if (cpu.isExecuting()) {
+			output.println("** option failed **");
+			return;
+		}
+		if (device.equals("cpu") && option.equals("blocks")) {
+			if (value.equals("on")) {
+				cpu.setBlockEngine(true);
+			} else if (value.equals("off")) {
+				cpu.setBlockEngine(false);
+			} else {
+				grok();
+			}
+		} else if (device.equals("cpu") && option.equals("flags")) {
+			if (value.equals("lazy")) {
+				cpu.setLazyFlags(true);
+			} else if (value.equals("eager")) {
+				cpu.setLazyFlags(false);
+			} else {
+				grok();
+			}
+		} else if (device.equals("kw") && option.equals("clock")) {
+			if (value.equals("real")) {
+				machine.kw.setMode(KWDevice.REAL);
+			} else if (value.equals("virtual")) {
+				machine.kw.setMode(KWDevice.VIRTUAL);
+			} else if (value.equals("warp")) {
+				machine.kw.setMode(KWDevice.WARP);
+			} else {
+				grok();
+			}
+		} else if (device.equals("bus") &&
+		(option.equals("record") || option.equals("replay"))) {
+			try {
+				if (inputLog != null) {
+					InputLog log = inputLog;
+					inputLog = null;
+					log.close();
+				}
+				if (option.equals("record") && !value.equals("off")) {
+					inputLog = InputLog.record(machine, value);
+				} else if (option.equals("replay") && !value.equals("off")) {
+					inputLog = InputLog.replay(machine, value);
+				}
+			} catch (IOException e) {
+				output.println(value + ": " + e.getMessage());
+			}
+		} else if ((device.startsWith("rl") || device.startsWith("rm")) &&
+		(device.length() == 3) && option.equals("overlay") &&
+		(value.equals("commit") || value.equals("discard"))) {
+			overlayCmd(device, value);
+		} else if ((device.equals("rl") || device.equals("rm")) &&
+		option.equals("timing")) {
+			timingCmd(device, value);
+		} else if ((device.startsWith("rl") || device.startsWith("rm")) &&
+		(device.length() == 3) && option.equals("cache")) {
+			cacheCmd(device, value);
+		} else {
+			grok();
+		}
+	}
+
+	//
+	// overlayCmd() - Commit or discard a drive's overlay, for
+	// "o rl<n> overlay commit|discard" and the same for rm<n>.
+	//
+
+	private void overlayCmd(String device, String value) {
+		int unit = Character.digit(device.charAt(2), 10);
+		Vector<UnibusDevice> devices = unibus.deviceList();
+		try {
+			for (int i = 0; i < devices.size(); ++i) {
+				UnibusDevice d = devices.elementAt(i);
+				if (device.startsWith("rl") && (d instanceof RLDiskDevice)) {
+					if (value.equals("commit")) {
+						((RLDiskDevice) d).commit(unit);
+					} else {
+						((RLDiskDevice) d).discard(unit);
+					}
+					return;
+				}
+				if (device.startsWith("rm") && (d instanceof RMDiskDevice)) {
+					if (value.equals("commit")) {
+						((RMDiskDevice) d).commit(unit);
+					} else {
+						((RMDiskDevice) d).discard(unit);
+					}
+					return;
+				}
+			}
+			output.println("** no " + device + " **");
+		} catch (IOException e) {
+			output.println(device + ": " + e.getMessage());
+		}
+	}
+
+	//
+	// cacheCmd() - Put a drive behind the shared block cache or take it
+	// out, "o rl<n> cache through|back|reset|off" and the same for rm<n>.
+	//
+
+	private void cacheCmd(String device, String value) {
+		int unit = Character.digit(device.charAt(2), 10);
+		int policy;
+		if (value.equals("through")) {
+			policy = BlockCache.WRITE_THROUGH;
+		} else if (value.equals("back")) {
+			policy = BlockCache.WRITE_BACK;
+		} else if (value.equals("reset")) {
+			policy = BlockCache.SYNC_ON_RESET;
+		} else if (value.equals("off")) {
+			policy = BlockCache.NONE;
+		} else {
+			grok();
+			return;
+		}
+		Vector<UnibusDevice> devices = unibus.deviceList();
+		try {
+			for (int i = 0; i < devices.size(); ++i) {
+				UnibusDevice d = devices.elementAt(i);
+				if (device.startsWith("rl") && (d instanceof RLDiskDevice)) {
+					((RLDiskDevice) d).cache(unit, policy);
+					return;
+				}
+				if (device.startsWith("rm") && (d instanceof RMDiskDevice)) {
+					((RMDiskDevice) d).cache(unit, policy);
+					return;
+				}
+			}
+			output.println("** no " + device + " **");
+		} catch (IOException e) {
+			output.println(device + ": " + e.getMessage());
+		}
+	}
+
+	//
+	// timingCmd() - Choose how long a controller's disk commands take,
+	// "o rl timing fixed|fast|realistic" and the same for rm.
+	//
+
+	private void timingCmd(String device, String value) {
+		int mode;
+		if (value.equals("fixed")) {
+			mode = DiskTiming.FIXED;
+		} else if (value.equals("fast")) {
+			mode = DiskTiming.FAST;
+		} else if (value.equals("realistic")) {
+			mode = DiskTiming.REALISTIC;
+		} else {
+			grok();
+			return;
+		}
+		Vector<UnibusDevice> devices = unibus.deviceList();
+		for (int i = 0; i < devices.size(); ++i) {
+			UnibusDevice d = devices.elementAt(i);
+			if (device.equals("rl") && (d instanceof RLDiskDevice)) {
+				((RLDiskDevice) d).setTiming(mode);
+				return;
+			}
+			if (device.equals("rm") && (d instanceof RMDiskDevice)) {
+				((RMDiskDevice) d).setTiming(mode);
+				return;
+			}
+		}
+		output.println("** no " + device + " **");
+	}
+
+	//
+	// freezeCmd() - Save a snapshot of the stopped machine, "f <file>".
+	//
+
+	private void freezeCmd() {
+		String path = nextToken();
+		if (path == null) {
+			grok();
+			return;
+		}
+		try {
+			Snapshot.save(machine, path);
+			return;
+		} catch (IOException e) {
+			output.println(path + ": " + e.getMessage());
+		}
+		output.println("** freeze failed **");
+	}
+
+	//
+	// thawCmd() - Restore a snapshot into the stopped machine, "t <file>".
+	// Continue it with go and no address.
+	//
+
+	private void thawCmd() {
+		String path = nextToken();
+		if (path == null) {
+			grok();
+			return;
+		}
+		try {
+			Snapshot.restore(machine, path);
+			return;
+		} catch (IOException e) {
+			output.println(path + ": " + e.getMessage());
+		}
+		output.println("** thaw failed **");
 	}
 
 	//
@@ -399,15 +640,17 @@ public class CommandLine extends Thread {
 		output.println("b [addr]                       boot");
 		output.println("c                              processor dump");
 		output.println("d [addr] [addr]                memory dump");
+		output.println("f <filename>                   freeze (save snapshot)");
 		output.println("g [addr]                       go");
 		output.println("h                              halt");
 	//	output.println("l <filename>                   load config");
 	//	output.println("m [addr]                       memory modify");
 	//	output.println("n <device> [options]           new device");
-	//	output.println("o <device> <options>           change device options");
+		output.println("o <device> <option> <value>    change device option");
 		output.println("q                              quit");
 	//	output.println("r                              register modify");
 		output.println("s                              step");
+		output.println("t <filename>                   thaw (restore snapshot)");
 	//	output.println("w <filename>                   write config");
 		output.println("x                              unibus reset");
 		output.println("z                              status");
@@ -423,9 +666,9 @@ public class CommandLine extends Thread {
 
 		// get private references to important stuff
 
-		cpu = CPUDevice.instance();
-		mmu = KTDevice.instance();
-		unibus = Unibus.instance();
+		cpu = machine.cpu;
+		mmu = machine.mmu;
+		unibus = machine.unibus;
 		input = new BufferedReader(new InputStreamReader(System.in));
 		output = System.out;
 
@@ -463,18 +706,27 @@ public class CommandLine extends Thread {
 			case 'd':
 				memoryDumpCmd();
 				break;
+			case 'f':
+				freezeCmd();
+				break;
 			case 'g':
 				goCmd();
 				break;
 			case 'h':
 				haltCmd();
 				break;
+			case 'o':
+				optionCmd();
+				break;
 			case 'q':
 				done = true;
 				break;
 			case 's':
 				stepCmd();
 				break;
+			case 't':
+				thawCmd();
+				break;
 			case 'x':
 				unibusResetCmd();
 				break;
@@ -0,0 +1,117 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// CowDiskImage.java - Copy-on-write layer over another disk image.
+//
+// Blocks written are kept in memory, everything else is read from the
+// image underneath, which is never written and must not change while
+// this layer is in use.  Any number of layers can share one image.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.util.*;
+
+public class CowDiskImage implements DiskImage {
+
+	private DiskImage base;			// shared, read only from here
+	private int blockSize;			// bytes per copied block
+	private Hashtable<Long, byte[]> blocks;	// block number to its private copy
+
+	public CowDiskImage(DiskImage base, int blockSize) {
+		this.base = base;
+		this.blockSize = blockSize;
+		blocks = new Hashtable<Long, byte[]>();
+	}
+
+	public long length() throws IOException {
+		return base.length();
+	}
+
+	public synchronized void read(long offset, byte[] data, int start,
+	int count) throws IOException {
+		while (count > 0) {
+			long block = offset / blockSize;
+			int within = (int) (offset % blockSize);
+			int n = Math.min(count, blockSize - within);
+			byte[] copy = blocks.get(Long.valueOf(block));
+			if (copy != null) {
+				System.arraycopy(copy, within, data, start, n);
+			} else {
+				base.read(offset, data, start, n);
+			}
+			offset += n;
+			start += n;
+			count -= n;
+		}
+	}
+
+	public synchronized void write(long offset, byte[] data, int start,
+	int count) throws IOException {
+		if ((offset + count) > base.length()) {
+			throw new EOFException();
+		}
+		while (count > 0) {
+			long block = offset / blockSize;
+			int within = (int) (offset % blockSize);
+			int n = Math.min(count, blockSize - within);
+			Long key = Long.valueOf(block);
+			byte[] copy = blocks.get(key);
+			if (copy == null) {
+				copy = new byte[blockSize];
+				if (n < blockSize) {
+					base.read(block * blockSize, copy, 0, blockSize);
+				}
+				blocks.put(key, copy);
+			}
+			System.arraycopy(data, start, copy, within, n);
+			offset += n;
+			start += n;
+			count -= n;
+		}
+	}
+
+	//
+	// copied() - Number of blocks this layer holds its own copy of.
+	//
+
+	public synchronized int copied() {
+		return blocks.size();
+	}
+
+	//
+	// force() - Nothing to do, the copies only live in memory.
+	//
+
+	public void force() {
+	}
+
+	//
+	// close() - Drop the copies.  The shared image is left open.
+	//
+
+	public synchronized void close() {
+		blocks.clear();
+	}
+}
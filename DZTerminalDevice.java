@@ -55,13 +55,13 @@ public class DZTerminalDevice implements UnibusDevice {
 	private int tdr;
 	private Vector silo;
 
-	public DZTerminalDevice() {
-		this(DZ_BASE, DZ_SIZE, "");
+	public DZTerminalDevice(Machine machine) {
+		this(machine, DZ_BASE, DZ_SIZE, "");
 	}
 
-	public DZTerminalDevice(int base, int size, String options) {
+	public DZTerminalDevice(Machine machine, int base, int size, String options) {
 		this.options = options;
-		u = Unibus.instance();
+		u = machine.unibus;
 		info = new UnibusDeviceInfo(this, base, size, "DZ11", false);
 		u.registerDevice(info);
 		lpr = new int[DZ_LINES];
@@ -78,7 +78,7 @@ public class DZTerminalDevice implements UnibusDevice {
 			data = 0;
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 		return (short) data;
 	}
@@ -87,7 +87,7 @@ public class DZTerminalDevice implements UnibusDevice {
 		int temp = ((int) data) & 0177777;
 		switch (addr - info.base) {
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
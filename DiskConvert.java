@@ -0,0 +1,108 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// DiskConvert.java - Convert disk images between plain and sparse form.
+//
+//   DiskConvert [-z] [-c bytes] <from> <to>
+//
+// A plain image becomes a sparse container, leaving out clusters that
+// are all zeros and with -z compressing the rest.  -c sets the cluster
+// size, default 4096.  A sparse container becomes a plain image again,
+// or with -z or -c a freshly packed container.
+//
+
+package PDPCafe;
+
+import java.io.*;
+
+public class DiskConvert {
+
+  public static void main(String args[]) {
+    boolean compress = false;
+    int clusterSize = 0;
+    int arg = 0;
+    try {
+      while ((arg < args.length) && args[arg].startsWith("-")) {
+        if (args[arg].equals("-z")) {
+          compress = true;
+        } else if (args[arg].equals("-c") && ((arg + 1) < args.length)) {
+          clusterSize = Integer.parseInt(args[++arg]);
+        } else {
+          throw new IllegalArgumentException(args[arg]);
+        }
+        ++arg;
+      }
+      if ((args.length - arg) != 2)
+        throw new IllegalArgumentException();
+    } catch (IllegalArgumentException e) {
+      System.out.println("usage: DiskConvert [-z] [-c bytes] <from> <to>");
+      System.exit(1);
+    }
+    String from = args[arg];
+    String to = args[arg + 1];
+    try {
+      DiskImage in = SparseDiskImage.open(from, true);
+      boolean toSparse = !(in instanceof SparseDiskImage) || compress ||
+        (clusterSize != 0);
+      if (clusterSize == 0)
+        clusterSize = SparseDiskImage.CLUSTER;
+      long length = in.length();
+      byte[] b = new byte[clusterSize];
+      if (toSparse) {
+        SparseDiskImage.create(to, length, clusterSize, compress);
+        SparseDiskImage out = new SparseDiskImage(to, false);
+        for (long at = 0; at < length; at += clusterSize) {
+          int n = (int) Math.min(clusterSize, length - at);
+          in.read(at, b, 0, n);
+          if (!zero(b, n))
+            out.write(at, b, 0, n);
+        }
+        System.out.println(to + ": " + out.allocated() + " of " +
+          ((length + clusterSize - 1) / clusterSize) + " clusters stored, " +
+          new File(to).length() + " bytes");
+        out.close();
+      } else {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(to));
+        for (long at = 0; at < length; at += clusterSize) {
+          int n = (int) Math.min(clusterSize, length - at);
+          in.read(at, b, 0, n);
+          out.write(b, 0, n);
+        }
+        out.close();
+        System.out.println(to + ": " + length + " bytes");
+      }
+      in.close();
+    } catch (IOException e) {
+      System.out.println(from + " -> " + to + ": " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private static boolean zero(byte[] b, int n) {
+    for (int i = 0; i < n; ++i) {
+      if (b[i] != 0)
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,161 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// DiskTiming.java - How long a disk drive takes over a command.
+//
+// Delays are in instructions, which the machine's virtual time takes as
+// a microsecond each (see KWDevice).  There are three models:
+//
+//   FIXED       every command takes FIXED_DELAY, as it always has
+//   FAST        every command takes FAST_DELAY, the least that lets the
+//               driver get out of the way of its own interrupt
+//   REALISTIC   seek time from the distance moved, rotational latency
+//               from where the platter is on the Unibus clock, and the
+//               transfer at the drive's data rate
+//
+// A realistic run is as repeatable as any other, the platter turns with
+// the instruction count rather than the host clock.  Each drive keeps
+// the last delay it chose, broken down, and the average.
+//
+
+package PDPCafe;
+
+public class DiskTiming {
+
+	public static final int FIXED = 0;
+	public static final int FAST = 1;
+	public static final int REALISTIC = 2;
+
+	public static final int FIXED_DELAY = 100;		// in instructions
+	public static final int FAST_DELAY = 10;
+
+	private int mode = FIXED;
+	private int cylinders;
+	private int sectors;				// per track
+	private int revolution;				// microseconds per turn
+	private int trackSeek;				// microseconds to the next cylinder
+	private int fullSeek;				// and all the way across
+	private int wordNanos;				// nanoseconds per word moved
+
+	private int lastSeek;				// what the last command took
+	private int lastRotate;
+	private int lastTransfer;
+	private int lastDelay;
+	private long commands;
+	private long total;
+
+	public DiskTiming(int cylinders, int sectors, int rpm, int trackSeek,
+	int fullSeek, int wordNanos) {
+		this.cylinders = cylinders;
+		this.sectors = sectors;
+		this.revolution = 60000000 / rpm;
+		this.trackSeek = trackSeek;
+		this.fullSeek = fullSeek;
+		this.wordNanos = wordNanos;
+	}
+
+	public void setMode(int mode) {
+		this.mode = mode;
+	}
+
+	public int mode() {
+		return mode;
+	}
+
+	//
+	// seek() - Delay for moving the heads from cylinder from to to at
+	// clock.  Staying put takes until the next sector header goes by.
+	//
+
+	public int seek(long clock, int from, int to) {
+		if (mode != REALISTIC) {
+			return chosen(0, 0, 0);
+		}
+		if (from == to) {
+			return chosen(0, revolution / sectors, 0);
+		}
+		return chosen(seekTime(from, to), 0, 0);
+	}
+
+	//
+	// transfer() - Delay for moving the heads from cylinder from to to,
+	// waiting for sector to come round and moving words of data, all
+	// starting at clock.
+	//
+
+	public int transfer(long clock, int from, int to, int sector,
+	int words) {
+		if (mode != REALISTIC) {
+			return chosen(0, 0, 0);
+		}
+		int seek = seekTime(from, to);
+		int at = (int) ((clock * KWDevice.NANOS_PER_INSTRUCTION / 1000 + seek)
+			% revolution);
+		int rotate = ((sector % sectors) * revolution / sectors - at +
+			revolution) % revolution;
+		return chosen(seek, rotate, (int) ((long) words * wordNanos / 1000));
+	}
+
+	private int seekTime(int from, int to) {
+		int distance = Math.abs(to - from);
+		if (distance == 0) {
+			return 0;
+		}
+		return trackSeek + (int) ((long) (fullSeek - trackSeek) *
+			(distance - 1) / Math.max(cylinders - 1, 1));
+	}
+
+	private int chosen(int seek, int rotate, int transfer) {
+		lastSeek = seek;
+		lastRotate = rotate;
+		lastTransfer = transfer;
+		switch (mode) {
+		case FAST:
+			lastDelay = FAST_DELAY;
+			break;
+		case REALISTIC:
+			lastDelay = (int) ((long) (seek + rotate + transfer) * 1000 /
+				KWDevice.NANOS_PER_INSTRUCTION);
+			break;
+		default:
+			lastDelay = FIXED_DELAY;
+			break;
+		}
+		++commands;
+		total += lastDelay;
+		return lastDelay;
+	}
+
+	//
+	// report() - The model, the last delay and its parts, the average.
+	//
+
+	public String report() {
+		String name = (mode == FAST) ? "fast" :
+			((mode == REALISTIC) ? "realistic" : "fixed");
+		return name + ", " + commands + " commands, last " + lastDelay +
+			" (seek " + lastSeek + ", rotate " + lastRotate + ", transfer " +
+			lastTransfer + "), average " +
+			((commands == 0) ? 0 : (total / commands));
+	}
+}
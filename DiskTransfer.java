@@ -0,0 +1,171 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// DiskTransfer.java - One disk image read or write done on a host I/O
+// thread.
+//
+// A controller starts the transfer when the guest gives the command and
+// collects it in the event that completes the command, so the guest
+// keeps running while the host waits on its storage.  The completion
+// still comes the same number of instructions later, however long the
+// host took, so runs stay repeatable.  Guest memory is only touched by
+// the controller on the processor's thread, writes are copied out of it
+// before they start and reads copied in once they finish.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+
+public class DiskTransfer implements Callable<Object> {
+
+	private static final int PAGE = 4096;		// host page, for faulting in
+
+	private static ExecutorService pool;		// shared by every machine
+
+	private DiskImage image;
+	private long offset;
+	private ByteBuffer data;
+	private boolean write;
+	private Future<Object> future;
+	private IOException error;
+
+	private DiskTransfer(DiskImage image, long offset, ByteBuffer data,
+	boolean write) {
+		this.image = image;
+		this.offset = offset;
+		this.data = data;
+		this.write = write;
+		future = pool().submit(this);
+	}
+
+	private static synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "DiskTransfer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	//
+	// read() - Start reading count bytes at offset.  A mapped image is
+	// read in place, its pages are just faulted in here, and the data
+	// may come up short at the end of the image.
+	//
+
+	public static DiskTransfer read(DiskImage image, long offset, int count) {
+		ByteBuffer b;
+		if (image instanceof MappedDiskImage) {
+			b = ((MappedDiskImage) image).buffer(offset, count);
+		} else {
+			b = ByteBuffer.allocate(count).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return new DiskTransfer(image, offset, b, false);
+	}
+
+	//
+	// write() - Start writing the bytes of data, already taken from
+	// guest memory, at offset.
+	//
+
+	public static DiskTransfer write(DiskImage image, long offset,
+	byte[] data) {
+		return new DiskTransfer(image, offset, ByteBuffer.wrap(data).order(
+			ByteOrder.LITTLE_ENDIAN), true);
+	}
+
+	public Object call() throws IOException {
+		if (write) {
+			image.write(offset, data.array(), 0, data.capacity());
+		} else if (data.hasArray()) {
+			image.read(offset, data.array(), 0, data.capacity());
+		} else {
+			for (int i = 0; i < data.limit(); i += PAGE) {
+				data.get(i);
+			}
+		}
+		return null;
+	}
+
+	//
+	// done() - Tell whether finish() can return without waiting.
+	//
+
+	public boolean done() {
+		return (future == null) || future.isDone();
+	}
+
+	public boolean isWrite() {
+		return write;
+	}
+
+	public long offset() {
+		return offset;
+	}
+
+	public int length() {
+		return data.capacity();
+	}
+
+	//
+	// finish() - Wait for the host I/O and return the data, positioned
+	// at its start.  A failure is thrown here, and again on every later
+	// call.
+	//
+
+	public ByteBuffer finish() throws IOException {
+		if (future != null) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						error = (IOException) e.getCause();
+					} else {
+						error = new IOException(e.getCause().toString());
+					}
+					break;
+				}
+			}
+			future = null;
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return data;
+	}
+}
@@ -0,0 +1,80 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// FileDiskImage.java - Disk image kept in a plain host file.
+//
+// Reads and writes give their own file position, so several
+// copy-on-write images can read one shared file from different threads.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class FileDiskImage implements DiskImage {
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	public FileDiskImage(String path) throws IOException {
+		this(path, false);
+	}
+
+	public FileDiskImage(String path, boolean readOnly) throws IOException {
+		file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+		channel = file.getChannel();
+	}
+
+	public long length() throws IOException {
+		return channel.size();
+	}
+
+	public void read(long offset, byte[] data, int start, int count)
+	throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(data, start, count);
+		while (b.hasRemaining()) {
+			int n = channel.read(b, offset + (b.position() - start));
+			if (n < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	public void write(long offset, byte[] data, int start, int count)
+	throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(data, start, count);
+		while (b.hasRemaining()) {
+			channel.write(b, offset + (b.position() - start));
+		}
+	}
+
+	public void force() throws IOException {
+		channel.force(true);
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+}
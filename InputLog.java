@@ -0,0 +1,240 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// InputLog.java - Record and replay input from outside the machine.
+//
+// Everything the machine takes from outside, line clock ticks off the
+// host clock and console characters off the wire, comes through
+// Unibus.input() and is taken at an instruction boundary.  Recording
+// logs each one with the instruction count it was taken at, replaying
+// feeds them back at the same counts and ignores live input, so a run
+// repeats instruction for instruction, without waiting on the host
+// clock.  Replay must start from the machine state recording started
+// from, the same boot or snapshot.
+//
+// The log is a header, then one entry per input: the clock as a delta
+// from the entry before, the device as its index in the Unibus device
+// list plus one, and the data, each as a variable length number of
+// seven bits a byte.  A device of zero marks the end of the recording.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.util.*;
+
+public class InputLog {
+
+	private static final long MAGIC = 0x5044504361666552L;	// "PDPCafeR"
+	private static final int VERSION = 1;
+	private static final int BUFFER = 65536;
+
+	private Machine machine;
+	private Vector<UnibusDevice> devices;	// as listed on the Unibus
+	private boolean replaying;
+	private DataOutputStream out;	// recording
+	private DataInputStream in;		// replaying
+	private IOException error;		// first failure, reported by close()
+	private long last;				// clock of the entry before
+	private long next;				// replay, clock of the next entry
+	private UnibusDevice nextDevice;	// its device, null at the end
+	private int nextData;			// and its data
+	private long late;				// replayed inputs found overdue
+
+	private InputLog(Machine machine) {
+		this.machine = machine;
+		devices = machine.unibus.deviceList();
+		last = machine.unibus.clock;
+		next = Long.MAX_VALUE;
+	}
+
+	//
+	// record() - Start logging the machine's input to a file.  The
+	// processor must be stopped.
+	//
+
+	public static InputLog record(Machine machine, String path)
+	throws IOException {
+		if (machine.cpu.isExecuting()) {
+			throw new IOException("processor is running");
+		}
+		InputLog log = new InputLog(machine);
+		log.out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(path), BUFFER));
+		log.out.writeLong(MAGIC);
+		log.out.writeInt(VERSION);
+		log.out.writeLong(log.last);
+		machine.unibus.setInputLog(log);
+		return log;
+	}
+
+	//
+	// replay() - Start feeding the machine input from a recording.  The
+	// processor must be stopped, in the state recording started from.
+	// It's asked to stop when the recording ends.
+	//
+
+	public static InputLog replay(Machine machine, String path)
+	throws IOException {
+		if (machine.cpu.isExecuting()) {
+			throw new IOException("processor is running");
+		}
+		InputLog log = new InputLog(machine);
+		log.in = new DataInputStream(new BufferedInputStream(
+			new FileInputStream(path), BUFFER));
+		try {
+			if ((log.in.readLong() != MAGIC) || (log.in.readInt() != VERSION)) {
+				throw new IOException("not an input log");
+			}
+			if (log.in.readLong() != log.last) {
+				throw new IOException("input log starts at a different clock");
+			}
+		} catch (IOException e) {
+			log.in.close();
+			throw e;
+		}
+		log.replaying = true;
+		log.readNext();
+		machine.unibus.setInputLog(log);
+		return log;
+	}
+
+	public final boolean replaying() {
+		return replaying;
+	}
+
+	final long next() {
+		return next;
+	}
+
+	//
+	// log() - Record an input taken at clock.  Called by the Unibus.
+	//
+
+	void log(long clock, UnibusDevice device, int data) {
+		if (error != null) {
+			return;
+		}
+		try {
+			writeNumber(clock - last);
+			writeNumber(devices.indexOf(device) + 1);
+			writeNumber(data & 0xffffffffL);
+			last = clock;
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	//
+	// play() - Pass on every recorded input due by clock.  Called by the
+	// Unibus.  One found overdue means the run has strayed from the
+	// recording, it's counted and passed on anyway.
+	//
+
+	void play(long clock) {
+		while (next <= clock) {
+			if (next < clock) {
+				++late;
+			}
+			if (nextDevice == null) {
+				next = Long.MAX_VALUE;
+				machine.cpu.requestStop();		// end of the recording
+				break;
+			}
+			nextDevice.eventService(nextData);
+			readNext();
+		}
+	}
+
+	private void readNext() {
+		try {
+			long clock = last + readNumber();
+			int index = (int) readNumber();
+			if (index > devices.size()) {
+				throw new IOException("bad device in input log");
+			}
+			nextDevice = null;
+			if (index > 0) {
+				nextDevice = devices.elementAt(index - 1);
+				nextData = (int) readNumber();
+			}
+			next = clock;
+			last = clock;
+		} catch (IOException e) {
+			error = e;						// treat it as the end
+			nextDevice = null;
+			next = last;
+		}
+	}
+
+	//
+	// close() - Stop recording or replaying.  A recording is ended at the
+	// current clock.  Reports the first error met, or a replay that
+	// strayed.
+	//
+
+	public void close() throws IOException {
+		machine.unibus.setInputLog(null);
+		if (out != null) {
+			if (error == null) {
+				try {
+					writeNumber(machine.unibus.clock - last);
+					writeNumber(0);
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			out.close();
+		}
+		if (in != null) {
+			in.close();
+		}
+		if (error != null) {
+			throw error;
+		}
+		if (late > 0) {
+			throw new IOException("replay strayed, " + late +
+				" inputs overdue");
+		}
+	}
+
+	private void writeNumber(long n) throws IOException {
+		while ((n & ~0177L) != 0) {
+			out.writeByte((int) (n & 0177) | 0200);
+			n >>>= 7;
+		}
+		out.writeByte((int) n);
+	}
+
+	private long readNumber() throws IOException {
+		long n = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			n |= ((long) (b & 0177)) << shift;
+			shift += 7;
+		} while ((b & 0200) != 0);
+		return n;
+	}
+}
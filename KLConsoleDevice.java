@@ -29,7 +29,8 @@ package PDPCafe;
 import java.net.*;
 import java.io.*;
 
-public class KLConsoleDevice extends Thread implements UnibusDevice {
+public class KLConsoleDevice extends Thread
+implements UnibusDevice, SnapshotDevice {
 
 	private static final int DEFAULT_BASE = 0777560;
 	private static final int DEFAULT_SIZE = 4;
@@ -40,6 +41,10 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 	private static final int IE = 0100;		// interrupt enable bit
 	private static final int DELAY = 100;	// delay until ready after send
 	private static final int BRLEVEL = 4;	// br (interrupt) level
+	private static final int TYPE_DELAY = 1000;	// between typed characters
+	private static final int TRANSMIT = 0;	// event data, transmit done
+	private static final int TYPE = 1;		// event data, next typed char
+	private static final int RECEIVE = 2;	// input data, char in bits 8-15
 
 	private UnibusDeviceInfo info;
 	private Unibus u;
@@ -50,20 +55,23 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 	private int tdr;
 	private int port;
 	private Socket socket;
+	private OutputStream output;	// copy of everything transmitted
+	private StringBuffer typeahead;	// from type(), not yet received
 	private int rvector;
 	private int tvector;
 
-	public KLConsoleDevice() {
-		this(DEFAULT_BASE, DEFAULT_SIZE, "");
+	public KLConsoleDevice(Machine machine) {
+		this(machine, DEFAULT_BASE, DEFAULT_SIZE, "");
 	}
 
-	public KLConsoleDevice(int base, int size, String options) {
+	public KLConsoleDevice(Machine machine, int base, int size, String options) {
 		this.options = options;
 		rsr = 0;
 		rdr = 0177;
 		tsr = READY;
 		tdr = 0;
-		u = Unibus.instance();
+		typeahead = new StringBuffer();
+		u = machine.unibus;
 		if (options == "1") {
 			port = DEFAULT_TELNET_PORT + 1;
 			rvector = 0300;
@@ -76,7 +84,34 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 			info = new UnibusDeviceInfo(this, base, size, "KL11", false);
 		}
 		u.registerDevice(info);
-		this.start();
+		if (!options.equals("headless")) {		// no telnet port if headless
+			this.start();
+		}
+	}
+
+	//
+	// setOutput() - Also send transmitted characters to this stream.
+	//
+
+	public void setOutput(OutputStream output) {
+		this.output = output;
+	}
+
+	//
+	// type() - Queue characters as if typed at the console.  They're
+	// received one at a time, each once the one before has been read,
+	// paced by the instruction count so a run is repeatable.
+	//
+
+	public void type(String text) {
+		boolean idle;
+		synchronized(this) {
+			idle = (typeahead.length() == 0);
+			typeahead.append(text);
+		}
+		if (idle) {
+			u.scheduleEvent(this, TYPE_DELAY, TYPE);	// not under our lock
+		}
 	}
 
 	public void reset() {
@@ -88,6 +123,35 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 			u.cancelInterrupt(this, BRLEVEL, tvector);
 			u.cancelInterrupt(this, BRLEVEL, rvector);
 			u.cancelEvents(this);
+			if (typeahead.length() > 0) {
+				u.scheduleEvent(this, TYPE_DELAY, TYPE);
+			}
+		}
+	}
+
+	//
+	// saveState() - The four registers.  A character still waiting in
+	// the telnet connection isn't part of the snapshot.
+	//
+
+	public void saveState(DataOutputStream out) throws IOException {
+		synchronized(this) {
+			out.writeInt(rsr);
+			out.writeInt(rdr);
+			out.writeInt(tsr);
+			out.writeInt(tdr);
+		}
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		synchronized(this) {
+			rsr = in.readInt();
+			rdr = in.readInt();
+			tsr = in.readInt();
+			tdr = in.readInt();
+			if (isAlive()) {
+				this.interrupt();		// wake up the receiver
+			}
 		}
 	}
 
@@ -111,7 +175,7 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 			data = tdr;
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 		return (short) data;
 	}
@@ -143,15 +207,18 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 					if (socket != null) {
 						socket.getOutputStream().write(data & 0177);
 					}
+					if (output != null) {
+						output.write(data & 0177);
+					}
 				} catch (Exception e) {
 					// ignore any exceptions
 				}
 				tsr &= ~READY;
-				u.scheduleEvent(this, DELAY, 0);
+				u.scheduleEvent(this, DELAY, TRANSMIT);
 			}
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
@@ -163,6 +230,37 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 	}
 
 	public void eventService(int data) {
+		if ((data & 0377) == RECEIVE) {
+			synchronized(this) {
+				if ((rsr & READY) == 0) {	// dump char if not rdy
+					rsr |= READY;			// set ready
+					rdr = (data >> 8) & 0377;
+					if ((rsr & IE) != 0) {	// make interrupt
+						u.scheduleInterrupt(this, BRLEVEL, rvector);
+					}
+				}
+			}
+			return;
+		}
+		if (data == TYPE) {
+			synchronized(this) {
+				if (typeahead.length() == 0) {
+					return;
+				}
+				if ((rsr & READY) == 0) {
+					rsr |= READY;
+					rdr = typeahead.charAt(0) & 0377;
+					typeahead.deleteCharAt(0);
+					if ((rsr & IE) != 0) {
+						u.scheduleInterrupt(this, BRLEVEL, rvector);
+					}
+				}
+				if (typeahead.length() > 0) {
+					u.scheduleEvent(this, TYPE_DELAY, TYPE);
+				}
+			}
+			return;
+		}
 		tsr |= READY;
 		if ((tsr & IE) != 0) {
 			u.scheduleInterrupt(this, BRLEVEL, tvector);
@@ -182,15 +280,8 @@ public class KLConsoleDevice extends Thread implements UnibusDevice {
 					while (true) {
 						int r = socket.getInputStream().read();
 						if (r == -1) break;				// socket closed
-						synchronized(this) {
-							if ((rsr & READY) == 0) {	// dump char if not rdy
-								rsr |= READY;			// set ready
-								rdr = r & 0377;			// mask to 8 bits
-								if ((rsr & IE) != 0) {	// make interrupt
-									u.scheduleInterrupt(this, BRLEVEL, rvector);
-								}
-							}
-						}
+						// received on the cpu thread, see eventService()
+						u.input(this, RECEIVE | ((r & 0377) << 8));
 						// sleep for a second or until data register is read
 						// keeps us fom overunning the recevier data
 						try {
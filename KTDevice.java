@@ -26,7 +26,9 @@
 
 package PDPCafe;
 
-class KTDevice implements UnibusDevice {
+import java.io.*;
+
+class KTDevice implements UnibusDevice, SnapshotDevice {
 
 	private static final int KT_MMR = 0777572;
 	private static final int KT_MMR_SIZE = 3;
@@ -42,27 +44,38 @@ class KTDevice implements UnibusDevice {
 	private static final int KT_UISA = 0777640;
 	private static final int KT_UISA_SIZE = 8;
 
-	private static KTDevice theInstance = null;
+	private static final int TLB_SIZE = 16;		// kernel pages, then user
+	private static final int TLB_READ = 1;		// entry is valid
+	private static final int TLB_WRITE = 2;		// writable, w-bit already set
 
 	public int mmr0;
 	public int mmr2;
+	public int generation;		// bumped on any change to the mapping
 	private int[] kisd;
 	private int[] kisa;
 	private int[] uisd;
 	private int[] uisa;
+	private int[] tlbBase;		// physical address of each page
+	private int[] tlbLow;		// first block in range
+	private int[] tlbHigh;		// last block in range
+	private int[] tlbRights;	// TLB_READ and TLB_WRITE, 0 if empty
 
 	private Unibus unibus;
 	private CPUDevice cpu;
 
-	private KTDevice() {
+	public KTDevice(Machine machine) {
 		mmr0 = 0;
 		mmr2 = 0;
 		kisd = new int[KT_KISD_SIZE];
 		kisa = new int[KT_KISA_SIZE];
 		uisd = new int[KT_UISD_SIZE];
 		uisa = new int[KT_UISA_SIZE];
+		tlbBase = new int[TLB_SIZE];
+		tlbLow = new int[TLB_SIZE];
+		tlbHigh = new int[TLB_SIZE];
+		tlbRights = new int[TLB_SIZE];
 		UnibusDeviceInfo info;
-		unibus = Unibus.instance();
+		unibus = machine.unibus;
 		info = new UnibusDeviceInfo(this, KT_MMR, KT_MMR_SIZE, "MMR", true);
 		unibus.registerDevice(info);
 		info = new UnibusDeviceInfo(this, KT_KISD, KT_KISD_SIZE, "KISD", true);
@@ -73,14 +86,7 @@ class KTDevice implements UnibusDevice {
 		unibus.registerDevice(info);
 		info = new UnibusDeviceInfo(this, KT_UISA, KT_UISA_SIZE, "UISA", true);
 		unibus.registerDevice(info);
-		cpu = CPUDevice.instance();
-	}
-
-	public static final synchronized KTDevice instance() {
-		if (theInstance == null) {
-			theInstance = new KTDevice();
-		}
-		return theInstance;
+		cpu = machine.cpu;
 	}
 
 	public void mmr2update(short addr) {
@@ -91,6 +97,42 @@ class KTDevice implements UnibusDevice {
 
 	public void reset() {
 		mmr0 = 0;
+		++generation;
+		flush();
+	}
+
+	//
+	// flush() - Empty the translation cache.
+	//
+
+	private final void flush() {
+		for (int i = 0; i < TLB_SIZE; ++i) {
+			tlbRights[i] = 0;
+		}
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(mmr0);
+		out.writeInt(mmr2);
+		for (int i = 0; i < 8; ++i) {
+			out.writeInt(kisd[i]);
+			out.writeInt(kisa[i]);
+			out.writeInt(uisd[i]);
+			out.writeInt(uisa[i]);
+		}
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		mmr0 = in.readInt();
+		mmr2 = in.readInt();
+		for (int i = 0; i < 8; ++i) {
+			kisd[i] = in.readInt();
+			kisa[i] = in.readInt();
+			uisd[i] = in.readInt();
+			uisa[i] = in.readInt();
+		}
+		++generation;
+		flush();
 	}
 
 	public short read(int addr) throws Trap {
@@ -121,7 +163,7 @@ class KTDevice implements UnibusDevice {
 				data = mmr2;
 				break;
 			default:
-				throw new Trap(Trap.UnibusTimeout);
+				throw Trap.instance(Trap.UnibusTimeout);
 			}
 			break;
 		}
@@ -131,35 +173,41 @@ class KTDevice implements UnibusDevice {
 	public void write(int addr, short shortData) throws Trap {
 		int data = ((int) shortData) & 0177777;
 		int i = (addr & 016) >> 1;
+		++generation;
 		switch (addr & 0777760) {
 		case KT_KISD:
 			kisd[i] &= ~(077516);		// mask r/o, and clear w-bit
 			kisd[i] |= (data & 077416); // writeable bits only
+			tlbRights[i] = 0;
 			break;
 		case KT_KISA:
 			kisa[i] = data & 07777;		// PARs are 12 bit
 			kisd[i] &= ~(0100);			// clear w-bit
+			tlbRights[i] = 0;
 			break;
 		case KT_UISD:
 			uisd[i] &= ~(077516);		// mask r/o, and clear w-bit
 			uisd[i] |= (data & 077416); // writeable bits only
+			tlbRights[8 + i] = 0;
 			break;
 		case KT_UISA:
 			uisa[i] = data & 07777;		// PARs are 12 bit
 			uisd[i] &= ~(0100);			// clear w-bit
+			tlbRights[8 + i] = 0;
 			break;
 		default:
 			switch (addr & 0777777) {
 			case KT_MMR0:
 				mmr0 &= ~(0160157);			// mask r/o bits
 				mmr0 |= (data & 0160157);	// writeable bits only
+				flush();
 				break;
 			case KT_MMR1:
 			case KT_MMR2:
 				// don't accept writes, but no error
 				break;
 			default:
-				throw new Trap(Trap.UnibusTimeout);
+				throw Trap.instance(Trap.UnibusTimeout);
 			}
 			break;
 		}
@@ -191,6 +239,7 @@ class KTDevice implements UnibusDevice {
 		int addr = shortAddr & 0177777;
 		int caddr;
 		int mode;
+		int slot;
 		int pdr[];
 
 		// First, check to see if the mmu is off, if so do
@@ -219,6 +268,17 @@ class KTDevice implements UnibusDevice {
 				mode = (cpu.psw & 030000) >> 12;
 			}
 
+			// Try the translation cache first.  Entries are kept per mode
+			// and page, so a PSW mode change needs no flush.  Supervisor
+			// and illegal modes always take the slow path and trap.
+
+			slot = (mode == 3) ? (8 + index) : index;
+			if (((mode == 0) || (mode == 3)) &&
+			((tlbRights[slot] & (isWrite ? TLB_WRITE : TLB_READ)) != 0) &&
+			(block >= tlbLow[slot]) && (block <= tlbHigh[slot])) {
+				return tlbBase[slot] + (addr & 017777);
+			}
+
 			// check the mode and select the proper
 			// memory management info
 
@@ -241,7 +301,7 @@ class KTDevice implements UnibusDevice {
 					mmr0 |= mode;
 					mmr0 |= index << 1;
 				}
-				throw new Trap(Trap.SegmentationError);
+				throw Trap.instance(Trap.SegmentationError);
 			}
 
 			// check the length, this is the hardest case
@@ -260,7 +320,7 @@ class KTDevice implements UnibusDevice {
 							mmr0 |= 020000;
 						}
 					}
-					throw new Trap(Trap.SegmentationError);
+					throw Trap.instance(Trap.SegmentationError);
 				}
 			} else {									// upward expanding
 				if (block > ((pdr[index] >> 8) & 0177)) {
@@ -276,7 +336,7 @@ class KTDevice implements UnibusDevice {
 							mmr0 |= 020000;
 						}
 					}
-					throw new Trap(Trap.SegmentationError);
+					throw Trap.instance(Trap.SegmentationError);
 				}
 			}
 
@@ -292,7 +352,7 @@ class KTDevice implements UnibusDevice {
 						mmr0 |= 020000;
 					}
 				}
-				throw new Trap(Trap.SegmentationError);
+				throw Trap.instance(Trap.SegmentationError);
 			}
 
 			// if a write, make sure it's ok
@@ -305,22 +365,38 @@ class KTDevice implements UnibusDevice {
 						mmr0 |= mode;
 						mmr0 |= index << 1;
 					}
-					throw new Trap(Trap.SegmentationError);
+					throw Trap.instance(Trap.SegmentationError);
 				}
 				pdr[index] |= 0100;
 			}
 
+			// all checks passed, remember the page
+
+			tlbBase[slot] = caddr;
+			if ((pdr[index] & 010) != 0) {
+				tlbLow[slot] = (pdr[index] >> 8) & 0177;
+				tlbHigh[slot] = 0177;
+			} else {
+				tlbLow[slot] = 0;
+				tlbHigh[slot] = (pdr[index] >> 8) & 0177;
+			}
+			if ((pdr[index] & 0104) == 0104) {
+				tlbRights[slot] = TLB_READ | TLB_WRITE;
+			} else {
+				tlbRights[slot] = TLB_READ;
+			}
+
 			return caddr + (addr & 017777);
 		}
 	}
 
 	public final short logicalRead(short addr) throws Trap {
-		if ((addr & 1) != 0) throw new Trap(Trap.OddAddress);
+		if ((addr & 1) != 0) throw Trap.instance(Trap.OddAddress);
 		return unibus.read(map(addr, false, false, false));
 	}
 
 	public final void logicalWrite(short addr, short data) throws Trap {
-		if ((addr & 1) != 0) throw new Trap(Trap.OddAddress);
+		if ((addr & 1) != 0) throw Trap.instance(Trap.OddAddress);
 		unibus.write(map(addr, true, false, false), data);
 	}
 
@@ -340,17 +416,17 @@ class KTDevice implements UnibusDevice {
 	}
 
 	public final short logicalReadPrevious(short addr) throws Trap {
-		if ((addr & 1) != 0) throw new Trap(Trap.OddAddress);
+		if ((addr & 1) != 0) throw Trap.instance(Trap.OddAddress);
 		return unibus.read(map(addr, false, false, true));
 	}
 
 	public final void logicalWritePrevious(short addr, short data) throws Trap {
-		if ((addr & 1) != 0) throw new Trap(Trap.OddAddress);
+		if ((addr & 1) != 0) throw Trap.instance(Trap.OddAddress);
 		unibus.write(map(addr, true, false, true), data);
 	}
 
 	public final short logicalReadKernel(short addr) throws Trap {
-		if ((addr & 1) != 0) throw new Trap(Trap.OddAddress);
+		if ((addr & 1) != 0) throw Trap.instance(Trap.OddAddress);
 		return unibus.read(map(addr, false, true, false));
 	}
 }
@@ -26,7 +26,9 @@
 
 package PDPCafe;
 
-class KWDevice implements UnibusDevice {
+import java.io.*;
+
+class KWDevice implements UnibusDevice, SnapshotDevice {
 
 	private static final int KW_BASE = 0777546;
 	private static final int KW_SIZE = 1;
@@ -34,32 +36,76 @@ class KWDevice implements UnibusDevice {
 	private static final int KW_HERTZ = 60;
 	private static final int KW_BRLEVEL = 6;
 	private static final int KW_VECTOR = 0100;
+	private static final int KW_TICK = 16667;	// instructions per tick
+
+	// Clock modes.  REAL ticks by the host clock.  VIRTUAL ticks every
+	// KW_TICK instructions, as if the processor ran at a nominal 1 MIPS,
+	// and WAIT lets time pass at that rate.  WARP is VIRTUAL except that
+	// WAIT skips straight to the next tick.
+
+	public static final int REAL = 0;
+	public static final int VIRTUAL = 1;
+	public static final int WARP = 2;
+	public static final long NANOS_PER_INSTRUCTION = 1000;
 
-	private static KWDevice theInstance = null;
 	private int csr;
 	private Unibus unibus;
 	private long startTime;
 	private int interrupts;
+	private int mode;
+	private boolean tickPending;	// virtual tick event scheduled
 
-	private KWDevice() {
+	public KWDevice(Machine machine) {
 		csr = 0;
 		startTime = System.currentTimeMillis();
 		interrupts = 0;
+		mode = REAL;
+		tickPending = false;
 		UnibusDeviceInfo info;
-		unibus = Unibus.instance();
+		unibus = machine.unibus;
 		info = new UnibusDeviceInfo(this, KW_BASE, KW_SIZE, "KW11L", true);
 		unibus.registerDevice(info);
 	}
 
-	public static final synchronized KWDevice instance() {
-		if (theInstance == null) {
-			theInstance = new KWDevice();
+	public void reset() {
+		csr = 0;
+		unibus.cancelEvents(this);
+		tickPending = false;
+	}
+
+	public synchronized void setMode(int mode) {
+		unibus.cancelEvents(this);
+		tickPending = false;
+		this.mode = mode;
+		if (mode == REAL) {
+			startTime = System.currentTimeMillis();
+			interrupts = 0;
+		} else {
+			scheduleTick();
 		}
-		return theInstance;
 	}
 
-	public void reset() {
-		csr = 0;
+	public int getMode() {
+		return mode;
+	}
+
+	//
+	// The pending virtual tick is a Unibus event and is saved there.  A
+	// real time clock starts counting again from the restore.
+	//
+
+	public synchronized void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(csr);
+		out.writeInt(mode);
+		out.writeBoolean(tickPending);
+	}
+
+	public synchronized void restoreState(DataInputStream in) throws IOException {
+		csr = in.readInt();
+		mode = in.readInt();
+		tickPending = in.readBoolean();
+		startTime = System.currentTimeMillis();
+		interrupts = 0;
 	}
 
 	public short read(int addr) throws Trap {
@@ -70,6 +116,22 @@ class KWDevice implements UnibusDevice {
 		int data = ((int) shortData) & 0177777;
 		csr &= ~(KW_IE);				// mask r/o
 		csr |= (data & KW_IE);	// writeable bits only
+		if (mode != REAL) {
+			scheduleTick();
+		}
+	}
+
+	//
+	// scheduleTick() - In the virtual modes, schedule the next tick on
+	// the KW_TICK grid, while interrupts are enabled.
+	//
+
+	private final void scheduleTick() {
+		if (!tickPending && ((csr & KW_IE) != 0)) {
+			long next = ((unibus.clock / KW_TICK) + 1) * KW_TICK;
+			unibus.scheduleEvent(this, (int) (next - unibus.clock - 1), 0);
+			tickPending = true;
+		}
 	}
 
 	public void writebyte(int addr, byte data) throws Trap {
@@ -86,10 +148,13 @@ class KWDevice implements UnibusDevice {
 	}
 
 	public void eventService(int data) {
+		tickPending = false;
 		if ((csr & KW_IE) != 0) {
 			csr &= ~KW_IE;
-			Unibus u = Unibus.instance();
-			u.scheduleInterrupt(this, KW_BRLEVEL, KW_VECTOR);
+			unibus.scheduleInterrupt(this, KW_BRLEVEL, KW_VECTOR);
+		}
+		if (mode != REAL) {
+			scheduleTick();
 		}
 	}
 
@@ -97,11 +162,32 @@ class KWDevice implements UnibusDevice {
 		// do nothing
 	}
 
+	//
+	// nanosToNextTick() - Time until pollClock() will next post a tick.
+	//
+
+	public long nanosToNextTick() {
+		if (mode != REAL)
+			return Long.MAX_VALUE;
+		long next = startTime +
+			((((interrupts + 1) * 1000L) + KW_HERTZ - 1) / KW_HERTZ);
+		long ms = next - System.currentTimeMillis();
+		return (ms > 0) ? (ms * 1000000L) : 0;
+	}
+
+	//
+	// pollClock() - In REAL mode, post a tick once the host clock says
+	// one is due.  The tick is outside input to the machine, so a replay
+	// gets its ticks from the log instead.
+	//
+
 	public void pollClock() {
+		if ((mode != REAL) || unibus.replaying())
+			return;
 		long elapsedTime = System.currentTimeMillis() - startTime;
 		if (interrupts < ((KW_HERTZ * elapsedTime) / 1000)) {
 			++interrupts;
-			unibus.scheduleEvent(this, 0, 0);
+			unibus.input(this, 0);
 		}
 	}
 }
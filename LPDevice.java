@@ -28,7 +28,7 @@ package PDPCafe;
 
 import java.io.*;
 
-public class LPDevice implements UnibusDevice {
+public class LPDevice implements UnibusDevice, SnapshotDevice {
 
 	// Unibus interface definitions:
 
@@ -57,17 +57,17 @@ public class LPDevice implements UnibusDevice {
 
 	// LPDevice()
 
-	public LPDevice() {
-		this(LP_BASE, LP_SIZE, "");
+	public LPDevice(Machine machine) {
+		this(machine, LP_BASE, LP_SIZE, "");
 	}
 
 	// LPDevice()
 
-	public LPDevice(int base, int size, String options) {
+	public LPDevice(Machine machine, int base, int size, String options) {
 		info = new UnibusDeviceInfo(this, base, size, "LP11", false);
 		lpcs = LP_ERR;
 		file = null;
-		unibus = Unibus.instance();
+		unibus = machine.unibus;
 		unibus.registerDevice(info);
 	}
 
@@ -92,6 +92,26 @@ public class LPDevice implements UnibusDevice {
 		}
 	}
 
+	// saveState() - Flushes the output so far along with the registers.
+
+	public void saveState(DataOutputStream out) throws IOException {
+		if (file != null) {
+			file.flush();
+		}
+		out.writeInt(lpcs);
+		out.writeInt(lpdr);
+	}
+
+	// restoreState()
+
+	public void restoreState(DataInputStream in) throws IOException {
+		lpcs = in.readInt();
+		lpdr = in.readInt();
+		if (file == null) {
+			lpcs = (lpcs & LP_IE) | LP_ERR;		// nowhere to print
+		}
+	}
+
 	// read()
 
 	public short read(int addr) throws Trap {
@@ -104,7 +124,7 @@ public class LPDevice implements UnibusDevice {
 			data = 0;	// always reads zeros
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 		return(short) data;
 	}
@@ -145,7 +165,7 @@ public class LPDevice implements UnibusDevice {
 			}
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
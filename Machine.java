@@ -0,0 +1,85 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// Machine.java - One emulated PDP-11, the bus and the devices on it.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.util.*;
+
+public class Machine {
+
+	public Unibus unibus;
+	public KTDevice mmu;
+	public CPUDevice cpu;
+	public KWDevice kw;
+	public String name;
+
+	//
+	// Machine() - Build the bus and the standard devices.  Optional
+	// devices are added by constructing them with this machine.  The
+	// processor thread isn't started until the first startExecution().
+	//
+
+	public Machine() {
+		this("pdp11");
+	}
+
+	public Machine(String name) {
+		this.name = name;
+		unibus = new Unibus(this);
+		kw = new KWDevice(this);
+		cpu = new CPUDevice(this);
+		mmu = new KTDevice(this);
+	}
+
+	//
+	// forkFrom() - Make this machine a copy of a stopped parent.  This
+	// machine must have been given the same devices, in the same order,
+	// but no media.  Memory is copied outright, it's only 248 KB.  Disks
+	// are shared copy-on-write, each child keeping just the sectors it
+	// writes, so the parent must stay stopped and leave its disks alone
+	// for as long as any child runs.
+	//
+
+	public void forkFrom(Machine parent) throws IOException {
+		if (parent.cpu.isExecuting() || cpu.isExecuting()) {
+			throw new IOException("processor is running");
+		}
+		byte[] state = Snapshot.saveState(parent);
+		DataInputStream in = Snapshot.openState(this, state);
+		Vector<UnibusDevice> parents = parent.unibus.deviceList();
+		Vector<UnibusDevice> children = unibus.deviceList();
+		for (int i = 0; i < children.size(); ++i) {
+			UnibusDevice d = children.elementAt(i);
+			if (d instanceof ForkDevice) {
+				((ForkDevice) d).forkFrom(parents.elementAt(i));
+			}
+		}
+		short[] from = parent.unibus.memory();
+		System.arraycopy(from, 0, unibus.memory(), 0, from.length);
+		Snapshot.restoreState(this, in);
+	}
+}
@@ -42,7 +42,22 @@ public class MakeDisks {
   private static final int RL_SIZE_RL02 = (RL_BYTES_CYL * RL_CYL_RL02);
 
   public static void makeDisk(String path, boolean big) throws IOException {
+    makeDisk(path, big, false);
+  }
+
+  //
+  // makeDisk() - A sparse disk is an empty container, nothing written
+  // for its sectors until they hold something.
+  //
+
+  public static void makeDisk(String path, boolean big, boolean sparse)
+    throws IOException {
     int size;
+    if (sparse) {
+      SparseDiskImage.create(path, big ? RL_SIZE_RL02 : RL_SIZE_RL01,
+        SparseDiskImage.CLUSTER, false);
+      return;
+    }
     if (big)
       size = (RL_SIZE_RL02/RL_BYTES_SECTOR);
     else
@@ -0,0 +1,98 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// MappedDiskImage.java - Disk image mapped into memory from a host file.
+//
+// The whole file is mapped once.  Controllers that know about it ask
+// for a window with buffer() and let the Unibus copy between it and
+// memory in bulk, instead of a sector buffer and a word at a time.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class MappedDiskImage implements DiskImage {
+
+	private RandomAccessFile file;
+	private MappedByteBuffer map;
+
+	public MappedDiskImage(String path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		try {
+			map = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+				0, file.length());
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public long length() throws IOException {
+		return map.capacity();
+	}
+
+	//
+	// buffer() - Return a little-endian window of up to count bytes at
+	// offset, cut short at the end of the image.  Each caller gets its
+	// own position and limit, so windows may be used from several
+	// threads at once.
+	//
+
+	public ByteBuffer buffer(long offset, int count) {
+		ByteBuffer b = map.duplicate();
+		int start = (int) Math.min(offset, (long) b.capacity());
+		b.position(start);
+		b.limit((int) Math.min((long) start + count, (long) b.capacity()));
+		return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public void read(long offset, byte[] data, int start, int count)
+	throws IOException {
+		ByteBuffer b = buffer(offset, count);
+		if (b.remaining() < count) {
+			throw new EOFException();
+		}
+		b.get(data, start, count);
+	}
+
+	public void write(long offset, byte[] data, int start, int count)
+	throws IOException {
+		ByteBuffer b = buffer(offset, count);
+		if (b.remaining() < count) {
+			throw new EOFException();
+		}
+		b.put(data, start, count);
+	}
+
+	public void force() throws IOException {
+		map.force();
+	}
+
+	public void close() throws IOException {
+		map.force();
+		file.close();
+	}
+}
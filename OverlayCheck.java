@@ -0,0 +1,135 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// OverlayCheck.java - Check that an overlay commit reaches the base and
+// stays visible through the overlay, on a plain and a compressed sparse
+// base.
+//
+//   OverlayCheck [directory]
+//
+// The images are made in the directory, default the temporary one, and
+// removed again.  Prints ok or what went wrong, and exits non zero on
+// a failure.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.util.*;
+
+public class OverlayCheck {
+
+  private static final int SIZE = 256 * 1024;
+  private static final int BLOCK = 512;
+
+  private static boolean failed = false;
+
+  private static void expect(String what, byte[] got, byte[] want) {
+    if (!Arrays.equals(got, want)) {
+      System.out.println(what + ": FAILED");
+      failed = true;
+    }
+  }
+
+  private static byte[] read(DiskImage image, long offset, int count)
+  throws IOException {
+    byte[] b = new byte[count];
+    image.read(offset, b, 0, count);
+    return b;
+  }
+
+  private static byte[] fill(int count, int value) {
+    byte[] b = new byte[count];
+    Arrays.fill(b, (byte) value);
+    return b;
+  }
+
+  //
+  // check() - Commit two writes through an overlay on base: one to a
+  // block the base never held, one over a block it did, so a sparse
+  // base has to place a new cluster and rewrite an old one.
+  //
+
+  private static void check(String name, File base, File overlay)
+  throws IOException {
+    DiskImage image = SparseDiskImage.open(base.getPath(), false);
+    image.write(0, fill(BLOCK, 0x11), 0, BLOCK);
+    image.force();
+    image.close();
+
+    OverlayDiskImage o = new OverlayDiskImage(base.getPath(),
+      overlay.getPath(), BLOCK);
+    try {
+      o.write(8192, fill(BLOCK, 0x5a), 0, BLOCK);
+      o.write(0, fill(BLOCK, 0x22), 0, BLOCK);
+      o.commit();
+      expect(name + " overlay after commit, new block",
+        read(o, 8192, BLOCK), fill(BLOCK, 0x5a));
+      expect(name + " overlay after commit, old block",
+        read(o, 0, BLOCK), fill(BLOCK, 0x22));
+      o.write(0, fill(BLOCK, 0x33), 0, BLOCK);
+      o.commit();
+      expect(name + " overlay after second commit",
+        read(o, 0, BLOCK), fill(BLOCK, 0x33));
+    } finally {
+      o.close();
+    }
+
+    image = SparseDiskImage.open(base.getPath(), true);
+    try {
+      expect(name + " base, new block",
+        read(image, 8192, BLOCK), fill(BLOCK, 0x5a));
+      expect(name + " base, old block",
+        read(image, 0, BLOCK), fill(BLOCK, 0x33));
+    } finally {
+      image.close();
+    }
+  }
+
+  public static void main(String argv[]) {
+    File dir = new File((argv.length > 0) ? argv[0] :
+      System.getProperty("java.io.tmpdir"));
+    File plain = new File(dir, "overlaycheck.dsk");
+    File sparse = new File(dir, "overlaycheck.spz");
+    File overlay = new File(dir, "overlaycheck.ovl");
+    try {
+      RandomAccessFile f = new RandomAccessFile(plain, "rw");
+      f.setLength(SIZE);
+      f.close();
+      check("plain", plain, overlay);
+      overlay.delete();
+      SparseDiskImage.create(sparse.getPath(), SIZE,
+        SparseDiskImage.CLUSTER, true);
+      check("sparse", sparse, overlay);
+    } catch (IOException e) {
+      System.out.println("OverlayCheck: " + e);
+      failed = true;
+    } finally {
+      plain.delete();
+      sparse.delete();
+      overlay.delete();
+    }
+    System.out.println(failed ? "FAILED" : "ok");
+    System.exit(failed ? 1 : 0);
+  }
+}
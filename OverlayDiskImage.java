@@ -0,0 +1,251 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// OverlayDiskImage.java - Disk image kept as its changes to a shared,
+// read only base image, plain or sparse.
+//
+// The overlay file is a header, then a bitmap with a bit for each block
+// of the base telling whether the overlay holds that block, then the
+// blocks themselves.  Every block has a fixed place, so blocks that were
+// never written take no room in a sparse file.  A block is written
+// before its bit, so a crash at worst loses the last write.  commit()
+// folds the changes into the base and discard() throws them away, either
+// way leaving the overlay empty.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class OverlayDiskImage implements DiskImage {
+
+	private static final long MAGIC = 0x504450436166654FL;	// "PDPCafeO"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+
+	private String basePath;
+	private DiskImage base;				// shared, never written through
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int blockSize;				// bytes per overlay block
+	private long length;				// bytes in the base
+	private byte[] bitmap;				// blocks held by the overlay
+	private long dataStart;				// file offset of block 0
+
+	//
+	// OverlayDiskImage() - Open the overlay at path on top of basePath,
+	// creating it empty if it doesn't exist yet.  An existing overlay
+	// must have been made for a base of the same size and block size.
+	//
+
+	public OverlayDiskImage(String basePath, String path, int blockSize)
+	throws IOException {
+		this.basePath = basePath;
+		this.blockSize = blockSize;
+		base = SparseDiskImage.open(basePath, true);
+		try {
+			length = base.length();
+			long blocks = (length + blockSize - 1) / blockSize;
+			bitmap = new byte[(int) ((blocks + 7) / 8)];
+			dataStart = ((HEADER_SIZE + bitmap.length + blockSize - 1) /
+				blockSize) * blockSize;
+			file = new RandomAccessFile(path, "rw");
+			channel = file.getChannel();
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putLong(MAGIC);
+				header.putInt(VERSION);
+				header.putInt(blockSize);
+				header.putLong(length);
+				header.flip();
+				put(header, 0);
+				put(ByteBuffer.wrap(bitmap), HEADER_SIZE);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				get(header, 0);
+				header.flip();
+				if ((header.getLong() != MAGIC) ||
+				(header.getInt() != VERSION) ||
+				(header.getInt() != blockSize) ||
+				(header.getLong() != length)) {
+					throw new IOException(path + " is not an overlay for " +
+						basePath);
+				}
+				get(ByteBuffer.wrap(bitmap), HEADER_SIZE);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public long length() throws IOException {
+		return length;
+	}
+
+	private boolean held(long block) {
+		return (bitmap[(int) (block >> 3)] & (1 << (block & 7))) != 0;
+	}
+
+	//
+	// read() - Each run of blocks comes from the overlay or the base,
+	// whichever holds it.
+	//
+
+	public synchronized void read(long offset, byte[] data, int start,
+	int count) throws IOException {
+		if ((offset + count) > length) {
+			throw new EOFException();
+		}
+		while (count > 0) {
+			long block = offset / blockSize;
+			boolean inOverlay = held(block);
+			int n = Math.min(count, (int) (((block + 1) * blockSize) - offset));
+			while ((n < count) && (held((offset + n) / blockSize) ==
+			inOverlay)) {
+				n = Math.min(count, n + blockSize);
+			}
+			if (inOverlay) {
+				get(ByteBuffer.wrap(data, start, n), dataStart + offset);
+			} else {
+				base.read(offset, data, start, n);
+			}
+			offset += n;
+			start += n;
+			count -= n;
+		}
+	}
+
+	//
+	// write() - Blocks the overlay doesn't hold yet are filled in from
+	// the base first, then written whole.
+	//
+
+	public synchronized void write(long offset, byte[] data, int start,
+	int count) throws IOException {
+		if ((offset + count) > length) {
+			throw new EOFException();
+		}
+		int first = -1;
+		int last = -1;
+		while (count > 0) {
+			long block = offset / blockSize;
+			int within = (int) (offset % blockSize);
+			int n = Math.min(count, blockSize - within);
+			if (held(block) || (n == blockSize)) {
+				put(ByteBuffer.wrap(data, start, n), dataStart + offset);
+			} else {
+				byte[] copy = new byte[blockSize];
+				base.read(block * blockSize, copy, 0, (int) Math.min(
+					blockSize, length - (block * blockSize)));
+				System.arraycopy(data, start, copy, within, n);
+				put(ByteBuffer.wrap(copy), dataStart + (block * blockSize));
+			}
+			if (!held(block)) {
+				bitmap[(int) (block >> 3)] |= 1 << (block & 7);
+				if (first < 0) {
+					first = (int) (block >> 3);
+				}
+				last = (int) (block >> 3);
+			}
+			offset += n;
+			start += n;
+			count -= n;
+		}
+		if (first >= 0) {
+			put(ByteBuffer.wrap(bitmap, first, (last - first) + 1),
+				HEADER_SIZE + first);
+		}
+	}
+
+	//
+	// commit() - Copy every block the overlay holds into the base, which
+	// is opened for writing just for this, then empty the overlay.  Any
+	// other machine running on the same base sees its disk change.  Our
+	// own read only base is opened again afterwards, since a sparse one
+	// keeps the cluster table it had when it was opened.
+	//
+
+	public synchronized void commit() throws IOException {
+		DiskImage target = SparseDiskImage.open(basePath, false);
+		try {
+			byte[] b = new byte[blockSize];
+			for (long block = 0; block < (bitmap.length * 8L); ++block) {
+				if (held(block)) {
+					int n = (int) Math.min(blockSize,
+						length - (block * blockSize));
+					get(ByteBuffer.wrap(b, 0, n),
+						dataStart + (block * blockSize));
+					target.write(block * blockSize, b, 0, n);
+				}
+			}
+			target.force();
+		} finally {
+			target.close();
+		}
+		base.close();
+		base = SparseDiskImage.open(basePath, true);
+		discard();
+	}
+
+	//
+	// discard() - Forget every change, back to the plain base.
+	//
+
+	public synchronized void discard() throws IOException {
+		Arrays.fill(bitmap, (byte) 0);
+		put(ByteBuffer.wrap(bitmap), HEADER_SIZE);
+		channel.truncate(dataStart);
+		channel.force(true);
+	}
+
+	public void force() throws IOException {
+		channel.force(true);
+	}
+
+	public void close() throws IOException {
+		base.close();
+		if (file != null) {
+			file.close();
+		}
+	}
+
+	private void get(ByteBuffer b, long position) throws IOException {
+		long at = position - b.position();
+		while (b.hasRemaining()) {
+			if (channel.read(b, at + b.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	private void put(ByteBuffer b, long position) throws IOException {
+		long at = position - b.position();
+		while (b.hasRemaining()) {
+			channel.write(b, at + b.position());
+		}
+	}
+}
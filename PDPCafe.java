@@ -28,18 +28,15 @@ package PDPCafe;
 
 public class PDPCafe {
   public static void main(String argv[]) {
-    Unibus unibus = Unibus.instance();
-    KTDevice mmu = KTDevice.instance();
-    CPUDevice cpu = CPUDevice.instance();
-    KWDevice kw = KWDevice.instance();
-    BootDevice bd = new BootDevice();
-    RLDiskDevice rl = new RLDiskDevice();
-    TMTapeDevice tm = new TMTapeDevice();
-    KLConsoleDevice kl = new KLConsoleDevice();
-    KLConsoleDevice kl2 = new KLConsoleDevice(0776500,4,"1");
-    LPDevice lp = new LPDevice();
-    RMDiskDevice rm = new RMDiskDevice();
-    DZTerminalDevice dz = new DZTerminalDevice();
+    Machine machine = new Machine();
+    BootDevice bd = new BootDevice(machine);
+    RLDiskDevice rl = new RLDiskDevice(machine);
+    TMTapeDevice tm = new TMTapeDevice(machine);
+    KLConsoleDevice kl = new KLConsoleDevice(machine);
+    KLConsoleDevice kl2 = new KLConsoleDevice(machine,0776500,4,"1");
+    LPDevice lp = new LPDevice(machine);
+    RMDiskDevice rm = new RMDiskDevice(machine);
+    DZTerminalDevice dz = new DZTerminalDevice(machine);
     try {
 
       //rl.assign(0, "/Users/ericedwards/etc/PDPCafe/xxdp25.rl02");
@@ -62,7 +59,7 @@ public class PDPCafe {
     //System.out.println("Starting GUI:");
     //GUIMainFrame.startGUI();
     System.out.println("Starting command line:");
-    CommandLine cm = new CommandLine();
+    CommandLine cm = new CommandLine(machine);
     while(cm.isAlive()) {
       try {
         cm.join();
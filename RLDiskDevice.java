@@ -27,8 +27,11 @@
 package PDPCafe;
 
 import java.io.*;
+import java.nio.*;
+import java.util.*;
 
-public class RLDiskDevice implements UnibusDevice {
+public class RLDiskDevice
+implements UnibusDevice, SnapshotDevice, ForkDevice {
 
 	// Unibus interface definitions.
 
@@ -36,7 +39,6 @@ public class RLDiskDevice implements UnibusDevice {
 	private static final int RL_SIZE = 4;			// four registers
 	private static final int RL_VECTOR = 0160;		// default interrupt vector
 	private static final int RL_BRLEVEL = 5;		// default bus request level
-	private static final int RL_DELAY = 100;		// in instructions
 
 	// Control register definitions.
 
@@ -51,6 +53,7 @@ public class RLDiskDevice implements UnibusDevice {
 	private static final int RL_RDNOCK = 016;
 	private static final int RL_IE = 0100;
 	private static final int RL_CRDY = 0200;
+	private static final int RL_WRITABLE = 01576;	// all but CRDY while busy
 	private static final int RL_OPI = 02000;
 	private static final int RL_DCRC = 04000;
 	private static final int RL_HNF = 010000;
@@ -87,6 +90,13 @@ public class RLDiskDevice implements UnibusDevice {
 	private static final int RL_SIZE_RL01 = (RL_BYTES_CYL * RL_CYL_RL01);
 	private static final int RL_SIZE_RL02 = (RL_BYTES_CYL * RL_CYL_RL02);
 
+	// Drive timing, for DiskTiming.REALISTIC.
+
+	private static final int RL_RPM = 2400;
+	private static final int RL_TRACK_SEEK = 15000;		// microseconds
+	private static final int RL_FULL_SEEK = 100000;
+	private static final int RL_WORD_NANOS = 4100;
+
 	// Controller register images.
 
 	private int csr;
@@ -99,16 +109,19 @@ public class RLDiskDevice implements UnibusDevice {
 	private UnibusDeviceInfo info;	// generic device information
 	private int drive;				// drive number for current operation
 	private RLDiskDrive[] drives;	// per drive information
-	private byte[] buffer;			// sector data buffer
 	private Unibus unibus;			// the Unibus device
+	private DiskTransfer transfer;	// disk read or write in progress
+	private int transferAddr;		// memory address for its data
+	private int transferCount;		// words it moves
+	private int timingMode = DiskTiming.FIXED;	// for every drive
 
 	// Code.
 
-	public RLDiskDevice() {
-		this(RL_BASE, RL_SIZE, "");
+	public RLDiskDevice(Machine machine) {
+		this(machine, RL_BASE, RL_SIZE, "");
 	}
 
-	public RLDiskDevice(int base, int size, String options) {
+	public RLDiskDevice(Machine machine, int base, int size, String options) {
 		info = new UnibusDeviceInfo(this, base, size, "RL11", false);
 		csr = RL_CRDY;
 		bar = 0;
@@ -116,33 +129,54 @@ public class RLDiskDevice implements UnibusDevice {
 		mpr = 0;
 		drive = 0;
 		drives = new RLDiskDrive[MAX_RL];
-		buffer = new byte[RL_BYTES_SECTOR];
 		for (int i = 0; i < drives.length; ++i) {
 			drives[i] = new RLDiskDrive();
 			drives[i].exists = RL_TYPE_NORL;
 			drives[i].cylinder = 0;
 			drives[i].head = 0;
 			drives[i].error = false;
-			drives[i].file = null;					// force the issue
+			drives[i].image = null;					// force the issue
+			drives[i].timing = newTiming(RL_TYPE_RL02);
 		}
-		unibus = Unibus.instance();
+		unibus = machine.unibus;
 		unibus.registerDevice(info);
 	}
 
 	public void assign(int unit, String path) throws java.io.IOException {
+		assign(unit, path, null);
+	}
+
+	//
+	// assign() - With an overlay the image at path is only read, and the
+	// drive's writes are kept in the overlay file instead.
+	//
+
+	public void assign(int unit, String path, String overlay)
+	throws java.io.IOException {
 		if ((unit >= 0) && (unit < drives.length)) {
 			RLDiskDrive drive = drives[unit];
-			if (drive.file != null) {
-				drive.file.close();
+			if (drive.image != null) {
+				drive.image.close();
 			}
 			drive.exists = RL_TYPE_NORL;
-			drive.file = new RandomAccessFile(path, "rw");
-			if (drive.file.length() == RL_SIZE_RL01) {
+			drive.image = null;
+			if (overlay != null) {
+				drive.image =
+					new OverlayDiskImage(path, overlay, RL_BYTES_SECTOR);
+			} else if (SparseDiskImage.isSparse(path)) {
+				drive.image = new SparseDiskImage(path, false);
+			} else {
+				drive.image = new MappedDiskImage(path);
+			}
+			if (drive.image.length() == RL_SIZE_RL01) {
 				drive.exists = RL_TYPE_RL01;
-			} else if (drive.file.length() == RL_SIZE_RL02) {
+				drive.timing = newTiming(RL_TYPE_RL01);
+			} else if (drive.image.length() == RL_SIZE_RL02) {
 				drive.exists = RL_TYPE_RL02;
+				drive.timing = newTiming(RL_TYPE_RL02);
 			} else {
-				drive.file.close();
+				drive.image.close();
+				drive.image = null;
 				throw new java.io.IOException();
 			}
 		} else {
@@ -150,7 +184,155 @@ public class RLDiskDevice implements UnibusDevice {
 		}
 	}
 
+	//
+	// commit(), discard() - Fold an overlay's changes into its image, or
+	// throw them away.  Any transfer in progress gets to the disk first.
+	//
+
+	public void commit(int unit) throws IOException {
+		OverlayDiskImage image = overlay(unit);
+		if (drives[unit].image instanceof CachedDiskImage) {
+			((CachedDiskImage) drives[unit].image).flush();
+		}
+		image.commit();
+	}
+
+	public void discard(int unit) throws IOException {
+		overlay(unit).discard();
+		if (drives[unit].image instanceof CachedDiskImage) {
+			((CachedDiskImage) drives[unit].image).invalidate();
+		}
+	}
+
+	private OverlayDiskImage overlay(int unit) throws IOException {
+		DiskImage image = null;
+		if ((unit >= 0) && (unit < drives.length)) {
+			image = drives[unit].image;
+		}
+		if (image instanceof CachedDiskImage) {
+			image = ((CachedDiskImage) image).base();
+		}
+		if (!(image instanceof OverlayDiskImage)) {
+			throw new IOException("RL unit " + unit + " has no overlay");
+		}
+		waitTransfer();
+		return (OverlayDiskImage) image;
+	}
+
+	//
+	// cache() - Put the drive's image behind the shared BlockCache with
+	// the given policy, reading a track ahead of sequential reads, or
+	// with BlockCache.NONE take it out again.
+	//
+
+	public void cache(int unit, int policy) throws IOException {
+		if ((unit < 0) || (unit >= drives.length) ||
+		(drives[unit].image == null)) {
+			throw new IOException("RL unit " + unit + " has no image");
+		}
+		waitTransfer();
+		DiskImage image = drives[unit].image;
+		if (image instanceof CachedDiskImage) {
+			drives[unit].image = null;
+			image = ((CachedDiskImage) image).release();
+		}
+		if (policy != BlockCache.NONE) {
+			CachedDiskImage cached = new CachedDiskImage(image, policy);
+			cached.setReadAhead(RL_BYTES_TRACK);
+			image = cached;
+		}
+		drives[unit].image = image;
+	}
+
+	//
+	// setTiming() - Choose the DiskTiming model for every drive.
+	//
+
+	public void setTiming(int mode) {
+		timingMode = mode;
+		for (int i = 0; i < drives.length; ++i) {
+			drives[i].timing.setMode(mode);
+		}
+	}
+
+	//
+	// timing() - Report the delays the drive has chosen, null if it has
+	// no image.
+	//
+
+	public String timing(int unit) {
+		if ((unit < 0) || (unit >= drives.length) ||
+		(drives[unit].image == null)) {
+			return null;
+		}
+		return "RL unit " + unit + " " + drives[unit].timing.report();
+	}
+
+	private DiskTiming newTiming(int type) {
+		DiskTiming t = new DiskTiming((type == RL_TYPE_RL01) ? RL_CYL_RL01 :
+			RL_CYL_RL02, RL_NUM_SECT, RL_RPM, RL_TRACK_SEEK, RL_FULL_SEEK,
+			RL_WORD_NANOS);
+		t.setMode(timingMode);
+		return t;
+	}
+
+	//
+	// forkFrom() - Share the parent controller's disks copy-on-write.
+	//
+
+	public void forkFrom(UnibusDevice parent) throws IOException {
+		RLDiskDrive[] from = ((RLDiskDevice) parent).drives;
+		for (int i = 0; i < drives.length; ++i) {
+			if (drives[i].image != null) {
+				drives[i].image.close();
+			}
+			drives[i].exists = from[i].exists;
+			drives[i].timing = newTiming(from[i].exists);
+			drives[i].image = null;
+			if (from[i].image != null) {
+				drives[i].image =
+					new CowDiskImage(from[i].image, RL_BYTES_SECTOR);
+			}
+		}
+	}
+
+	//
+	// detach() - Let any transfer finish, then force and close every
+	// drive's image, leaving the drives empty.  A fork's copy-on-write
+	// images leave the parent's open, so the parent goes last.
+	//
+
+	public void detach() throws IOException {
+		dropTransfer();
+		IOException error = null;
+		for (int i = 0; i < drives.length; ++i) {
+			if (drives[i].image != null) {
+				try {
+					drives[i].image.force();
+					drives[i].image.close();
+				} catch (IOException e) {
+					error = e;
+				}
+				drives[i].image = null;
+				drives[i].exists = RL_TYPE_NORL;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	// makedisk() - Make an empty RL01 image.  An options string holding
+	// "sparse" or "compressed" makes an empty container instead of
+	// writing every sector.
+
 	public void makedisk(String path, String options) throws java.io.IOException {
+		if ((options.indexOf("sparse") >= 0) ||
+		(options.indexOf("compressed") >= 0)) {
+			SparseDiskImage.create(path, RL_SIZE_RL01, SparseDiskImage.CLUSTER,
+				options.indexOf("compressed") >= 0);
+			return;
+		}
 		FileOutputStream f = new FileOutputStream(path, false);
 		byte[] b = new byte[256];
 		for (int i = 0; i < (RL_SIZE_RL01/RL_BYTES_SECTOR); ++i) {
@@ -180,7 +362,7 @@ public class RLDiskDevice implements UnibusDevice {
 			data = mpr;
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 		return (short) data;
 	}
@@ -189,12 +371,19 @@ public class RLDiskDevice implements UnibusDevice {
 	// registers.	All registers except the csr are just
 	// handled by saving the value.	If the csr is
 	// written with the RL_CRDY bit cleared, rl_exec is
-	// called to handle the command.
+	// called to handle the command.	While a command
+	// is in progress RL_CRDY stays clear until it
+	// completes and a new command is ignored, so two
+	// transfers are never outstanding at once.
 
 	public void write(int addr, short shortData) throws Trap {
 		int data = ((int) shortData) & 0177777;
 		switch(addr - info.base) {
 		case 0:
+			if ((csr & RL_CRDY) == 0) {
+				csr = (csr & ~RL_WRITABLE) | (data & RL_WRITABLE);
+				break;
+			}
 			csr = data;
 			if ((csr & RL_CRDY) == 0) {
 				exec();
@@ -210,7 +399,7 @@ public class RLDiskDevice implements UnibusDevice {
 			mpr = data;
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
@@ -218,12 +407,78 @@ public class RLDiskDevice implements UnibusDevice {
 	// probably be allowed to the RL11, but I'm too lazy.
 
 	public void writebyte(int addr, byte data) throws Trap {
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
 	}
 
 	// reset()
 
+	//
+	// saveState() - Registers and drive positions.  The disk images
+	// themselves aren't saved, restore wants the same drives assigned.
+	// A write in progress is waited for and held writes go to the
+	// images, a read in progress is saved as where to read from again.
+	//
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(csr);
+		out.writeInt(bar);
+		out.writeInt(dar);
+		out.writeInt(mpr);
+		out.writeInt(drive);
+		for (int i = 0; i < drives.length; ++i) {
+			out.writeInt(drives[i].exists);
+			out.writeInt(drives[i].cylinder);
+			out.writeInt(drives[i].head);
+			out.writeBoolean(drives[i].error);
+		}
+		if ((transfer != null) && transfer.isWrite()) {
+			waitTransfer();						// so the disk has it
+		}
+		for (int i = 0; i < drives.length; ++i) {
+			if (drives[i].image instanceof CachedDiskImage) {
+				((CachedDiskImage) drives[i].image).flush();
+			}
+		}
+		boolean reading = (transfer != null) && !transfer.isWrite();
+		out.writeBoolean(reading);
+		if (reading) {
+			out.writeLong(transfer.offset());
+			out.writeInt(transfer.length());
+			out.writeInt(transferAddr);
+			out.writeInt(transferCount);
+		}
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		csr = in.readInt();
+		bar = in.readInt();
+		dar = in.readInt();
+		mpr = in.readInt();
+		drive = in.readInt();
+		for (int i = 0; i < drives.length; ++i) {
+			if (in.readInt() != drives[i].exists) {
+				throw new IOException("RL unit " + i + " is not as saved");
+			}
+			drives[i].cylinder = in.readInt();
+			drives[i].head = in.readInt();
+			drives[i].error = in.readBoolean();
+		}
+		dropTransfer();
+		if (in.readBoolean()) {					// read again from the top
+			long offset = in.readLong();
+			int length = in.readInt();
+			transferAddr = in.readInt();
+			transferCount = in.readInt();
+			if (drives[drive].image == null) {
+				throw new IOException("RL unit " + drive + " is not as saved");
+			}
+			transfer = DiskTransfer.read(drives[drive].image, offset, length);
+		}
+	}
+
 	public void reset() {
+		unibus.cancelEvents(this);
+		dropTransfer();
 		csr = RL_CRDY;
 		bar = 0;
 		dar = 0;
@@ -233,12 +488,17 @@ public class RLDiskDevice implements UnibusDevice {
 			drives[i].cylinder = 0;
 			drives[i].head = 0;
 			drives[i].error = false;
+			if (drives[i].image instanceof CachedDiskImage) {
+				((CachedDiskImage) drives[i].image).reset();
+			}
 		}
 	}
 
 	private void exec() {
-		int delay = RL_DELAY;						// default operation time
+		int delay = 0;								// time the drive takes
 		drive = (csr >> 8 ) & 3;
+		RLDiskDrive d = drives[drive];
+		int from = d.cylinder;
 		if (drives[drive].exists == RL_TYPE_NORL) {
 			drives[drive].error = true;				// signal an error
 			delay = 0;								// finish quickly
@@ -262,17 +522,19 @@ public class RLDiskDevice implements UnibusDevice {
 				break;
 			case RL_SEEK:
 				drives[drive].error = doSeek();
+				delay = d.timing.seek(unibus.clock, from, d.cylinder);
 				break;
 			case RL_RDHEAD:
 				mpr = drives[drive].cylinder << 7;
 				mpr |= drives[drive].head << 6;
 				drives[drive].error = false;
+				delay = d.timing.seek(unibus.clock, d.cylinder, d.cylinder);
 				break;
 			case RL_RCOM:
-				drives[drive].error = doReadWrite(false);
-				break;
 			case RL_WCOM:
-				drives[drive].error = doReadWrite(true);
+				delay = d.timing.transfer(unibus.clock, d.cylinder, d.cylinder,
+					dar & 077, (0177777 - mpr) + 1);
+				drives[drive].error = startTransfer((csr & 016) == RL_WCOM);
 				break;
 			case RL_WRCK:
 			case RL_RDNOCK:
@@ -288,6 +550,9 @@ public class RLDiskDevice implements UnibusDevice {
 	// mark the controller ready.
 
 	public void eventService(int data) {
+		if (transfer != null) {
+			finishTransfer();
+		}
 		if (drives[drive].error) {
 			csr |= RL_DE;
 			csr &= ~RL_DRDY;
@@ -335,10 +600,13 @@ public class RLDiskDevice implements UnibusDevice {
 		return false;
 	}
 
-	// doReadWrite() - Do a read or write by simulating DMA and doing
-	// file I/O to the disk file.
+	// startTransfer() - Check a read or write and start its disk I/O,
+	// to be collected by finishTransfer() when the command completes.
+	// A write takes its data from memory now, a short final sector
+	// padded with zeros as the RL11 does.  Return true on any kind of
+	// failure.
 
-	private boolean doReadWrite(boolean write) {
+	private boolean startTransfer(boolean write) {
 		if (drives[drive].cylinder != (dar >> 7)) {
 			csr |= RL_HNF;
 			return true;
@@ -357,42 +625,103 @@ public class RLDiskDevice implements UnibusDevice {
 		int offset = ((drives[drive].cylinder * RL_BYTES_CYL) +
 			(drives[drive].head * RL_BYTES_TRACK) +
 			(sector * RL_BYTES_SECTOR));
+		if (drives[drive].image == null) {
+			csr |= RL_HNF;
+			return true;
+		}
+		int length = ((count * 2) + RL_BYTES_SECTOR - 1) & -RL_BYTES_SECTOR;
 		try {
-			drives[drive].file.seek(offset);
+			length = (int) Math.max(0, Math.min(length,
+				drives[drive].image.length() - offset));
 		} catch (IOException e) {
 			csr |= RL_HNF;
 			return true;
 		}
-		int temp;
+		if (!write) {
+			transfer = DiskTransfer.read(drives[drive].image, offset, length);
+			transferAddr = addr;
+			transferCount = count;
+			return false;
+		}
+		boolean error = false;
+		byte[] data = new byte[length];
+		int words = Math.min(count, length / 2);
+		int done = unibus.copyOut(addr, data, 0, words);
+		advance(addr, done, count);
+		if (done != words) {
+			csr |= RL_NXM;						// write the sectors before it
+			data = Arrays.copyOf(data, (done * 2) & -RL_BYTES_SECTOR);
+			error = true;
+		} else if (words != count) {
+			csr |= RL_HNF;						// ran off the end of the disk
+			error = true;
+		}
+		if (data.length != 0) {
+			transfer = DiskTransfer.write(drives[drive].image, offset, data);
+		}
+		return error;
+	}
+
+	// finishTransfer() - Wait for the disk I/O to be done, then for a
+	// read move the data into memory.
+
+	private void finishTransfer() {
+		DiskTransfer t = transfer;
+		transfer = null;
 		try {
-			while (count != 0) {
-				if (write) {
-					for (int i = 0; (i < RL_BYTES_SECTOR) && (count != 0); count--) {
-						temp = unibus.read(addr);
-						buffer[i] = (byte)(temp & 0xff);
-						buffer[i + 1] = (byte)(temp >> 8);
-						addr += 2;
-						i += 2;
-					}
-					drives[drive].file.write(buffer);
-				} else {
-					drives[drive].file.readFully(buffer);
-					for (int i = 0; (i < RL_BYTES_SECTOR) && (count != 0); count--) {
-						temp = buffer[i + 1] << 8;
-						temp += ((int) buffer[i]) & 0xff;
-						unibus.write(addr, (short) temp);
-						addr += 2;
-						i += 2;
-					}
+			ByteBuffer b = t.finish();
+			if (!t.isWrite()) {
+				int words = Math.min(transferCount, b.remaining() / 2);
+				int done = unibus.copyIn(transferAddr, b, words);
+				advance(transferAddr, done, transferCount);
+				if (done != words) {
+					csr |= RL_NXM;
+					drives[drive].error = true;
+				} else if (words != transferCount) {
+					csr |= RL_HNF;				// ran off the end of the disk
+					drives[drive].error = true;
 				}
 			}
-		} catch (Trap e) {
-			csr |= RL_NXM;
-			return true;
 		} catch (IOException e) {
 			csr |= RL_HNF;
-			return true;
+			drives[drive].error = true;
+		}
+	}
+
+	// advance() - Leave the bus address just past the words moved, the
+	// non-existent one after a fault, and the word count with the rest
+	// of the count words still to go.
+
+	private void advance(int addr, int words, int count) {
+		addr += words * 2;
+		bar = addr & 0177776;
+		csr = (csr & ~060) | ((addr >> 12) & 060);
+		mpr = (words - count) & 0177777;
+	}
+
+	// waitTransfer() - Wait for any disk I/O in progress, leaving the
+	// rest of the command, and any error, to finishTransfer().
+
+	private void waitTransfer() {
+		if (transfer != null) {
+			try {
+				transfer.finish();
+			} catch (IOException e) {
+				// reported when the command completes
+			}
+		}
+	}
+
+	// dropTransfer() - Let any disk I/O in progress finish, for nothing.
+
+	private void dropTransfer() {
+		if (transfer != null) {
+			try {
+				transfer.finish();
+			} catch (IOException e) {
+				// nobody left to tell
+			}
+			transfer = null;
 		}
-		return false;
 	}
 }
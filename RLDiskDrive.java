@@ -33,5 +33,6 @@ public class RLDiskDrive {
 	public int cylinder;					// current cylinder
 	public int head;						// current head
 	public boolean error;					// drive in error
-	public RandomAccessFile file;			// where the data lives
+	public DiskImage image;			// where the data lives
+	public DiskTiming timing;				// how long commands take
 }
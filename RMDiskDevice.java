@@ -46,8 +46,11 @@
 package PDPCafe;
 
 import java.io.*;
+import java.nio.*;
+import java.util.*;
 
-public class RMDiskDevice implements UnibusDevice {
+public class RMDiskDevice
+implements UnibusDevice, SnapshotDevice, ForkDevice {
 
 	//
 	// Unibus interface definitions.
@@ -57,7 +60,6 @@ public class RMDiskDevice implements UnibusDevice {
 	private static final int RM_SIZE = 22;		// twenty two registers
 	private static final int RM_VECTOR = 0254;	// default interrupt vector
 	private static final int RM_BRLEVEL = 5;	// default bus request level
-	private static final int RM_DELAY = 100;	// delay
 
 	private static final int RM_EVENT_FLAG = 8;
 
@@ -176,6 +178,15 @@ public class RMDiskDevice implements UnibusDevice {
 	  (RM_CYLINDERS_RM05 * RM_HEADS_RM05 * RM_SECTORS_RM05 * RM_BYTES_SECTOR);
 	private static final int RM_DRIVETYPE_RM05 = 020027;
 
+	//
+	// Drive timing, for DiskTiming.REALISTIC, the same for both types.
+	//
+
+	private static final int RM_RPM = 3600;
+	private static final int RM_TRACK_SEEK = 6000;		// microseconds
+	private static final int RM_FULL_SEEK = 55000;
+	private static final int RM_WORD_NANOS = 1600;
+
 	//
 	// Controller register images.
 	//
@@ -193,27 +204,31 @@ public class RMDiskDevice implements UnibusDevice {
 	private UnibusDeviceInfo info;		// generic device information
 	private int drive;					// drive number for current operation
 	private RMDiskDrive[] drives;		// per drive information
-	private byte[] buffer;				// sector data buffer
 	private Unibus unibus;				// the Unibus device
+	private DiskTransfer transfer;		// disk read or write in progress
+	private int transferDrive;			// drive it is for
+	private int transferAddr;			// memory address for read data
+	private int transferCount;			// words to read
+	private int transferEnd;			// file offset just past the read
+	private int transferAoe;			// words cut off at end of drive
 	private int debug;					// debugging flags
 
 	//
 	// RMDiskDevice() - Constructor.
 	//
 
-	public RMDiskDevice() {
-		this(RM_BASE, RM_SIZE, "");
+	public RMDiskDevice(Machine machine) {
+		this(machine, RM_BASE, RM_SIZE, "");
 	}
 
 	//
 	// RMDiskDevice() - Constructor.
 	//
 
-	public RMDiskDevice(int base, int size, String options) {
+	public RMDiskDevice(Machine machine, int base, int size, String options) {
 		info = new UnibusDeviceInfo(this, base, size, "RH11", false);
 		drive = 0;
 		drives = new RMDiskDrive[MAX_RM];
-		buffer = new byte[RM_BYTES_SECTOR];
 		debug = 0; // RM_DEBUG_REG|RM_DEBUG_CMD;
 		rmcs1 = RMCS1_RDY;
 		rmwc = 0;
@@ -227,7 +242,7 @@ public class RMDiskDevice implements UnibusDevice {
 			} else {
 				drives[i].exists = RM_TYPE_NORM;
 			}
-			drives[i].file = null;
+			drives[i].image = null;
 			switch(drives[i].exists) {
 			case RM_TYPE_RM03:
 				drives[i].cylinders = RM_CYLINDERS_RM03;
@@ -249,29 +264,42 @@ public class RMDiskDevice implements UnibusDevice {
 				break;
 			case RM_TYPE_NORM:
 			default:
+				drives[i].cylinders = RM_CYLINDERS_RM03;	// for the timing
+				drives[i].heads = RM_HEADS_RM03;
+				drives[i].sectors = RM_SECTORS_RM03;
 				drives[i].rmcs1 = 0;
 				drives[i].rmds = 0;
 				drives[i].rmdt = 0;
 				drives[i].rmsn = 0;
 				break;
 			}
+			drives[i].cylinder = 0;
+			drives[i].timing = new DiskTiming(drives[i].cylinders,
+			  drives[i].sectors, RM_RPM, RM_TRACK_SEEK, RM_FULL_SEEK,
+			  RM_WORD_NANOS);
 		}
-		unibus = Unibus.instance();
+		unibus = machine.unibus;
 		unibus.registerDevice(info);
 	}
 
 	//
-	// assign()
+	// assign() - With an overlay the image at path is only read, and the
+	// drive's writes are kept in the overlay file instead.
 	//
 
 	public void assign(int unit, String path) throws java.io.IOException {
+		assign(unit, path, null);
+	}
+
+	public void assign(int unit, String path, String overlay)
+	  throws java.io.IOException {
 		int expectedSize;
 		if ((unit >= 0) && (unit < drives.length)) {
 			if (drives[unit].exists == RM_TYPE_NORM) {
 				throw new java.io.IOException();
 			}
-			if (drives[unit].file != null) {
-				drives[unit].file.close();
+			if (drives[unit].image != null) {
+				drives[unit].image.close();
 			}
 			if ((drives[unit].rmds & RMDS_MOL) != 0) {
 				drives[unit].rmds = RMDS_DRY|RMDS_DPR|RMDS_ATA;
@@ -291,13 +319,22 @@ public class RMDiskDevice implements UnibusDevice {
 			default:
 				throw new java.io.IOException();
 			}
-			drives[unit].file = new RandomAccessFile(path, "rw");
-			if (drives[unit].file.length() == expectedSize) {
+			drives[unit].image = null;
+			if (overlay != null) {
+				drives[unit].image =
+				  new OverlayDiskImage(path, overlay, RM_BYTES_SECTOR);
+			} else if (SparseDiskImage.isSparse(path)) {
+				drives[unit].image = new SparseDiskImage(path, false);
+			} else {
+				drives[unit].image = new MappedDiskImage(path);
+			}
+			if (drives[unit].image.length() == expectedSize) {
 				drives[unit].rmds |= RMDS_MOL|RMDS_ATA;
 				rmcs1 |= RMCS1_SC;
 				// ZORK will interrupt
 			} else {
-				drives[unit].file.close();
+				drives[unit].image.close();
+				drives[unit].image = null;
 				throw new java.io.IOException();
 			}
 		} else {
@@ -306,11 +343,146 @@ public class RMDiskDevice implements UnibusDevice {
 	}
 
 	//
-	// makedisk
+	// commit(), discard() - Fold an overlay's changes into its image, or
+	// throw them away.  Any transfer in progress gets to the disk first.
+	//
+
+	public void commit(int unit) throws IOException {
+		OverlayDiskImage image = overlay(unit);
+		if (drives[unit].image instanceof CachedDiskImage) {
+			((CachedDiskImage) drives[unit].image).flush();
+		}
+		image.commit();
+	}
+
+	public void discard(int unit) throws IOException {
+		overlay(unit).discard();
+		if (drives[unit].image instanceof CachedDiskImage) {
+			((CachedDiskImage) drives[unit].image).invalidate();
+		}
+	}
+
+	private OverlayDiskImage overlay(int unit) throws IOException {
+		DiskImage image = null;
+		if ((unit >= 0) && (unit < drives.length)) {
+			image = drives[unit].image;
+		}
+		if (image instanceof CachedDiskImage) {
+			image = ((CachedDiskImage) image).base();
+		}
+		if (!(image instanceof OverlayDiskImage)) {
+			throw new IOException("RM unit " + unit + " has no overlay");
+		}
+		waitTransfer();
+		return (OverlayDiskImage) image;
+	}
+
+	//
+	// cache() - Put the drive's image behind the shared BlockCache with
+	// the given policy, reading a track ahead of sequential reads, or
+	// with BlockCache.NONE take it out again.
+	//
+
+	public void cache(int unit, int policy) throws IOException {
+		if ((unit < 0) || (unit >= drives.length) ||
+		  (drives[unit].image == null)) {
+			throw new IOException("RM unit " + unit + " has no image");
+		}
+		waitTransfer();
+		DiskImage image = drives[unit].image;
+		if (image instanceof CachedDiskImage) {
+			drives[unit].image = null;
+			image = ((CachedDiskImage) image).release();
+		}
+		if (policy != BlockCache.NONE) {
+			CachedDiskImage cached = new CachedDiskImage(image, policy);
+			cached.setReadAhead(drives[unit].sectors * RM_BYTES_SECTOR);
+			image = cached;
+		}
+		drives[unit].image = image;
+	}
+
+	//
+	// setTiming() - Choose the DiskTiming model for every drive.
+	//
+
+	public void setTiming(int mode) {
+		for (int i = 0; i < drives.length; ++i) {
+			drives[i].timing.setMode(mode);
+		}
+	}
+
+	//
+	// timing() - Report the delays the drive has chosen, null if it has
+	// no image.
+	//
+
+	public String timing(int unit) {
+		if ((unit < 0) || (unit >= drives.length) ||
+		  (drives[unit].image == null)) {
+			return null;
+		}
+		return "RM unit " + unit + " " + drives[unit].timing.report();
+	}
+
+	//
+	// forkFrom() - Share the parent controller's disks copy-on-write.
+	// The drive registers come over with the rest of the state.
+	//
+
+	public void forkFrom(UnibusDevice parent) throws IOException {
+		RMDiskDrive[] from = ((RMDiskDevice) parent).drives;
+		for (int i = 0; i < drives.length; ++i) {
+			if (drives[i].image != null) {
+				drives[i].image.close();
+			}
+			drives[i].image = null;
+			if (from[i].image != null) {
+				drives[i].image =
+				  new CowDiskImage(from[i].image, RM_BYTES_SECTOR);
+			}
+		}
+	}
+
+	//
+	// detach() - Let any transfer finish, then force and close every
+	// drive's image, leaving the drives off line.  A fork's copy-on-write
+	// images leave the parent's open, so the parent goes last.
+	//
+
+	public void detach() throws IOException {
+		dropTransfer();
+		IOException error = null;
+		for (int i = 0; i < drives.length; ++i) {
+			if (drives[i].image != null) {
+				try {
+					drives[i].image.force();
+					drives[i].image.close();
+				} catch (IOException e) {
+					error = e;
+				}
+				drives[i].image = null;
+				drives[i].rmds &= ~RMDS_MOL;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	//
+	// makedisk - An options string holding "sparse" or "compressed" makes
+	// an empty container instead of writing every sector.
 	//
 
 	public void makedisk(String path, String options)
 	  throws java.io.IOException {
+		if ((options.indexOf("sparse") >= 0) ||
+		  (options.indexOf("compressed") >= 0)) {
+			SparseDiskImage.create(path, RM_SIZE_RM03, SparseDiskImage.CLUSTER,
+			  options.indexOf("compressed") >= 0);
+			return;
+		}
 		FileOutputStream f = new FileOutputStream(path, false);
 		byte[] b = new byte[RM_BYTES_SECTOR];
 		for (int i = 0; i < (RM_SIZE_RM03/RM_BYTES_SECTOR); ++i) {
@@ -398,7 +570,7 @@ public class RMDiskDevice implements UnibusDevice {
 				System.out.println(this.getClass().getName() + ".read(): " +
 					Integer.toOctalString(addr) + "=UnibusTimeout");
 			}
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 		if ((debug & RM_DEBUG_REG) != 0) {
 			System.out.println(this.getClass().getName() + ".read(): " +
@@ -414,7 +586,6 @@ public class RMDiskDevice implements UnibusDevice {
 
 	public void write(int addr, short shortData) throws Trap {
 		int data = ((int) shortData) & 0177777;
-		boolean anyAttention = false;
 		if ((debug & RM_DEBUG_REG) != 0) {
 			System.out.println(this.getClass().getName() + ".write(): " +
 				Integer.toOctalString(addr) + "=" +
@@ -427,14 +598,7 @@ public class RMDiskDevice implements UnibusDevice {
 			if ((data & RMCS1_TRE) != 0) {
 				rmcs1 &= ~RMCS1_TRE;
 				// ZORK also clear upper rmcs2?
-				for (int i = 0; i < MAX_RM; ++i) {
-					if ((drives[i].rmds & RMDS_ATA) != 0) {
-						anyAttention = true;
-					}
-				}
-				if (!anyAttention) {
-					rmcs1 &= ~RMCS1_SC;
-				}
+				updateAttention();
 			}
 			if ((data & (RMCS1_IE|RMCS1_RDY)) == (RMCS1_IE|RMCS1_RDY)) {
 				unibus.scheduleInterrupt(this, RM_BRLEVEL, RM_VECTOR);
@@ -499,14 +663,9 @@ public class RMDiskDevice implements UnibusDevice {
 					  (drives[i].rmer2 == 0)) {
 						drives[i].rmds &= ~RMDS_ATA;
 					}
-					if ((drives[i].rmds & RMDS_ATA) != 0) {
-						anyAttention = true;
-					}
-				}
-				if (!anyAttention && ((rmcs1 & RMCS1_TRE) == 0)) {
-					rmcs1 &= ~RMCS1_SC;
-					// ZORK clear pending interrupts ?
 				}
+				updateAttention();
+				// ZORK clear pending interrupts ?
 			break;
 		case 020:			// rmla (drive)
 			break;
@@ -545,7 +704,7 @@ public class RMDiskDevice implements UnibusDevice {
 				System.out.println(this.getClass().getName() + ".write(): " +
 					Integer.toOctalString(addr) + "=UnibusTimeout");
 			}
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
@@ -590,15 +749,7 @@ public class RMDiskDevice implements UnibusDevice {
 			if ((upperData & RMCS1_TRE) != 0) {
 				rmcs1 &= ~RMCS1_TRE;
 				// ZORK also clear upper rmcs2?
-				boolean anyAttention = false;
-				for (int i = 0; i < MAX_RM; ++i) {
-					if ((drives[i].rmds & RMDS_ATA) != 0) {
-						anyAttention = true;
-					}
-				}
-				if (!anyAttention) {
-					rmcs1 &= ~RMCS1_SC;
-				}
+				updateAttention();
 			}
 			break;
 		case 010:			// rmcs2 (rh11) - low byte
@@ -622,7 +773,108 @@ public class RMDiskDevice implements UnibusDevice {
 					".writebyte(): " + Integer.toOctalString(addr) +
 					"=UnibusTimeout");
 			}
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
+		}
+	}
+
+	//
+	// saveState() - Controller and drive registers, not the disk images.
+	// A write in progress is waited for and held writes go to the images,
+	// a read in progress is saved as where to read from again.
+	//
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(rmcs1);
+		out.writeInt(rmwc);
+		out.writeInt(rmba);
+		out.writeInt(rmcs2);
+		out.writeInt(rmdb);
+		out.writeInt(drive);
+		for (int i = 0; i < drives.length; ++i) {
+			RMDiskDrive d = drives[i];
+			out.writeInt(d.exists);
+			out.writeInt(d.rmcs1);
+			out.writeInt(d.rmda);
+			out.writeInt(d.rmds);
+			out.writeInt(d.rmer1);
+			out.writeInt(d.rmla);
+			out.writeInt(d.rmmr1);
+			out.writeInt(d.rmof);
+			out.writeInt(d.rmdc);
+			out.writeInt(d.rmhr);
+			out.writeInt(d.rmmr2);
+			out.writeInt(d.rmer2);
+			out.writeInt(d.rmec1);
+			out.writeInt(d.rmec2);
+			out.writeInt(d.cylinder);
+		}
+		if ((transfer != null) && transfer.isWrite()) {
+			waitTransfer();						// so the disk has it
+		}
+		for (int i = 0; i < drives.length; ++i) {
+			if (drives[i].image instanceof CachedDiskImage) {
+				((CachedDiskImage) drives[i].image).flush();
+			}
+		}
+		boolean reading = (transfer != null) && !transfer.isWrite();
+		out.writeBoolean(reading);
+		if (reading) {
+			out.writeLong(transfer.offset());
+			out.writeInt(transfer.length());
+			out.writeInt(transferDrive);
+			out.writeInt(transferAddr);
+			out.writeInt(transferCount);
+			out.writeInt(transferEnd);
+			out.writeInt(transferAoe);
+		}
+	}
+
+	//
+	// restoreState() - Put back what saveState() wrote.
+	//
+
+	public void restoreState(DataInputStream in) throws IOException {
+		rmcs1 = in.readInt();
+		rmwc = in.readInt();
+		rmba = in.readInt();
+		rmcs2 = in.readInt();
+		rmdb = in.readInt();
+		drive = in.readInt();
+		for (int i = 0; i < drives.length; ++i) {
+			RMDiskDrive d = drives[i];
+			if (in.readInt() != d.exists) {
+				throw new IOException("RM unit " + i + " is not as saved");
+			}
+			d.rmcs1 = in.readInt();
+			d.rmda = in.readInt();
+			d.rmds = in.readInt();
+			d.rmer1 = in.readInt();
+			d.rmla = in.readInt();
+			d.rmmr1 = in.readInt();
+			d.rmof = in.readInt();
+			d.rmdc = in.readInt();
+			d.rmhr = in.readInt();
+			d.rmmr2 = in.readInt();
+			d.rmer2 = in.readInt();
+			d.rmec1 = in.readInt();
+			d.rmec2 = in.readInt();
+			d.cylinder = in.readInt();
+		}
+		dropTransfer();
+		if (in.readBoolean()) {					// read again from the top
+			long offset = in.readLong();
+			int length = in.readInt();
+			transferDrive = in.readInt();
+			transferAddr = in.readInt();
+			transferCount = in.readInt();
+			transferEnd = in.readInt();
+			transferAoe = in.readInt();
+			if (drives[transferDrive].image == null) {
+				throw new IOException("RM unit " + transferDrive +
+					" is not as saved");
+			}
+			transfer = DiskTransfer.read(drives[transferDrive].image, offset,
+				length);
 		}
 	}
 
@@ -631,30 +883,72 @@ public class RMDiskDevice implements UnibusDevice {
 	//
 
 	public void reset() {
+		dropTransfer();
+		unibus.cancelEvents(this);			// seeks and transfers stop
 		drive = 0;
+		rmcs1 = RMCS1_RDY;
+		rmcs2 = (drives[0].exists == RM_TYPE_NORM) ? RMCS2_NED : 0;
 		for (int i = 0; i < drives.length; ++i) {
+			if (drives[i].exists != RM_TYPE_NORM) {
+				drives[i].rmcs1 &= ~RMCS1_GO;
+				drives[i].rmds &= ~(RMDS_PIP|RMDS_ATA|RMDS_ERR);
+				drives[i].rmds |= RMDS_DRY;
+				drives[i].rmer1 = 0;
+				drives[i].rmer2 = 0;
+			}
+			if (drives[i].image instanceof CachedDiskImage) {
+				((CachedDiskImage) drives[i].image).reset();
+			}
 		}
 		// a lot more later
 	}
 
 	//
-	// eventService()
+	// eventService() - Each drive's command completes by its own event,
+	// so seeks and searches on several drives overlap each other and a
+	// transfer on another.  A drive finishing one raises attention, which
+	// only interrupts once the controller is ready, a transfer in
+	// progress interrupts for both when it's done.
 	//
 
 	public void eventService(int data) {
 		int finished = data & 07;
+		if (((data & RM_EVENT_FLAG) != 0) && (transfer != null)) {
+			finishTransfer();
+		}
 		drives[finished].rmds |= RMDS_DRY;
+		drives[finished].rmds &= ~RMDS_PIP;
 		drives[finished].rmcs1 &= ~RMCS1_GO;
-		if ((data & 8) != 0) {
+		if ((data & RM_EVENT_FLAG) != 0) {
 			rmcs1 |= RMCS1_RDY;
 		} else {
 			drives[finished].rmds |= RMDS_ATA;
 		}
-		if ((rmcs1 & RMCS1_IE) != 0) {
+		updateAttention();
+		if (((rmcs1 & RMCS1_IE) != 0) && ((rmcs1 & RMCS1_RDY) != 0)) {
 			unibus.scheduleInterrupt(this, RM_BRLEVEL, RM_VECTOR);
 		}
 	}
 
+	//
+	// updateAttention() - Special condition follows any drive wanting
+	// attention, or a transfer error.
+	//
+
+	private void updateAttention() {
+		boolean any = ((rmcs1 & RMCS1_TRE) != 0);
+		for (int i = 0; i < MAX_RM; ++i) {
+			if ((drives[i].rmds & RMDS_ATA) != 0) {
+				any = true;
+			}
+		}
+		if (any) {
+			rmcs1 |= RMCS1_SC;
+		} else {
+			rmcs1 &= ~RMCS1_SC;
+		}
+	}
+
 	//
 	// interruptService()
 	//
@@ -671,12 +965,20 @@ public class RMDiskDevice implements UnibusDevice {
 
 		boolean driveBusy = false;
 		boolean controllerBusy = false;
+		int delay = 0;						// time the drive takes
 		int cmd = (drives[drive].rmcs1 & 077);
 
 		// previous error & !clear ? = reset go, set dry, set ata, assert attn
 		// mol ? no = OPI abort
 		// vv ? no & not PACK or PRESET = IVC abort
 
+		if ((cmd >= 051) && (cmd <= 073) && ((rmcs1 & RMCS1_RDY) == 0)) {
+			rmcs2 |= RMCS2_PGE;					// another drive's transfer
+			rmcs1 |= RMCS1_TRE|RMCS1_SC;		// has the controller
+			drives[drive].rmcs1 &= ~RMCS1_GO;
+			return;
+		}
+
 		if ((drives[drive].rmer1 == 0) && (drives[drive].rmer2 == 0)) {
 			drives[drive].rmds &= ~RMDS_ATA;	// if not in error clear attn
 		}
@@ -723,6 +1025,7 @@ public class RMDiskDevice implements UnibusDevice {
 					".exec(): search <" + drives[drive].rmdc + ">");
 			}
 			driveBusy = true;
+			delay = moveHeads(0);
 			if (((drives[drive].rmda & 0177400) >> 8) >= drives[drive].heads) {
 				drives[drive].rmer1 |= RMER1_IAE;
 				break;
@@ -735,6 +1038,7 @@ public class RMDiskDevice implements UnibusDevice {
 				drives[drive].rmer1 |= RMER1_IAE;
 				break;
 			}
+			drives[drive].rmds |= RMDS_PIP;
 			break;
 		case RMCS1_SEEK:
 			if ((debug & RM_DEBUG_CMD) != 0) {
@@ -742,20 +1046,24 @@ public class RMDiskDevice implements UnibusDevice {
 					".exec(): seek <" + drives[drive].rmdc + ">");
 			}
 			driveBusy = true;
+			delay = moveHeads(-1);
 			if (drives[drive].rmdc >= drives[drive].cylinders) {
 				drives[drive].rmer1 |= RMER1_IAE;
 				break;
 			}
+			drives[drive].rmds |= RMDS_PIP;
 			break;
 		case RMCS1_READ:
 			driveBusy = true;
 			controllerBusy = true;
-			doReadWrite(false);
+			delay = moveHeads((0177777 - rmwc) + 1);
+			startTransfer(false);
 			break;
 		case RMCS1_WRITE:
 			driveBusy = true;
 			controllerBusy = true;
-			doReadWrite(true);
+			delay = moveHeads((0177777 - rmwc) + 1);
+			startTransfer(true);
 			break;
 		default:
 			if ((debug & RM_DEBUG_CMD) != 0) {
@@ -780,9 +1088,9 @@ public class RMDiskDevice implements UnibusDevice {
 		}
 		if (driveBusy) {
 			if (controllerBusy) {
-				unibus.scheduleEvent(this, RM_DELAY, drive + RM_EVENT_FLAG);
+				unibus.scheduleEvent(this, delay, drive + RM_EVENT_FLAG);
 			} else {
-				unibus.scheduleEvent(this, RM_DELAY, drive);
+				unibus.scheduleEvent(this, delay, drive);
 			}
 		} else {
 			drives[drive].rmds |= RMDS_DRY;
@@ -791,12 +1099,33 @@ public class RMDiskDevice implements UnibusDevice {
 	}
 
 	//
-	// doReadWrite() - Do a read or write by simulating DMA and doing
-	// file I/O to the disk file.  Returns true if any error indications
+	// moveHeads() - Send the drive's heads to the desired cylinder, if
+	// it's a real one, and return the time that takes, with words to
+	// move once the desired sector comes round, or -1 for a plain seek.
+	//
+
+	private int moveHeads(int words) {
+		RMDiskDrive d = drives[drive];
+		int from = d.cylinder;
+		if (d.rmdc < d.cylinders) {
+			d.cylinder = d.rmdc;
+		}
+		if (words < 0) {
+			return d.timing.seek(unibus.clock, from, d.cylinder);
+		}
+		return d.timing.transfer(unibus.clock, from, d.cylinder,
+		  d.rmda & 0377, words);
+	}
+
+	//
+	// startTransfer() - Check a read or write and start its disk I/O.
+	// A write takes its data from memory now and its registers are
+	// final straight away.  A read is collected by finishTransfer()
+	// when the command completes.  Returns true if any error indications
 	// were set.
 	//
 
-	private boolean doReadWrite(boolean write) {
+	private boolean startTransfer(boolean write) {
 
 		int addr = rmba + ((rmcs1 & 01400) << 8);	// build DMA address
 		int count = (0177777 - rmwc) + 1;			// extract word count
@@ -823,7 +1152,7 @@ public class RMDiskDevice implements UnibusDevice {
 		}
 
 		if ((debug & RM_DEBUG_CMD) != 0) {
-			System.out.print(this.getClass().getName() + ".doReadWrite(): ");
+			System.out.print(this.getClass().getName() + ".startTransfer(): ");
 			if (write) { 
 				System.out.print("write");
 			} else {
@@ -839,12 +1168,11 @@ public class RMDiskDevice implements UnibusDevice {
 		  * RM_BYTES_SECTOR) + (head * drives[drive].sectors * RM_BYTES_SECTOR)
 		  + (sector * RM_BYTES_SECTOR);
 
-		try {
-			drives[drive].file.seek(offset);		// seek into file
-		} catch (IOException e) {
+		if (drives[drive].image == null) {
 			drives[drive].rmer1 |= RMER1_HCE;
 			return true;
 		}
+		long position = offset;						// where the next sector is
 
 		// Find and check the end of the transfer. If past end of drive:
 		// This is the AOE condition, trim back count and preset
@@ -862,39 +1190,45 @@ public class RMDiskDevice implements UnibusDevice {
 			ioError = true;							// but continue anyway
 		}
 
-		// Loop sector by sector, doing the actual transfer.
+		int length = ((count * 2) + RM_BYTES_SECTOR - 1) & -RM_BYTES_SECTOR;
+		if (!write) {
+			transfer = DiskTransfer.read(drives[drive].image, position, length);
+			transferDrive = drive;
+			transferAddr = addr;
+			transferCount = count;
+			transferEnd = offset;
+			transferAoe = aoeCount;
+			return ioError;
+		}
 
-		try {
-			while (count != 0) {
-				if (write) {
-					for (int i = 0; (i < RM_BYTES_SECTOR) && (count != 0);
-					  count--) {
-						temp = unibus.read(addr);
-						buffer[i] = (byte)(temp & 0xff);
-						buffer[i + 1] = (byte)(temp >> 8);
-						addr += 2;
-						i += 2;
-					}
-					drives[drive].file.write(buffer);
-				} else {
-					drives[drive].file.readFully(buffer);
-					for (int i = 0; (i < RM_BYTES_SECTOR) && (count != 0);
-					  count--) {
-						temp = buffer[i + 1] << 8;
-						temp += ((int) buffer[i]) & 0xff;
-						unibus.write(addr, (short) temp);
-						addr += 2;
-						i += 2;
-					}
-				}
-			}
-		} catch (Trap e) {
+		// A short count from the Unibus means the next word was
+		// non-existent, only the whole sectors before it are written.
+
+		byte[] data = new byte[length];
+		temp = unibus.copyOut(addr, data, 0, count);
+		if (temp != count) {
+			count -= temp;
 			rmcs2 |= RMCS2_NEM;
 			ioError = true;
-		} catch (IOException e) {
-			drives[drive].rmer1 |= RMER1_HCE;
-			ioError = true;
+			data = Arrays.copyOf(data, (temp * 2) & -RM_BYTES_SECTOR);
+		} else {
+			count = 0;
+		}
+		if (data.length != 0) {
+			transfer = DiskTransfer.write(drives[drive].image, position, data);
+			transferDrive = drive;
 		}
+		endTransfer(drive, offset, count, aoeCount);
+		return ioError;
+	}
+
+	//
+	// endTransfer() - Update the drive address registers and word count
+	// for a transfer that ended at offset with count words left over.
+	//
+
+	private void endTransfer(int unit, int offset, int count, int aoeCount) {
+		int cylinder, head, sector;
 
 		// Trim back any residual from the end of the transfer and
 		// update the drive address registers and word count.
@@ -902,15 +1236,73 @@ public class RMDiskDevice implements UnibusDevice {
 		offset -= ((count * 2) - 1);	// offset of last work transferred
 		count += aoeCount;				// add back any past end of drive
 		cylinder = offset /
-		  (drives[drive].heads * drives[drive].sectors * RM_BYTES_SECTOR);
-		head = (offset / (drives[drive].sectors * RM_BYTES_SECTOR)) %
-		  drives[drive].heads;
-		sector = (offset / RM_BYTES_SECTOR) % drives[drive].sectors;
-		drives[drive].rmdc = cylinder;
-		drives[drive].rmda = (head << 8) | sector;
+		  (drives[unit].heads * drives[unit].sectors * RM_BYTES_SECTOR);
+		head = (offset / (drives[unit].sectors * RM_BYTES_SECTOR)) %
+		  drives[unit].heads;
+		sector = (offset / RM_BYTES_SECTOR) % drives[unit].sectors;
+		drives[unit].rmdc = cylinder;
+		drives[unit].rmda = (head << 8) | sector;
 		rmwc = (0 - count) & 0177777;
+	}
 
-		return ioError;
+	//
+	// finishTransfer() - Wait for the disk I/O to be done, then for a
+	// read move the data into memory and set the registers.
+	//
+
+	private void finishTransfer() {
+		DiskTransfer t = transfer;
+		transfer = null;
+		int count = transferCount;
+		try {
+			ByteBuffer b = t.finish();
+			if (t.isWrite()) {
+				return;
+			}
+			count -= unibus.copyIn(transferAddr, b, count);
+			if (count != 0) {
+				rmcs2 |= RMCS2_NEM;
+				rmcs1 |= RMCS1_TRE;
+			}
+		} catch (IOException e) {
+			drives[transferDrive].rmer1 |= RMER1_HCE;
+			drives[transferDrive].rmds |= RMDS_ATA|RMDS_ERR;
+			rmcs1 |= RMCS1_SC|RMCS1_TRE;
+			if (t.isWrite()) {
+				return;
+			}
+		}
+		endTransfer(transferDrive, transferEnd, count, transferAoe);
+	}
+
+	//
+	// waitTransfer() - Wait for any disk I/O in progress, leaving the
+	// rest of the command, and any error, to finishTransfer().
+	//
+
+	private void waitTransfer() {
+		if (transfer != null) {
+			try {
+				transfer.finish();
+			} catch (IOException e) {
+				// reported when the command completes
+			}
+		}
+	}
+
+	//
+	// dropTransfer() - Let any disk I/O in progress finish, for nothing.
+	//
+
+	private void dropTransfer() {
+		if (transfer != null) {
+			try {
+				transfer.finish();
+			} catch (IOException e) {
+				// nobody left to tell
+			}
+			transfer = null;
+		}
 	}
 
 }
@@ -48,5 +48,7 @@ public class RMDiskDrive {
 	public int rmer2;				// error #2
 	public int rmec1;				// ecc #1
 	public int rmec2;				// ecc #2
-	public RandomAccessFile file;	// where the data lives
+	public int cylinder;			// where the heads are
+	public DiskImage image;	// where the data lives
+	public DiskTiming timing;		// how long commands take
 }
@@ -26,7 +26,9 @@
 
 package PDPCafe;
 
-public class SimpleDevice implements UnibusDevice {
+import java.io.*;
+
+public class SimpleDevice implements UnibusDevice, SnapshotDevice {
 
   private static final int DEFAULT_BASE = 0760100;    // base address
   private static final int DEFAULT_SIZE = 8;          // number of registers
@@ -35,14 +37,14 @@ public class SimpleDevice implements UnibusDevice {
   private UnibusDeviceInfo info;
   private String options;
 
-  public SimpleDevice() {
-    this(DEFAULT_BASE, DEFAULT_SIZE, "");
+  public SimpleDevice(Machine machine) {
+    this(machine, DEFAULT_BASE, DEFAULT_SIZE, "");
   }
 
-  public SimpleDevice(int base, int size, String options) {
+  public SimpleDevice(Machine machine, int base, int size, String options) {
     this.options = options;
     storage = new short[size];
-    Unibus u = Unibus.instance();
+    Unibus u = machine.unibus;
     info = new UnibusDeviceInfo(this, base, size, "SIMPLE", false);
     u.registerDevice(info);
   }
@@ -70,6 +72,16 @@ public class SimpleDevice implements UnibusDevice {
     }
   }
 
+  public void saveState(DataOutputStream out) throws IOException {
+    for (int i = 0; i < info.size; ++i)
+      out.writeShort(storage[i]);
+  }
+
+  public void restoreState(DataInputStream in) throws IOException {
+    for (int i = 0; i < info.size; ++i)
+      storage[i] = in.readShort();
+  }
+
   public void eventService(int data) {
       // do nothing
   }
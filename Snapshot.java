@@ -0,0 +1,175 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// Snapshot.java - Save and restore a whole stopped machine.
+//
+// A snapshot is a fixed header, main memory as one block, then the
+// Unibus and device state.  Restoring needs a machine built with the
+// same devices in the same order, the disk and tape images are not
+// part of the snapshot and must be assigned as they were when it was
+// taken.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class Snapshot {
+
+	private static final long MAGIC = 0x5044504361666531L;	// "PDPCafe1"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 32;
+
+	//
+	// save() - Write the machine to a file.  The processor must be stopped.
+	//
+
+	public static void save(Machine machine, String path) throws IOException {
+		if (machine.cpu.isExecuting()) {
+			throw new IOException("processor is running");
+		}
+		short[] mem = machine.unibus.memory();
+		byte[] state = saveState(machine);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putLong(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(mem.length * 2);
+		header.putInt(state.length);
+		header.clear();
+		ByteBuffer memory = ByteBuffer.allocateDirect(mem.length * 2);
+		memory.asShortBuffer().put(mem);
+		ByteBuffer[] buffers = { header, memory, ByteBuffer.wrap(state) };
+		long total = HEADER_SIZE + (mem.length * 2) + state.length;
+
+		FileChannel channel = new RandomAccessFile(path, "rw").getChannel();
+		try {
+			channel.truncate(0);
+			long written = 0;
+			while (written < total) {
+				written += channel.write(buffers);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	//
+	// restore() - Load a machine from a file.  The processor must be
+	// stopped, and is left stopped ready to continue where it was.
+	//
+
+	public static void restore(Machine machine, String path) throws IOException {
+		if (machine.cpu.isExecuting()) {
+			throw new IOException("processor is running");
+		}
+		short[] mem = machine.unibus.memory();
+		FileChannel channel = new RandomAccessFile(path, "r").getChannel();
+		try {
+			MappedByteBuffer map =
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if ((map.capacity() < HEADER_SIZE) || (map.getLong() != MAGIC) ||
+			(map.getInt() != VERSION)) {
+				throw new IOException("not a snapshot");
+			}
+			int memoryBytes = map.getInt();
+			int stateBytes = map.getInt();
+			if ((memoryBytes != (mem.length * 2)) ||
+			(map.capacity() < (HEADER_SIZE + memoryBytes + stateBytes))) {
+				throw new IOException("snapshot is the wrong size");
+			}
+			map.position(HEADER_SIZE);
+			ByteBuffer memory = map.slice();
+			memory.limit(memoryBytes);
+			byte[] state = new byte[stateBytes];
+			map.position(HEADER_SIZE + memoryBytes);
+			map.get(state);
+
+			DataInputStream in = openState(machine, state);
+			memory.asShortBuffer().get(mem);
+			restoreState(machine, in);
+		} finally {
+			channel.close();
+		}
+	}
+
+	//
+	// saveState() - Everything but memory: the device list, the Unibus
+	// clock, events and interrupts, then each device's own state.
+	//
+
+	static byte[] saveState(Machine machine) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Vector<UnibusDevice> devices = machine.unibus.deviceList();
+		out.writeInt(devices.size());
+		for (int i = 0; i < devices.size(); ++i) {
+			out.writeUTF(devices.elementAt(i).getClass().getName());
+		}
+		machine.unibus.saveState(out, devices);
+		for (int i = 0; i < devices.size(); ++i) {
+			UnibusDevice d = devices.elementAt(i);
+			if (d instanceof SnapshotDevice) {
+				((SnapshotDevice) d).saveState(out);
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	//
+	// openState() - Check saved state is for this machine's devices,
+	// before anything is changed, and return it ready for restoreState().
+	//
+
+	static DataInputStream openState(Machine machine, byte[] state)
+	throws IOException {
+		DataInputStream in =
+			new DataInputStream(new ByteArrayInputStream(state));
+		Vector<UnibusDevice> devices = machine.unibus.deviceList();
+		if (in.readInt() != devices.size()) {
+			throw new IOException("snapshot is for different devices");
+		}
+		for (int i = 0; i < devices.size(); ++i) {
+			if (!in.readUTF().equals(devices.elementAt(i).getClass().getName())) {
+				throw new IOException("snapshot is for different devices");
+			}
+		}
+		return in;
+	}
+
+	static void restoreState(Machine machine, DataInputStream in)
+	throws IOException {
+		Vector<UnibusDevice> devices = machine.unibus.deviceList();
+		machine.unibus.restoreState(in, devices);
+		for (int i = 0; i < devices.size(); ++i) {
+			UnibusDevice d = devices.elementAt(i);
+			if (d instanceof SnapshotDevice) {
+				((SnapshotDevice) d).restoreState(in);
+			}
+		}
+	}
+}
@@ -0,0 +1,338 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// SparseDiskImage.java - Disk image kept in a sparse, optionally
+// compressed container file.
+//
+// The container is a header, then a table with an entry for each
+// cluster of the disk, then the clusters that hold anything.  An entry
+// is the file offset and stored size of its cluster, offset zero for a
+// cluster that has never held anything but zeros, which reads as zeros
+// without going to the file.  In a compressed container each cluster
+// is deflated by itself, and kept as is when that doesn't help.
+// Clusters that shrink are rewritten in place and ones that grow are
+// moved to the end, the old copy left behind until DiskConvert packs
+// the container again.
+//
+
+package PDPCafe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class SparseDiskImage implements DiskImage {
+
+	private static final long MAGIC = 0x5044504361666553L;	// "PDPCafeS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int ENTRY_SIZE = 12;
+	private static final int COMPRESSED = 1;			// header flag
+
+	public static final int CLUSTER = 4096;			// default cluster size
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private boolean readOnly;
+	private int clusterSize;			// bytes of disk per cluster
+	private long length;				// bytes of disk
+	private boolean compressed;
+	private long[] offsets;				// where each cluster is, or zero
+	private int[] sizes;				// and how many bytes it takes there
+	private long end;					// where the next cluster goes
+	private byte[] cluster;				// one cluster, as the disk sees it
+	private int cached;					// which cluster is in it, or -1
+	private byte[] stored;				// one cluster, as the file has it
+	private Deflater deflater;
+	private Inflater inflater;
+
+	//
+	// isSparse() - Tell whether the file at path is a container, as
+	// opposed to a plain image.
+	//
+
+	public static boolean isSparse(String path) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(path, "r");
+		try {
+			return (f.length() >= HEADER_SIZE) && (f.readLong() == MAGIC);
+		} finally {
+			f.close();
+		}
+	}
+
+	//
+	// open() - Open a disk image file of either kind, a plain one with
+	// plain file I/O.
+	//
+
+	public static DiskImage open(String path, boolean readOnly)
+	throws IOException {
+		if (isSparse(path)) {
+			return new SparseDiskImage(path, readOnly);
+		}
+		return new FileDiskImage(path, readOnly);
+	}
+
+	//
+	// create() - Make an empty container for a disk of length bytes.
+	//
+
+	public static void create(String path, long length, int clusterSize,
+	boolean compressed) throws IOException {
+		if ((clusterSize <= 0) || ((clusterSize % 2) != 0)) {
+			throw new IOException("bad cluster size " + clusterSize);
+		}
+		long clusters = (length + clusterSize - 1) / clusterSize;
+		DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(clusterSize);
+			out.writeLong(length);
+			out.writeInt(compressed ? COMPRESSED : 0);
+			out.writeInt(0);
+			for (long i = 0; i < (clusters * ENTRY_SIZE); ++i) {
+				out.write(0);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public SparseDiskImage(String path, boolean readOnly) throws IOException {
+		this.readOnly = readOnly;
+		file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+		try {
+			channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			get(header, 0);
+			header.flip();
+			if ((header.getLong() != MAGIC) || (header.getInt() != VERSION)) {
+				throw new IOException(path + " is not a sparse disk image");
+			}
+			clusterSize = header.getInt();
+			length = header.getLong();
+			compressed = (header.getInt() & COMPRESSED) != 0;
+			int clusters = (int) ((length + clusterSize - 1) / clusterSize);
+			ByteBuffer table = ByteBuffer.allocate(clusters * ENTRY_SIZE);
+			get(table, HEADER_SIZE);
+			table.flip();
+			offsets = new long[clusters];
+			sizes = new int[clusters];
+			for (int i = 0; i < clusters; ++i) {
+				offsets[i] = table.getLong();
+				sizes[i] = table.getInt();
+			}
+			end = Math.max(channel.size(),
+				HEADER_SIZE + ((long) clusters * ENTRY_SIZE));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		cluster = new byte[clusterSize];
+		cached = -1;
+		stored = new byte[clusterSize];
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		inflater = new Inflater();
+	}
+
+	public long length() throws IOException {
+		return length;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	//
+	// allocated() - Number of clusters that take room in the file.
+	//
+
+	public synchronized int allocated() {
+		int n = 0;
+		for (int i = 0; i < offsets.length; ++i) {
+			if (offsets[i] != 0) {
+				++n;
+			}
+		}
+		return n;
+	}
+
+	//
+	// read() - Zeros for clusters not in the file, straight from the file
+	// for ones kept as is, and through the cluster buffer for the rest.
+	//
+
+	public synchronized void read(long offset, byte[] data, int start,
+	int count) throws IOException {
+		if ((offset + count) > length) {
+			throw new EOFException();
+		}
+		while (count > 0) {
+			int c = (int) (offset / clusterSize);
+			int within = (int) (offset % clusterSize);
+			int n = Math.min(count, clusterSize - within);
+			if (offsets[c] == 0) {
+				Arrays.fill(data, start, start + n, (byte) 0);
+			} else if ((sizes[c] == clusterSize) && (c != cached)) {
+				get(ByteBuffer.wrap(data, start, n), offsets[c] + within);
+			} else {
+				load(c);
+				System.arraycopy(cluster, within, data, start, n);
+			}
+			offset += n;
+			start += n;
+			count -= n;
+		}
+	}
+
+	//
+	// write() - Each cluster touched is put together whole, then stored.
+	//
+
+	public synchronized void write(long offset, byte[] data, int start,
+	int count) throws IOException {
+		if (readOnly) {
+			throw new IOException("disk image is read only");
+		}
+		if ((offset + count) > length) {
+			throw new EOFException();
+		}
+		while (count > 0) {
+			int c = (int) (offset / clusterSize);
+			int within = (int) (offset % clusterSize);
+			int n = Math.min(count, clusterSize - within);
+			if (n < clusterSize) {
+				load(c);
+			}
+			cached = -1;
+			System.arraycopy(data, start, cluster, within, n);
+			store(c);
+			cached = c;
+			offset += n;
+			start += n;
+			count -= n;
+		}
+	}
+
+	//
+	// load() - Bring cluster c into the cluster buffer.
+	//
+
+	private void load(int c) throws IOException {
+		if (c == cached) {
+			return;
+		}
+		cached = -1;
+		if (offsets[c] == 0) {
+			Arrays.fill(cluster, (byte) 0);
+		} else if (sizes[c] == clusterSize) {
+			get(ByteBuffer.wrap(cluster), offsets[c]);
+		} else {
+			get(ByteBuffer.wrap(stored, 0, sizes[c]), offsets[c]);
+			inflater.reset();
+			inflater.setInput(stored, 0, sizes[c]);
+			try {
+				if (inflater.inflate(cluster) != clusterSize) {
+					throw new IOException("cluster " + c + " is short");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("cluster " + c + " is corrupt");
+			}
+		}
+		cached = c;
+	}
+
+	//
+	// store() - Write the cluster buffer out as cluster c, data first
+	// and then its table entry.
+	//
+
+	private void store(int c) throws IOException {
+		boolean zero = true;
+		for (int i = 0; (i < clusterSize) && zero; ++i) {
+			zero = (cluster[i] == 0);
+		}
+		long where = 0;
+		int size = 0;
+		if (!zero) {
+			byte[] b = cluster;
+			size = clusterSize;
+			if (compressed) {
+				deflater.reset();
+				deflater.setInput(cluster);
+				deflater.finish();
+				int n = deflater.deflate(stored);
+				if (deflater.finished() && (n < clusterSize)) {
+					b = stored;
+					size = n;
+				}
+			}
+			if ((offsets[c] != 0) && ((size <= sizes[c]) ||
+			((offsets[c] + sizes[c]) == end))) {
+				where = offsets[c];					// in place, or last anyway
+				end = Math.max(end, where + size);
+			} else {
+				where = end;
+				end += size;
+			}
+			put(ByteBuffer.wrap(b, 0, size), where);
+		}
+		offsets[c] = where;
+		sizes[c] = size;
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.putLong(where);
+		entry.putInt(size);
+		entry.flip();
+		put(entry, HEADER_SIZE + ((long) c * ENTRY_SIZE));
+	}
+
+	public void force() throws IOException {
+		channel.force(true);
+	}
+
+	public void close() throws IOException {
+		deflater.end();
+		inflater.end();
+		file.close();
+	}
+
+	private void get(ByteBuffer b, long position) throws IOException {
+		long at = position - b.position();
+		while (b.hasRemaining()) {
+			if (channel.read(b, at + b.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	private void put(ByteBuffer b, long position) throws IOException {
+		long at = position - b.position();
+		while (b.hasRemaining()) {
+			channel.write(b, at + b.position());
+		}
+	}
+}
@@ -28,7 +28,7 @@ package PDPCafe;
 
 import java.io.*;
 
-public class TMTapeDevice implements UnibusDevice {
+public class TMTapeDevice implements UnibusDevice, SnapshotDevice {
 
 	// Unibus interface definitions.
 
@@ -90,16 +90,16 @@ public class TMTapeDevice implements UnibusDevice {
 	private RandomAccessFile file;
 	private Unibus unibus;
 
-	public TMTapeDevice() {
-		this(TM_BASE, TM_SIZE, "");
+	public TMTapeDevice(Machine machine) {
+		this(machine, TM_BASE, TM_SIZE, "");
 	}
 
-	public TMTapeDevice(int base, int size, String options) {
+	public TMTapeDevice(Machine machine, int base, int size, String options) {
 		info = new UnibusDeviceInfo(this, base, size, "TM11", false);
 		tmcs = TM_CRDY;
 		tmer = 0;
 		file = null;
-		unibus = Unibus.instance();
+		unibus = machine.unibus;
 		unibus.registerDevice(info);
 	}
 
@@ -114,6 +114,16 @@ public class TMTapeDevice implements UnibusDevice {
 		tmer = TM_TUR|TM_SELR|TM_BOT;
 	}
 
+	// detach() - Close the tape image, if any.
+
+	public void detach() throws java.io.IOException {
+		tmer &= ~(TM_TUR|TM_SELR);
+		if (file != null) {
+			file.close();
+		}
+		file = null;
+	}
+
 	private byte[] encodeRecordSize(int recordSize) {
 		byte[] encodedSize = new byte[4];
 		encodedSize[3] = (byte) ((recordSize >> 24) & 0xff);
@@ -156,7 +166,7 @@ public class TMTapeDevice implements UnibusDevice {
 			data = tmrd;
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 		return(short) data;
 	}
@@ -196,7 +206,7 @@ public class TMTapeDevice implements UnibusDevice {
 			tmrd = data;
 			break;
 		default:
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
@@ -204,7 +214,37 @@ public class TMTapeDevice implements UnibusDevice {
 	// probably be allowed to the TM11, but I'm too lazy.
 
 	public void writebyte(int addr, byte data) throws Trap {
-		throw new Trap(Trap.Unimplemented);
+		throw Trap.instance(Trap.Unimplemented);
+	}
+
+	// saveState() - Registers and the tape position.
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(tmer);
+		out.writeInt(tmcs);
+		out.writeInt(tmbc);
+		out.writeInt(tmba);
+		out.writeInt(tmdb);
+		out.writeInt(tmrd);
+		out.writeLong((file != null) ? file.getFilePointer() : -1);
+	}
+
+	// restoreState() - The same tape must be assigned, it's repositioned.
+
+	public void restoreState(DataInputStream in) throws IOException {
+		tmer = in.readInt();
+		tmcs = in.readInt();
+		tmbc = in.readInt();
+		tmba = in.readInt();
+		tmdb = in.readInt();
+		tmrd = in.readInt();
+		long position = in.readLong();
+		if ((position >= 0) != (file != null)) {
+			throw new IOException("TM tape is not as saved");
+		}
+		if (file != null) {
+			file.seek(position);
+		}
 	}
 
 	// reset()
@@ -286,31 +326,29 @@ public class TMTapeDevice implements UnibusDevice {
 			try {
 				byte[] recInfo = new byte[4];
 				int i;
-				int temp;
 				int addr = tmba + ((tmcs & 060) << 12);
 				int count = (0177777 - tmbc) + 1;
 				file.readFully(recInfo);
-				byte[] buffer = new byte[decodeRecordSize(recInfo)];
-				file.readFully(buffer);
+				int size = decodeRecordSize(recInfo);
+				byte[] buffer = new byte[(size + 1) & ~1];	// whole words
+				file.readFully(buffer, 0, size);
 				file.readFully(recInfo);
 				if (decodeRecordSize(recInfo) == 0) {
 					tmer |= TM_EOF;
 					return;
 				}
-				for (i = 0; (i < buffer.length) && (count > 0); count -= 2) {
-					temp = ((int) buffer[i + 1]) << 8;
-					temp += ((int) buffer[i]) & 0xff;
-					unibus.write(addr, (short) temp);
-					addr += 2;
-					i += 2;
+				int words = (Math.min(count, size) + 1) / 2;
+				int done = unibus.copyIn(addr, buffer, 0, words);
+				advance(addr, done, count);
+				if (done != words) {
+					tmer |= TM_NXM;
+					return;
 				}
-				tmbc = ((0177777 - count) + 1) & 0177777;
-				if ((count != 0) || (i != buffer.length)) {
+				i = words * 2;
+				count -= words * 2;
+				if ((count != 0) || (i != size)) {
 					tmer |= TM_RLE;
 				}
-			} catch (Trap e) {
-				tmer |= TM_NXM;
-				return;
 			} catch (IOException e) {
 				tmer |= TM_CRC;
 				return;
@@ -323,29 +361,21 @@ public class TMTapeDevice implements UnibusDevice {
 	private void doWrite() {
 		if (file != null) {
 			try {
-				int i;
-				int temp;
 				int addr = tmba + ((tmcs & 060) << 12);
 				int count = (0177777 - tmbc) + 1;
 				byte[] recInfo = encodeRecordSize(count);
-				byte[] buffer = new byte[count];
-				for (i = 0; (i < buffer.length) && (count > 0); count -= 2) {
-					temp = ((int) unibus.read(addr)) & 0177777;
-					buffer[i] = (byte)(temp & 0xff);
-					buffer[i + 1] = (byte)((temp >> 8) & 0xff);
-					addr += 2;
-					i += 2;
+				int words = (count + 1) / 2;
+				byte[] buffer = new byte[words * 2];
+				int done = unibus.copyOut(addr, buffer, 0, words);
+				if (done != words) {
+					advance(addr, done, count);
+					tmer |= TM_NXM;
+					return;
 				}
 				file.write(recInfo);
-				file.write(buffer);
+				file.write(buffer, 0, count);
 				file.write(recInfo);
-				tmbc = ((0177777 - count) + 1) & 0177777;
-				if ((count != 0) || (i != buffer.length)) {
-					tmer |= TM_RLE;
-				}
-			} catch (Trap e) {
-				tmer |= TM_NXM;
-				return;
+				advance(addr, words, count);
 			} catch (IOException e) {
 				tmer |= TM_CRC;
 				return;
@@ -355,6 +385,17 @@ public class TMTapeDevice implements UnibusDevice {
 		}
 	}
 
+	// advance() - Leave the bus address just past the words moved, the
+	// non-existent one after a fault, and the byte count with the rest
+	// of the count bytes still to go.
+
+	private void advance(int addr, int words, int count) {
+		addr += words * 2;
+		tmba = addr & 0177776;
+		tmcs = (tmcs & ~060) | ((addr >> 12) & 060);
+		tmbc = (Math.min(words * 2, count) - count) & 0177777;
+	}
+
 	private void doWriteEof() {
 		if (file != null) {
 			try {
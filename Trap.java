@@ -44,9 +44,35 @@ public class Trap extends Exception {
 	public static final int WaitInstruction = -3;
 	public static final int RTTInstruction = -4;
 
-	public int vector;
+	public final int vector;
 
-	public Trap(int vector) {
+	// One instance per vector, built up front.  Traps are thrown for
+	// ordinary events like WAIT, RTT and device probes, so they carry
+	// no stack trace and are never allocated while running.
+
+	private static final Trap[] traps = new Trap[0200];
+	private static final Trap[] stops = new Trap[5];
+
+	static {
+		for (int i = 0; i < traps.length; ++i) {
+			traps[i] = new Trap(i << 1);
+		}
+		for (int i = 1; i < stops.length; ++i) {
+			stops[i] = new Trap(-i);
+		}
+	}
+
+	private Trap(int vector) {
 		this.vector = vector;
 	}
-} 
+
+	public static Trap instance(int vector) {
+		if (vector >= 0)
+			return traps[vector >> 1];
+		return stops[-vector];
+	}
+
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+}
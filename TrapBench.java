@@ -0,0 +1,119 @@
+//
+// Copyright (c) 2001 Eric A. Edwards
+//
+// This file is part of PDPCafe.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//
+// TrapBench.java - Time the processor on a fault heavy probe loop.
+//
+
+package PDPCafe;
+
+import java.lang.management.ManagementFactory;
+
+public class TrapBench {
+
+  private static final int START = 01000;
+  private static final int HANDLER = 0400;
+  private static final int PROBE = 0164000;   // nothing answers here
+
+  // The inner loop probes a missing device register the way autoconfig
+  // does, every TST times out and the vector 4 handler returns with RTI.
+
+  private static final int[] program = {
+    0012705, 0,         // 1000  mov  #n,r5
+    0012700, 0,         // 1004  mov  #0,r0
+    0005737, PROBE,     // 1010  tst  @#164000
+    0005300,            // 1014  dec  r0
+    0001374,            // 1016  bne  1010
+    0005305,            // 1020  dec  r5
+    0001370,            // 1022  bne  1004
+    0000000             // 1024  halt
+  };
+
+  private static long allocated(Thread t) {
+    java.lang.management.ThreadMXBean bean =
+      ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean)
+        .getThreadAllocatedBytes(t.getId());
+    }
+    return -1;
+  }
+
+  private static void load(Unibus unibus, int loops) throws Trap {
+    for (int i = 0; i < program.length; ++i) {
+      unibus.write(START + (i * 2), (short) program[i]);
+    }
+    unibus.write(START + 2, (short) loops);
+    unibus.write(04, (short) HANDLER);
+    unibus.write(06, (short) 0340);
+    unibus.write(HANDLER, (short) 0000002);   // rti
+  }
+
+  private static void run(CPUDevice cpu, int loops) {
+    for (int i = 0; i < 8; ++i) {
+      cpu.regs[i] = 0;
+    }
+    cpu.regs[6] = (short) START;
+    cpu.regs[7] = (short) START;
+    cpu.psw = 0340;
+    long before = allocated(cpu);
+    cpu.startExecution(false);
+    while (cpu.isExecuting()) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        // do nothing
+      }
+    }
+    long elapsed = Math.max(cpu.lastElapsed, 1);
+    long bytes = allocated(cpu) - before;
+    long faults = loops * 65536L;
+    System.out.println(faults + " faults, " + cpu.lastExecuted +
+      " instructions in " + elapsed + " msec, " +
+      (faults / elapsed) + " faults/msec, " +
+      (before < 0 ? "allocation unknown" :
+      ((bytes * 1000 / elapsed) / 1024) + " KB/sec allocated, " +
+      (bytes / faults) + " bytes/fault"));
+  }
+
+  public static void main(String argv[]) {
+    int loops = 20;
+    int passes = 3;
+    if (argv.length > 0)
+      loops = Integer.parseInt(argv[0]);
+    if (argv.length > 1)
+      passes = Integer.parseInt(argv[1]);
+    Machine machine = new Machine();
+    Unibus unibus = machine.unibus;
+    CPUDevice cpu = machine.cpu;
+    try {
+      load(unibus, loops);
+    } catch (Trap t) {
+      System.out.println("Can't load program");
+      System.exit(1);
+    }
+    for (int i = 0; i < passes; ++i) {
+      run(cpu, loops);
+    }
+    System.exit(0);
+  }
+}
@@ -26,81 +26,165 @@
 
 package PDPCafe;
 
+import java.io.*;
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.locks.LockSupport;
 
 public class Unibus implements UnibusDevice {
 
 	private static final int MEMSIZE = 124;			// size in Kwords
-	private static final int MAXEVENTS = 10;		// max events pending
-	private static final int MAXINTERRUPTS = 10;	// max interrupts pending
+	private static final int EVENTS = 16;			// initial event heap size
+	private static final int LEVELS = 8;			// interrupt priority levels
+	private static final int IOPAGE = 0760000;		// start of the I/O page
+	private static final int IOPAGE_SIZE = 4096;	// size in words
+	public static final int DIRTY_BLOCK = 64;		// bytes per dirty bit
 
 	private short mem[];						// the memory array
-	private static Unibus theInstance = null;	// the Unibus singleton
+	private int decoded[];						// CPU predecode cache
+	private long dirty[];						// memory blocks written
 	private Vector devices;						// Unibus devices
-	private UnibusEvent[] events;				// Unibus device events
-	private UnibusInterrupt[] interrupts;		// Unibus device interrupts
+	private UnibusDeviceInfo[] iopage;			// device at each I/O word
+	private UnibusEvent[] events;				// event heap, soonest first
+	private int eventCount;						// events in the heap
+	private UnibusEvent freeEvents;				// unused event nodes
+	private long eventSequence;					// order of scheduling
+	private UnibusInterrupt[] interrupts;		// pending, queued by level
+	private UnibusInterrupt[] interruptTails;	// last in each queue
+	private Object interruptLock;				// guards the queues
+	private volatile int pendingMask;			// bit n set, level n pending
+	private volatile Thread waiter;				// CPU thread parked in WAIT
+	private UnibusEvent inputs;					// outside inputs not yet taken
+	private UnibusEvent inputsTail;				// last of those
+	private InputLog inputLog;					// recording or replaying inputs
 
-	private Unibus() {
+	public long clock;							// instructions run so far
+	public volatile long nextDeadline;			// deadline of first event
+
+	public Unibus(Machine machine) {
 		mem = new short[MEMSIZE * 1024];
+		decoded = new int[MEMSIZE * 1024];
+		dirty = new long[((MEMSIZE * 2048 / DIRTY_BLOCK) + 63) / 64];
 		for (int x = 0; x < (MEMSIZE * 1024); ++x) {
 			mem[x] = (short) (x & 0177777);
 		}
 		devices = new Vector(10, 10);
-		events = new UnibusEvent[MAXEVENTS];
-		interrupts = new UnibusInterrupt[MAXINTERRUPTS];
+		iopage = new UnibusDeviceInfo[IOPAGE_SIZE];
+		events = new UnibusEvent[EVENTS];
+		eventCount = 0;
+		clock = 0;
+		nextDeadline = Long.MAX_VALUE;
+		interrupts = new UnibusInterrupt[LEVELS];
+		interruptTails = new UnibusInterrupt[LEVELS];
+		interruptLock = new Object();
+		pendingMask = 0;
 	}
 
-	public static final synchronized Unibus instance() {
-		if (theInstance == null) {
-			theInstance = new Unibus();
-		}
-		return theInstance;
+	// decodeCache() - The CPU keeps predecoded instructions here, one
+	// entry per memory word.  Any write to a word clears its entry.
+
+	public final int[] decodeCache() {
+		return decoded;
 	}
 
-	public final void registerDevice(UnibusDeviceInfo deviceInfo) {
+	//
+	// registerDevice() - Attach a device's registers to the I/O page.
+	// Registrations outside the I/O page or on top of another device's
+	// registers are refused.
+	//
+
+	public final synchronized boolean registerDevice(UnibusDeviceInfo deviceInfo) {
+		int first = (deviceInfo.base - IOPAGE) >> 1;
+		if ((deviceInfo.base < IOPAGE) || ((deviceInfo.base & 1) != 0) ||
+		(deviceInfo.size <= 0) || ((first + deviceInfo.size) > IOPAGE_SIZE)) {
+			System.out.println("Unibus: " + deviceInfo.name + " at " +
+				Integer.toOctalString(deviceInfo.base) +
+				" is outside the I/O page, not registered");
+			return false;
+		}
+		for (int i = first; i < (first + deviceInfo.size); ++i) {
+			if (iopage[i] != null) {
+				System.out.println("Unibus: " + deviceInfo.name + " at " +
+					Integer.toOctalString(deviceInfo.base) + " overlaps " +
+					iopage[i].name + " at " +
+					Integer.toOctalString(iopage[i].base) +
+					", not registered");
+				return false;
+			}
+		}
+		for (int i = first; i < (first + deviceInfo.size); ++i) {
+			iopage[i] = deviceInfo;
+		}
 		devices.addElement(deviceInfo);
-		// later check for overlap and any other conflicts
+		return true;
 	}
 
+	public final synchronized void unregisterDevice(UnibusDeviceInfo deviceInfo) {
+		if (devices.removeElement(deviceInfo)) {
+			for (int i = 0; i < IOPAGE_SIZE; ++i) {
+				if (iopage[i] == deviceInfo) {
+					iopage[i] = null;
+				}
+			}
+		}
+	}
+
+	//
+	// reset() - Drop pending events and interrupts, then reset the
+	// devices, so anything a device posts as part of its reset survives.
+	//
+
 	public final void reset() {
+		synchronized (this) {
+			while (eventCount > 0) {
+				freeEvent(events[--eventCount]);
+				events[eventCount] = null;
+			}
+			updateDeadline();
+		}
+		synchronized (interruptLock) {
+			for (int i = 0; i < LEVELS; ++i) {
+				interrupts[i] = null;
+				interruptTails[i] = null;
+			}
+			pendingMask = 0;
+		}
 		for (int i = 0; i < devices.size(); ++i) {
 			UnibusDeviceInfo d = (UnibusDeviceInfo) devices.elementAt(i);
 			d.device.reset();
 		}
-		for (int i = 0; i < MAXEVENTS; ++i) {
-				events[i] = null;
-		}
-		for (int i = 0; i < MAXINTERRUPTS; ++i) {
-				interrupts[i] = null;
-		}
 	}
 
 	public final short read(int addr) throws Trap {
 		if (addr < (MEMSIZE * 2 * 1024)) {
 			return mem[addr>>1];
 		} else {
-			for (int i = 0; i < devices.size(); ++i) {
-				UnibusDeviceInfo d = (UnibusDeviceInfo) devices.elementAt(i);
-				if ((addr >= d.base) && (addr < (d.base + (d.size * 2)))) {
+			int i = (addr - IOPAGE) >> 1;
+			if (i < IOPAGE_SIZE) {
+				UnibusDeviceInfo d = iopage[i];
+				if (d != null) {
 					return d.device.read(addr);
 				}
 			}
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
 	public final void write(int addr, short data) throws Trap {
 		if (addr < (MEMSIZE * 2 * 1024)) {
 			mem[addr>>1] = data;
+			decoded[addr>>1] = 0;
+			dirty[addr >> 12] |= 1L << (addr >> 6);
 		} else {
-			for (int i = 0; i < devices.size(); ++i) {
-				UnibusDeviceInfo d = (UnibusDeviceInfo) devices.elementAt(i);
-				if ((addr >= d.base) && (addr < (d.base + (d.size * 2)))) {
+			int i = (addr - IOPAGE) >> 1;
+			if (i < IOPAGE_SIZE) {
+				UnibusDeviceInfo d = iopage[i];
+				if (d != null) {
 					d.device.write(addr, data);
 					return;
 				}
 			}
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
@@ -116,18 +200,95 @@ public class Unibus implements UnibusDevice {
 				t |= s << 8;
 			}
 			mem[addr>>1] = (short) t;
+			decoded[addr>>1] = 0;
+			dirty[addr >> 12] |= 1L << (addr >> 6);
 		} else {
-			for (int i = 0; i < devices.size(); ++i) {
-				UnibusDeviceInfo d = (UnibusDeviceInfo) devices.elementAt(i);
-				if ((addr >= d.base) && (addr < (d.base + (d.size * 2)))) {
+			int i = (addr - IOPAGE) >> 1;
+			if (i < IOPAGE_SIZE) {
+				UnibusDeviceInfo d = iopage[i];
+				if (d != null) {
 					d.device.writebyte(addr, data);
 					return;
 				}
 			}
-			throw new Trap(Trap.UnibusTimeout);
+			throw Trap.instance(Trap.UnibusTimeout);
 		}
 	}
 
+	//
+	// copyIn() - Move a run of words from a little-endian buffer into
+	// memory starting at addr, the way a device doing DMA would.  Words
+	// in memory are copied in bulk and words in the I/O page go to
+	// their device one at a time.  The buffer must hold all the words.
+	// The number of words moved is returned: when it falls short, the
+	// word at addr + (2 * returned) is non-existent memory and the
+	// buffer is left positioned on it.
+	//
+
+	public final int copyIn(int addr, ByteBuffer src, int words) {
+		int done = 0;
+		while (done < words) {
+			int first = (addr >> 1) + done;
+			int n = Math.min(words - done, (MEMSIZE * 1024) - first);
+			if (n > 0) {
+				src.asShortBuffer().get(mem, first, n);
+				src.position(src.position() + (n * 2));
+				Arrays.fill(decoded, first, first + n, 0);
+				for (int b = (first * 2) / DIRTY_BLOCK;
+				b <= (((first + n) * 2) - 1) / DIRTY_BLOCK; ++b) {
+					dirty[b >> 6] |= 1L << b;
+				}
+				done += n;
+			} else {
+				try {
+					write(first << 1, src.getShort(src.position()));
+				} catch (Trap e) {
+					break;
+				}
+				src.position(src.position() + 2);
+				++done;
+			}
+		}
+		return done;
+	}
+
+	public final int copyIn(int addr, byte[] src, int start, int words) {
+		return copyIn(addr, ByteBuffer.wrap(src, start, words * 2).order(
+			ByteOrder.LITTLE_ENDIAN), words);
+	}
+
+	//
+	// copyOut() - Move a run of words from memory into a little-endian
+	// buffer, the other half of copyIn(), stopping the same way.
+	//
+
+	public final int copyOut(int addr, ByteBuffer dst, int words) {
+		int done = 0;
+		while (done < words) {
+			int first = (addr >> 1) + done;
+			int n = Math.min(words - done, (MEMSIZE * 1024) - first);
+			if (n > 0) {
+				dst.asShortBuffer().put(mem, first, n);
+				dst.position(dst.position() + (n * 2));
+				done += n;
+			} else {
+				try {
+					dst.putShort(dst.position(), read(first << 1));
+				} catch (Trap e) {
+					break;
+				}
+				dst.position(dst.position() + 2);
+				++done;
+			}
+		}
+		return done;
+	}
+
+	public final int copyOut(int addr, byte[] dst, int start, int words) {
+		return copyOut(addr, ByteBuffer.wrap(dst, start, words * 2).order(
+			ByteOrder.LITTLE_ENDIAN), words);
+	}
+
 	public void eventService(int data) {
 		// do nothing
 	}
@@ -135,78 +296,292 @@ public class Unibus implements UnibusDevice {
 	public void interruptService() {
 	}
 
+	//
+	// Events are kept in a binary heap ordered by deadline on the clock,
+	// the count of instructions run.  An event scheduled with a delay of
+	// d fires on the first runEvents() that takes the clock more than d
+	// past the point it was scheduled.  Event nodes are reused.
+	//
+
 	public synchronized void scheduleEvent(UnibusDevice device,
 		int delay, int data) {
-		UnibusEvent e = new UnibusEvent(device, delay, data);
-		for (int i = 0; i < MAXEVENTS; ++i) {
-			if (events[i] == null) {
-				events[i] = e;
-				return;
-			}
+		UnibusEvent e = newEvent();
+		e.device = device;
+		e.deadline = clock + delay;
+		e.sequence = eventSequence++;
+		e.data = data;
+		if (eventCount == events.length) {
+			UnibusEvent[] larger = new UnibusEvent[eventCount * 2];
+			System.arraycopy(events, 0, larger, 0, eventCount);
+			events = larger;
 		}
-		Thread.dumpStack();
-		System.out.println("Out of events!");
+		events[eventCount] = e;
+		siftUp(eventCount++);
+		updateDeadline();
+		wakeWaiter();
 	}
 
 	public synchronized void cancelEvents(UnibusDevice device) {
-		for (int i = 0; i < MAXEVENTS; ++i) {
-			if ((events[i] != null) && (events[i].device == device)) {
-				events[i] = null;
+		int kept = 0;
+		for (int i = 0; i < eventCount; ++i) {
+			if (events[i].device == device) {
+				freeEvent(events[i]);
+			} else {
+				events[kept++] = events[i];
 			}
 		}
+		for (int i = kept; i < eventCount; ++i) {
+			events[i] = null;
+		}
+		eventCount = kept;
+		for (int i = (eventCount / 2) - 1; i >= 0; --i) {
+			siftDown(i);
+		}
+		updateDeadline();
 	}
 
 	public synchronized void runEvents(int count) {
-		for (int i = 0; i < MAXEVENTS; ++i) {
-			if (events[i] != null) {
-				if (events[i].delay < count) {
-					events[i].device.eventService(events[i].data);
-					events[i] = null;
-				} else {
-					events[i].delay -= count;
-				}
+		clock += count;
+		if ((inputs != null) || (inputLog != null)) {
+			takeInputs();
+		}
+		while ((eventCount > 0) && (events[0].deadline < clock)) {
+			UnibusEvent e = events[0];
+			events[0] = events[--eventCount];
+			events[eventCount] = null;
+			if (eventCount > 0) {
+				siftDown(0);
+			}
+			UnibusDevice device = e.device;
+			int data = e.data;
+			freeEvent(e);
+			device.eventService(data);
+		}
+		updateDeadline();
+	}
+
+	//
+	// updateDeadline() - Work out when the CPU next has to call
+	// runEvents(), for the first event or the next replayed input, or
+	// right away if live input is waiting.
+	//
+
+	private final void updateDeadline() {
+		long deadline = (eventCount > 0) ? events[0].deadline : Long.MAX_VALUE;
+		if (inputs != null) {
+			deadline = -1;
+		} else if (inputLog != null) {
+			long next = inputLog.next();
+			if ((next != Long.MAX_VALUE) && ((next - 1) < deadline)) {
+				deadline = next - 1;
+			}
+		}
+		nextDeadline = deadline;
+	}
+
+	private final UnibusEvent newEvent() {
+		UnibusEvent e = freeEvents;
+		if (e != null) {
+			freeEvents = e.next;
+			e.next = null;
+		} else {
+			e = new UnibusEvent();
+		}
+		return e;
+	}
+
+	private final void freeEvent(UnibusEvent e) {
+		e.device = null;
+		e.next = freeEvents;
+		freeEvents = e;
+	}
+
+	private final boolean before(UnibusEvent a, UnibusEvent b) {
+		return (a.deadline < b.deadline) ||
+			((a.deadline == b.deadline) && (a.sequence < b.sequence));
+	}
+
+	private final void siftUp(int i) {
+		UnibusEvent e = events[i];
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (!before(e, events[parent]))
+				break;
+			events[i] = events[parent];
+			i = parent;
+		}
+		events[i] = e;
+	}
+
+	private final void siftDown(int i) {
+		UnibusEvent e = events[i];
+		while (true) {
+			int child = (i << 1) + 1;
+			if (child >= eventCount)
+				break;
+			if (((child + 1) < eventCount) && before(events[child + 1], events[child]))
+				++child;
+			if (!before(events[child], e))
+				break;
+			events[i] = events[child];
+			i = child;
+		}
+		events[i] = e;
+	}
+
+	//
+	// Input from outside the machine, a line clock tick off the host
+	// clock or a character off the wire, is handed over with input() from
+	// any thread.  The CPU thread passes it to the device's eventService()
+	// at the next instruction boundary, ahead of any events due there, so
+	// the instruction it lands on can be logged and replayed exactly.
+	//
+
+	public synchronized void input(UnibusDevice device, int data) {
+		if (replaying()) {
+			return;						// the log supplies the input
+		}
+		UnibusEvent e = newEvent();
+		e.device = device;
+		e.data = data;
+		if (inputs == null) {
+			inputs = e;
+		} else {
+			inputsTail.next = e;
+		}
+		inputsTail = e;
+		nextDeadline = -1;				// less than any clock, take it now
+		wakeWaiter();
+	}
+
+	private final void takeInputs() {
+		boolean replay = replaying();
+		while (inputs != null) {
+			UnibusEvent e = inputs;
+			inputs = e.next;
+			UnibusDevice device = e.device;
+			int data = e.data;
+			freeEvent(e);
+			if (replay) {
+				continue;				// live input from before the replay
 			}
+			if (inputLog != null) {
+				inputLog.log(clock, device, data);
+			}
+			device.eventService(data);
+		}
+		inputsTail = null;
+		if (replay) {
+			inputLog.play(clock);
 		}
 	}
 
-	public synchronized void scheduleInterrupt(UnibusDevice device,
+	//
+	// setInputLog() - Start recording or replaying input, or stop with
+	// null.  Only while the processor is stopped.
+	//
+
+	public synchronized void setInputLog(InputLog log) {
+		inputLog = log;
+		updateDeadline();
+	}
+
+	public final boolean replaying() {
+		InputLog log = inputLog;
+		return (log != null) && log.replaying();
+	}
+
+	//
+	// Interrupts are queued per BR level, first come first served within
+	// a level, with pendingMask showing which levels have anything queued.
+	// The queues have their own lock so device threads can post without
+	// waiting on the Unibus monitor, and the CPU can check for work with
+	// a single read of the mask.
+	//
+
+	public void scheduleInterrupt(UnibusDevice device,
 	int level, int vector) {
-		for (int i = 0; i < MAXINTERRUPTS; ++i) {
-			if ((interrupts[i] != null) && (interrupts[i].device == device) && 
-				(interrupts[i].level == level) && 
-				(interrupts[i].vector == vector)) {
+		synchronized (interruptLock) {
+			for (UnibusInterrupt n = interrupts[level]; n != null; n = n.next) {
+				if ((n.device == device) && (n.vector == vector)) {
 					return;
+				}
 			}
-		}
-		UnibusInterrupt n = new UnibusInterrupt(device, level, vector);
-		for (int i = 0; i < MAXINTERRUPTS; ++i) {
-			if (interrupts[i] == null) {
-				interrupts[i] = n;
-				return;
+			UnibusInterrupt n = new UnibusInterrupt(device, level, vector);
+			n.posted = clock;
+			if (interrupts[level] == null) {
+				interrupts[level] = n;
+			} else {
+				interruptTails[level].next = n;
 			}
+			interruptTails[level] = n;
+			pendingMask |= 1 << level;
 		}
-		Thread.dumpStack();
-		System.out.println("Out of interrupts!");
+		wakeWaiter();
 	}
 
-	public synchronized void cancelInterrupt(UnibusDevice device,
+	//
+	// setWaiter() - Name the thread parked in WAIT, or null when it's
+	// running again.  Posting an interrupt or event unparks it, and so
+	// does wakeWaiter(), for a request to stop.
+	//
+
+	public void setWaiter(Thread thread) {
+		waiter = thread;
+	}
+
+	public final void wakeWaiter() {
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	public void cancelInterrupt(UnibusDevice device,
 	int level, int vector) {
-		for (int i = 0; i < MAXINTERRUPTS; ++i) {
-			if ((interrupts[i] != null) && (interrupts[i].device == device) && 
-				(interrupts[i].level == level) && 
-				(interrupts[i].vector == vector)) {
-					interrupts[i] = null;
+		synchronized (interruptLock) {
+			UnibusInterrupt prev = null;
+			UnibusInterrupt n = interrupts[level];
+			while (n != null) {
+				if ((n.device == device) && (n.vector == vector)) {
+					if (prev == null) {
+						interrupts[level] = n.next;
+					} else {
+						prev.next = n.next;
+					}
+					if (interruptTails[level] == n) {
+						interruptTails[level] = prev;
+					}
+				} else {
+					prev = n;
+				}
+				n = n.next;
+			}
+			if (interrupts[level] == null) {
+				pendingMask &= ~(1 << level);
 			}
 		}
 	}
 
-	public synchronized UnibusInterrupt runInterrupts(int level) {
-		UnibusInterrupt n;
-		for (int i = 0; i < MAXINTERRUPTS; ++i) {
-			if (interrupts[i] != null) {
-				if (interrupts[i].level > level) {
-					n = interrupts[i];
-					interrupts[i] = null;
+	//
+	// runInterrupts() - Take the highest priority interrupt above level,
+	// or return null if there isn't one.
+	//
+
+	public UnibusInterrupt runInterrupts(int level) {
+		if ((pendingMask >> (level + 1)) == 0) {
+			return null;
+		}
+		synchronized (interruptLock) {
+			for (int i = LEVELS - 1; i > level; --i) {
+				UnibusInterrupt n = interrupts[i];
+				if (n != null) {
+					interrupts[i] = n.next;
+					if (n.next == null) {
+						interruptTails[i] = null;
+						pendingMask &= ~(1 << i);
+					}
+					n.next = null;
 					return n;
 				}
 			}
@@ -214,16 +589,150 @@ public class Unibus implements UnibusDevice {
 		return null;
 	}
 
-	public synchronized boolean waitingInterrupt(int level) {
-		UnibusInterrupt n;
-		for (int i = 0; i < MAXINTERRUPTS; ++i) {
-			if (interrupts[i] != null) {
-				if (interrupts[i].level > level) {
-					return true;
+	public boolean waitingInterrupt(int level) {
+		return (pendingMask >> (level + 1)) != 0;
+	}
+
+	//
+	// deviceList() - The distinct devices on the bus, in the order they
+	// first registered.  Snapshots use this order to name devices.
+	//
+
+	public synchronized Vector<UnibusDevice> deviceList() {
+		Vector<UnibusDevice> list = new Vector<UnibusDevice>(devices.size());
+		for (int i = 0; i < devices.size(); ++i) {
+			UnibusDevice d = ((UnibusDeviceInfo) devices.elementAt(i)).device;
+			if (!list.contains(d)) {
+				list.addElement(d);
+			}
+		}
+		return list;
+	}
+
+	public final short[] memory() {
+		return mem;
+	}
+
+	//
+	// takeDirty() - Return a bitmap of the DIRTY_BLOCK sized blocks of
+	// memory written since the last call, bit n of word w for block
+	// (w * 64) + n, and start a fresh one.  Every write to memory, from
+	// the processor or a device, goes through write() or writebyte()
+	// and sets the bit for its block.
+	//
+
+	public final synchronized long[] takeDirty() {
+		long[] taken = dirty.clone();
+		Arrays.fill(dirty, 0L);
+		return taken;
+	}
+
+	public final synchronized void markAllDirty() {
+		Arrays.fill(dirty, -1L);
+	}
+
+	//
+	// saveState() - Write the clock, the event heap and the interrupt
+	// queues.  Devices are written as their index in the device list.
+	//
+
+	public synchronized void saveState(DataOutputStream out, Vector<UnibusDevice> list)
+	throws IOException {
+		out.writeLong(clock);
+		out.writeLong(eventSequence);
+		out.writeInt(eventCount);
+		for (int i = 0; i < eventCount; ++i) {
+			UnibusEvent e = events[i];
+			out.writeInt(deviceIndex(list, e.device));
+			out.writeLong(e.deadline);
+			out.writeLong(e.sequence);
+			out.writeInt(e.data);
+		}
+		synchronized (interruptLock) {
+			for (int i = 0; i < LEVELS; ++i) {
+				int count = 0;
+				for (UnibusInterrupt n = interrupts[i]; n != null; n = n.next) {
+					++count;
+				}
+				out.writeInt(count);
+				for (UnibusInterrupt n = interrupts[i]; n != null; n = n.next) {
+					out.writeInt(deviceIndex(list, n.device));
+					out.writeInt(n.vector);
+					out.writeLong(n.posted);
 				}
 			}
 		}
-		return false;
+	}
+
+	//
+	// restoreState() - Replace the clock, events and interrupts with
+	// those saved, and forget every predecoded instruction.
+	//
+
+	public synchronized void restoreState(DataInputStream in, Vector<UnibusDevice> list)
+	throws IOException {
+		while (eventCount > 0) {
+			freeEvent(events[--eventCount]);
+			events[eventCount] = null;
+		}
+		clock = in.readLong();
+		eventSequence = in.readLong();
+		int count = in.readInt();
+		for (int i = 0; i < count; ++i) {
+			UnibusEvent e = newEvent();
+			e.device = deviceAt(list, in.readInt());
+			e.deadline = in.readLong();
+			e.sequence = in.readLong();
+			e.data = in.readInt();
+			if (eventCount == events.length) {
+				UnibusEvent[] larger = new UnibusEvent[eventCount * 2];
+				System.arraycopy(events, 0, larger, 0, eventCount);
+				events = larger;
+			}
+			events[eventCount] = e;
+			siftUp(eventCount++);
+		}
+		updateDeadline();
+		synchronized (interruptLock) {
+			pendingMask = 0;
+			for (int i = 0; i < LEVELS; ++i) {
+				interrupts[i] = null;
+				interruptTails[i] = null;
+				count = in.readInt();
+				for (int j = 0; j < count; ++j) {
+					UnibusDevice device = deviceAt(list, in.readInt());
+					UnibusInterrupt n = new UnibusInterrupt(device, i, in.readInt());
+					n.posted = in.readLong();
+					if (interrupts[i] == null) {
+						interrupts[i] = n;
+					} else {
+						interruptTails[i].next = n;
+					}
+					interruptTails[i] = n;
+					pendingMask |= 1 << i;
+				}
+			}
+		}
+		Arrays.fill(decoded, 0);
+		Arrays.fill(dirty, -1L);
+	}
+
+	private final int deviceIndex(Vector<UnibusDevice> list, UnibusDevice device)
+	throws IOException {
+		int index = list.indexOf(device);
+		if (index < 0) {
+			throw new IOException(device.getClass().getName() +
+				" is not on the bus");
+		}
+		return index;
+	}
+
+	private final UnibusDevice deviceAt(Vector<UnibusDevice> list, int index)
+	throws IOException {
+		if ((index < 0) || (index >= list.size())) {
+			throw new IOException("bad device in snapshot");
+		}
+		return list.elementAt(index);
 	}
 
 	public void dumpDevices() {
@@ -28,12 +28,11 @@ package PDPCafe;
 
 public class UnibusEvent {
 	public UnibusDevice device;
-	public int delay;
+	public long deadline;		// fires once the clock passes this
+	public long sequence;		// keeps equal deadlines in order
 	public int data;
+	UnibusEvent next;			// free list link
 
-	UnibusEvent(UnibusDevice device, int delay, int data) {
-		this.device = device;
-		this.delay = delay;
-		this.data = data;
+	UnibusEvent() {
 	}
 }
@@ -31,6 +31,8 @@ public class UnibusInterrupt {
 	public UnibusDevice device;
 	public int level;
 	public int vector;
+	public long posted;			// Unibus clock when posted
+	UnibusInterrupt next;		// next at the same level
 	UnibusInterrupt(UnibusDevice device, int level, int vector) {
 	this.device = device;
 			this.level = level;